@@ -0,0 +1,23 @@
+package edu.kit.tm.ptp;
+
+import java.nio.ByteBuffer;
+
+/**
+ * An interface for subscribers to received messages which are passed as ByteBuffers.
+ * Messages are only passed without copying them under the conditions described at
+ * {@link PTP#setByteBufferReceiveListener(ByteBufferReceiveListener)}.
+ *
+ * @author Timon Hackenjos
+ */
+public interface ByteBufferReceiveListener {
+
+  /**
+   * Indicates that a message was received.
+   * The message is located between the position and the limit of the buffer.
+   * The buffer is reused after the method returns and must not be stored.
+   *
+   * @param data The received message.
+   * @param source The hidden service identifier of the source of the message.
+   */
+  void messageReceived(ByteBuffer data, Identifier source);
+}
@@ -0,0 +1,189 @@
+package edu.kit.tm.ptp;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs the listeners of the application using an Executor.
+ * Callbacks concerning the same identifier are run one after another in the order
+ * they have been dispatched. Callbacks concerning different identifiers may run in parallel.
+ * Without an Executor callbacks are run by the dispatching thread.
+ *
+ * @author Timon Hackenjos
+ */
+public class CallbackDispatcher {
+  /** Maximum number of callbacks run for an identifier before other identifiers get a turn. */
+  private static final int BATCHSIZE = 64;
+  private static final Logger logger = Logger.getLogger(CallbackDispatcher.class.getName());
+
+  private final Executor executor;
+  private final Map<Identifier, SerialQueue> queues = new HashMap<>();
+  private final AtomicInteger queued = new AtomicInteger(0);
+  private final AtomicInteger maxQueued = new AtomicInteger(0);
+  private final AtomicLong dispatched = new AtomicLong(0);
+
+  /**
+   * Constructs a new CallbackDispatcher.
+   *
+   * @param executor The executor to run callbacks with or null to run them directly.
+   */
+  public CallbackDispatcher(Executor executor) {
+    this.executor = executor;
+  }
+
+  /**
+   * Runs the callback after the previously dispatched callbacks for the identifier.
+   *
+   * @param identifier The identifier the callback concerns.
+   * @param callback The callback to run.
+   */
+  public void dispatch(Identifier identifier, Runnable callback) {
+    dispatched.incrementAndGet();
+
+    if (executor == null) {
+      callback.run();
+      return;
+    }
+
+    SerialQueue queue;
+    boolean schedule;
+    int depth;
+
+    synchronized (queues) {
+      queue = queues.get(identifier);
+
+      if (queue == null) {
+        queue = new SerialQueue(identifier);
+        queues.put(identifier, queue);
+      }
+
+      queue.callbacks.add(callback);
+      schedule = !queue.scheduled;
+      queue.scheduled = true;
+      depth = queued.incrementAndGet();
+    }
+
+    int max;
+
+    while (depth > (max = maxQueued.get())) {
+      if (maxQueued.compareAndSet(max, depth)) {
+        break;
+      }
+    }
+
+    if (schedule) {
+      schedule(queue);
+    }
+  }
+
+  /**
+   * Returns true if callbacks are run by an Executor.
+   */
+  public boolean isAsynchronous() {
+    return executor != null;
+  }
+
+  /**
+   * Returns the number of callbacks waiting to be run.
+   */
+  public int getQueuedCallbacks() {
+    return queued.get();
+  }
+
+  /**
+   * Returns the maximum number of callbacks which waited to be run at the same time.
+   */
+  public int getMaxQueuedCallbacks() {
+    return maxQueued.get();
+  }
+
+  /**
+   * Returns the number of callbacks dispatched so far.
+   */
+  public long getDispatchedCallbacks() {
+    return dispatched.get();
+  }
+
+  /**
+   * Returns the number of identifiers with callbacks waiting to be run.
+   */
+  public int getQueuedIdentifiers() {
+    synchronized (queues) {
+      return queues.size();
+    }
+  }
+
+  private void schedule(SerialQueue queue) {
+    try {
+      executor.execute(queue);
+    } catch (RejectedExecutionException e) {
+      int dropped;
+
+      synchronized (queues) {
+        dropped = queue.callbacks.size();
+        queue.callbacks.clear();
+        queue.scheduled = false;
+        queues.remove(queue.identifier);
+        queued.addAndGet(-dropped);
+      }
+
+      logger.log(Level.WARNING, "Dropping " + dropped + " callbacks for " + queue.identifier
+          + " because the executor rejected them");
+    }
+  }
+
+  /**
+   * Callbacks of a single identifier. Only one thread at a time runs the callbacks of a queue.
+   */
+  private class SerialQueue implements Runnable {
+    private final Identifier identifier;
+    private final Queue<Runnable> callbacks = new ArrayDeque<>();
+    /** True while the queue has been handed to the executor. */
+    private boolean scheduled = false;
+
+    public SerialQueue(Identifier identifier) {
+      this.identifier = identifier;
+    }
+
+    @Override
+    public void run() {
+      for (int i = 0; i < BATCHSIZE; i++) {
+        Runnable callback;
+
+        synchronized (queues) {
+          callback = callbacks.poll();
+
+          if (callback == null) {
+            scheduled = false;
+            queues.remove(identifier);
+            return;
+          }
+
+          queued.decrementAndGet();
+        }
+
+        boolean completed = false;
+
+        try {
+          callback.run();
+          completed = true;
+        } finally {
+          if (!completed) {
+            // Keep running the remaining callbacks if the listener failed
+            schedule(this);
+          }
+        }
+      }
+
+      schedule(this);
+    }
+  }
+}
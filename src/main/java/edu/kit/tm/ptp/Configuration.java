@@ -13,10 +13,36 @@ import java.util.logging.Logger;
  *
  */
 public class Configuration {
+  /**
+   * Describes what happens when a message is sent while a limit of pending messages is reached.
+   */
+  public enum PendingLimitPolicy {
+    /** Wait until enough pending messages have been sent or dropped. */
+    BLOCK,
+    /** Throw an IllegalStateException. */
+    FAIL,
+    /** Return -1 instead of the id of the message. The message isn't sent. */
+    REJECT
+  }
+
   public static final int DEFAULT_MESSAGESENDRETRYINTERVAL = 5 * 1000;
   public static final int DEFAULT_CONNECTRETRYINTERVAL = 30 * 1000;
+  public static final int DEFAULT_MAXCONNECTRETRYINTERVAL = 10 * 60 * 1000;
+  public static final int DEFAULT_CONNECTRETRYJITTER = 20;
   public static final int DEFAULT_ISALIVETIMEOUT = 60 * 1000;
   public static final int DEFAULT_ISALIVESENDTIMEOUT = 20 * 1000;
+  public static final int DEFAULT_MAXPOOLEDMESSAGESIZE = 64 * 1024;
+  public static final boolean DEFAULT_DIRECTRECEIVEBUFFERS = false;
+  public static final int DEFAULT_SELECTORTHREADS = 1;
+  public static final int DEFAULT_CALLBACKTHREADS = 0;
+  public static final int DEFAULT_MAXPENDINGBYTES = 0;
+  public static final int DEFAULT_MAXPENDINGMESSAGES = 0;
+  public static final int DEFAULT_MAXPENDINGBYTESPERDESTINATION = 0;
+  public static final int DEFAULT_MAXPENDINGMESSAGESPERDESTINATION = 0;
+  public static final PendingLimitPolicy DEFAULT_PENDINGLIMITPOLICY = PendingLimitPolicy.BLOCK;
+  public static final int DEFAULT_COMPRESSIONTHRESHOLD = 0;
+  public static final int DEFAULT_CONNECTIONSTRIPES = 1;
+  public static final int DEFAULT_MAXHELDBYTESPERSTRIPE = 4 * 16 * 1024;
 
   /** The logger for this class. */
   private Logger logger = null;
@@ -41,7 +67,21 @@ public class Configuration {
   private int isAliveTimeout = DEFAULT_ISALIVETIMEOUT;
   private int isAliveSendTimeout = DEFAULT_ISALIVESENDTIMEOUT;
   private int connectRetryInterval = DEFAULT_CONNECTRETRYINTERVAL;
+  private int maxConnectRetryInterval = DEFAULT_MAXCONNECTRETRYINTERVAL;
+  private int connectRetryJitter = DEFAULT_CONNECTRETRYJITTER;
   private int messageSendRetryInterval = DEFAULT_MESSAGESENDRETRYINTERVAL;
+  private int maxPooledMessageSize = DEFAULT_MAXPOOLEDMESSAGESIZE;
+  private boolean directReceiveBuffers = DEFAULT_DIRECTRECEIVEBUFFERS;
+  private int selectorThreads = DEFAULT_SELECTORTHREADS;
+  private int callbackThreads = DEFAULT_CALLBACKTHREADS;
+  private int maxPendingBytes = DEFAULT_MAXPENDINGBYTES;
+  private int maxPendingMessages = DEFAULT_MAXPENDINGMESSAGES;
+  private int maxPendingBytesPerDestination = DEFAULT_MAXPENDINGBYTESPERDESTINATION;
+  private int maxPendingMessagesPerDestination = DEFAULT_MAXPENDINGMESSAGESPERDESTINATION;
+  private PendingLimitPolicy pendingLimitPolicy = DEFAULT_PENDINGLIMITPOLICY;
+  private int compressionThreshold = DEFAULT_COMPRESSIONTHRESHOLD;
+  private int connectionStripes = DEFAULT_CONNECTIONSTRIPES;
+  private int maxHeldBytesPerStripe = DEFAULT_MAXHELDBYTESPERSTRIPE;
 
   protected Configuration() {
 
@@ -90,6 +130,66 @@ public class Configuration {
     sb.append(isAliveSendTimeout);
     sb.append("\n");
 
+    sb.append("\tConnect retry interval = ");
+    sb.append(connectRetryInterval);
+    sb.append("\n");
+
+    sb.append("\tMax connect retry interval = ");
+    sb.append(maxConnectRetryInterval);
+    sb.append("\n");
+
+    sb.append("\tConnect retry jitter = ");
+    sb.append(connectRetryJitter);
+    sb.append("\n");
+
+    sb.append("\tMax pooled message size = ");
+    sb.append(maxPooledMessageSize);
+    sb.append("\n");
+
+    sb.append("\tDirect receive buffers = ");
+    sb.append(directReceiveBuffers);
+    sb.append("\n");
+
+    sb.append("\tSelector threads = ");
+    sb.append(selectorThreads);
+    sb.append("\n");
+
+    sb.append("\tCallback threads = ");
+    sb.append(callbackThreads);
+    sb.append("\n");
+
+    sb.append("\tMax pending bytes = ");
+    sb.append(maxPendingBytes);
+    sb.append("\n");
+
+    sb.append("\tMax pending messages = ");
+    sb.append(maxPendingMessages);
+    sb.append("\n");
+
+    sb.append("\tMax pending bytes per destination = ");
+    sb.append(maxPendingBytesPerDestination);
+    sb.append("\n");
+
+    sb.append("\tMax pending messages per destination = ");
+    sb.append(maxPendingMessagesPerDestination);
+    sb.append("\n");
+
+    sb.append("\tPending limit policy = ");
+    sb.append(pendingLimitPolicy);
+    sb.append("\n");
+
+    sb.append("\tCompression threshold = ");
+    sb.append(compressionThreshold);
+    sb.append("\n");
+
+    sb.append("\tConnection stripes = ");
+    sb.append(connectionStripes);
+    sb.append("\n");
+
+    sb.append("\tMax held bytes per stripe = ");
+    sb.append(maxHeldBytesPerStripe);
+    sb.append("\n");
+
     sb.append("</Configuration>");
 
     return sb.toString();
@@ -172,6 +272,22 @@ public class Configuration {
     this.connectRetryInterval = connectRetryInterval;
   }
 
+  public synchronized void setMaxConnectRetryInterval(int maxConnectRetryInterval) {
+    if (maxConnectRetryInterval < 0) {
+      throw new IllegalArgumentException();
+    }
+
+    this.maxConnectRetryInterval = maxConnectRetryInterval;
+  }
+
+  public synchronized void setConnectRetryJitter(int connectRetryJitter) {
+    if (connectRetryJitter < 0 || connectRetryJitter > 100) {
+      throw new IllegalArgumentException();
+    }
+
+    this.connectRetryJitter = connectRetryJitter;
+  }
+
   public synchronized  void setMessageSendRetryInterval(int messageSendRetryInterval) {
     if (messageSendRetryInterval < 0) {
       throw new IllegalArgumentException();
@@ -180,6 +296,99 @@ public class Configuration {
     this.messageSendRetryInterval = messageSendRetryInterval;
   }
 
+  public synchronized void setMaxPooledMessageSize(int maxPooledMessageSize) {
+    if (maxPooledMessageSize < 0) {
+      throw new IllegalArgumentException();
+    }
+
+    this.maxPooledMessageSize = maxPooledMessageSize;
+  }
+
+  public synchronized void setDirectReceiveBuffers(boolean directReceiveBuffers) {
+    this.directReceiveBuffers = directReceiveBuffers;
+  }
+
+  public synchronized void setSelectorThreads(int selectorThreads) {
+    if (selectorThreads < 1) {
+      throw new IllegalArgumentException();
+    }
+
+    this.selectorThreads = selectorThreads;
+  }
+
+  public synchronized void setCallbackThreads(int callbackThreads) {
+    if (callbackThreads < 0) {
+      throw new IllegalArgumentException();
+    }
+
+    this.callbackThreads = callbackThreads;
+  }
+
+  public synchronized void setMaxPendingBytes(int maxPendingBytes) {
+    if (maxPendingBytes < 0) {
+      throw new IllegalArgumentException();
+    }
+
+    this.maxPendingBytes = maxPendingBytes;
+  }
+
+  public synchronized void setMaxPendingMessages(int maxPendingMessages) {
+    if (maxPendingMessages < 0) {
+      throw new IllegalArgumentException();
+    }
+
+    this.maxPendingMessages = maxPendingMessages;
+  }
+
+  public synchronized void setMaxPendingBytesPerDestination(int maxPendingBytesPerDestination) {
+    if (maxPendingBytesPerDestination < 0) {
+      throw new IllegalArgumentException();
+    }
+
+    this.maxPendingBytesPerDestination = maxPendingBytesPerDestination;
+  }
+
+  public synchronized void setMaxPendingMessagesPerDestination(
+      int maxPendingMessagesPerDestination) {
+    if (maxPendingMessagesPerDestination < 0) {
+      throw new IllegalArgumentException();
+    }
+
+    this.maxPendingMessagesPerDestination = maxPendingMessagesPerDestination;
+  }
+
+  public synchronized void setPendingLimitPolicy(PendingLimitPolicy pendingLimitPolicy) {
+    if (pendingLimitPolicy == null) {
+      throw new NullPointerException();
+    }
+
+    this.pendingLimitPolicy = pendingLimitPolicy;
+  }
+
+  public synchronized void setCompressionThreshold(int compressionThreshold) {
+    if (compressionThreshold < 0) {
+      throw new IllegalArgumentException();
+    }
+
+    this.compressionThreshold = compressionThreshold;
+  }
+
+  public synchronized void setConnectionStripes(int connectionStripes) {
+    if (connectionStripes < 1) {
+      throw new IllegalArgumentException();
+    }
+
+    this.connectionStripes = connectionStripes;
+  }
+
+  public synchronized void setMaxHeldBytesPerStripe(int maxHeldBytesPerStripe) {
+    if (maxHeldBytesPerStripe < 1) {
+      throw new IllegalArgumentException();
+    }
+
+    this.maxHeldBytesPerStripe = maxHeldBytesPerStripe;
+  }
+
   /**
    * Returns the PTP working directory.
    */
@@ -251,12 +460,29 @@ public class Configuration {
 
 
   /**
-   * Returns the time (in milliseconds) to wait between two consecutive connection attempts.
+   * Returns the time (in milliseconds) to wait between the first two consecutive
+   * connection attempts to a destination. The time doubles with every further attempt.
    */
   public synchronized int getConnectRetryInterval() {
     return connectRetryInterval;
   }
 
+  /**
+   * Returns the maximum time (in milliseconds) to wait between two consecutive
+   * connection attempts to a destination.
+   */
+  public synchronized int getMaxConnectRetryInterval() {
+    return maxConnectRetryInterval;
+  }
+
+  /**
+   * Returns the maximum deviation (in percent) of the time to wait between two
+   * consecutive connection attempts.
+   */
+  public synchronized int getConnectRetryJitter() {
+    return connectRetryJitter;
+  }
+
   /**
    * Returns the time (in milliseconds) to wait before retrying to send messages.
    */
@@ -264,6 +490,99 @@ public class Configuration {
     return messageSendRetryInterval;
   }
 
+  /**
+   * Returns the maximum size (in bytes) of received messages which are read into
+   * pooled buffers. Bigger messages use freshly allocated buffers.
+   */
+  public synchronized int getMaxPooledMessageSize() {
+    return maxPooledMessageSize;
+  }
+
+  /**
+   * Returns true if received messages are read into direct buffers
+   * instead of buffers on the heap.
+   */
+  public synchronized boolean getDirectReceiveBuffers() {
+    return directReceiveBuffers;
+  }
+
+  /**
+   * Returns the number of threads which read from and write to connections.
+   * Connections are accepted by a separate thread.
+   */
+  public synchronized int getSelectorThreads() {
+    return selectorThreads;
+  }
+
+  /**
+   * Returns the number of threads which call the listeners of the application.
+   * If it is 0 listeners are called by the thread handling the connections.
+   */
+  public synchronized int getCallbackThreads() {
+    return callbackThreads;
+  }
+
+  /**
+   * Returns the maximum size (in bytes) of all messages waiting to be sent or 0 for no limit.
+   */
+  public synchronized int getMaxPendingBytes() {
+    return maxPendingBytes;
+  }
+
+  /**
+   * Returns the maximum number of messages waiting to be sent or 0 for no limit.
+   */
+  public synchronized int getMaxPendingMessages() {
+    return maxPendingMessages;
+  }
+
+  /**
+   * Returns the maximum size (in bytes) of the messages waiting to be sent to a single
+   * destination or 0 for no limit.
+   */
+  public synchronized int getMaxPendingBytesPerDestination() {
+    return maxPendingBytesPerDestination;
+  }
+
+  /**
+   * Returns the maximum number of messages waiting to be sent to a single destination
+   * or 0 for no limit.
+   */
+  public synchronized int getMaxPendingMessagesPerDestination() {
+    return maxPendingMessagesPerDestination;
+  }
+
+  /**
+   * Returns what happens when a message is sent while a limit of pending messages is reached.
+   */
+  public synchronized PendingLimitPolicy getPendingLimitPolicy() {
+    return pendingLimitPolicy;
+  }
+
+  /**
+   * Returns the minimum size of messages to compress in bytes or 0 if compression is disabled.
+   * Messages are only compressed if the remote end has enabled compression as well.
+   */
+  public synchronized int getCompressionThreshold() {
+    return compressionThreshold;
+  }
+
+  /**
+   * Returns the number of connections opened to each destination. Every connection uses a
+   * separate Tor circuit, messages are spread across the connections.
+   */
+  public synchronized int getConnectionStripes() {
+    return connectionStripes;
+  }
+
+  /**
+   * Returns the maximum number of bytes per connection of a group which are held back because
+   * they overtook an earlier message. The group is closed if more bytes would be held back.
+   */
+  public synchronized int getMaxHeldBytesPerStripe() {
+    return maxHeldBytesPerStripe;
+  }
+
   private void portValid(int port) {
     if (port < 0 || port > Constants.maxport) {
       throw new IllegalArgumentException();
@@ -33,7 +33,21 @@ public class ConfigurationFileReader {
   public static final String IsAliveTimeout = "IsAliveTimeout";
   public static final String IsAliveSendTimeout = "IsAliveSendTimeout";
   public static final String ConnectRetryInterval = "ConnectRetryInterval";
+  public static final String MaxConnectRetryInterval = "MaxConnectRetryInterval";
+  public static final String ConnectRetryJitter = "ConnectRetryJitter";
   public static final String MessageSendRetryInterval = "MessageSendRetryInterval";
+  public static final String MaxPooledMessageSize = "MaxPooledMessageSize";
+  public static final String DirectReceiveBuffers = "DirectReceiveBuffers";
+  public static final String SelectorThreads = "SelectorThreads";
+  public static final String CallbackThreads = "CallbackThreads";
+  public static final String MaxPendingBytes = "MaxPendingBytes";
+  public static final String MaxPendingMessages = "MaxPendingMessages";
+  public static final String MaxPendingBytesPerDestination = "MaxPendingBytesPerDestination";
+  public static final String MaxPendingMessagesPerDestination = "MaxPendingMessagesPerDestination";
+  public static final String PendingLimitPolicy = "PendingLimitPolicy";
+  public static final String CompressionThreshold = "CompressionThreshold";
+  public static final String ConnectionStripes = "ConnectionStripes";
+  public static final String MaxHeldBytesPerStripe = "MaxHeldBytesPerStripe";
 
   /**
    * Constructor method.
@@ -138,12 +152,98 @@ public class ConfigurationFileReader {
       logger.info("Read " + ConnectRetryInterval + " = " + connectRetryInterval);
     }
 
+    if (check(properties, MaxConnectRetryInterval)) {
+      int maxConnectRetryInterval = parse(properties, MaxConnectRetryInterval);
+      config.setMaxConnectRetryInterval(maxConnectRetryInterval);
+      logger.info("Read " + MaxConnectRetryInterval + " = " + maxConnectRetryInterval);
+    }
+
+    if (check(properties, ConnectRetryJitter)) {
+      int connectRetryJitter = parse(properties, ConnectRetryJitter);
+      config.setConnectRetryJitter(connectRetryJitter);
+      logger.info("Read " + ConnectRetryJitter + " = " + connectRetryJitter);
+    }
+
     if (check(properties, MessageSendRetryInterval)) {
       int messageSendRetryInterval = parse(properties, MessageSendRetryInterval);
       config.setMessageSendRetryInterval(messageSendRetryInterval);
       logger.info("Read " + MessageSendRetryInterval + " = " + messageSendRetryInterval);
     }
 
+    if (check(properties, MaxPooledMessageSize)) {
+      int maxPooledMessageSize = parse(properties, MaxPooledMessageSize);
+      config.setMaxPooledMessageSize(maxPooledMessageSize);
+      logger.info("Read " + MaxPooledMessageSize + " = " + maxPooledMessageSize);
+    }
+
+    if (check(properties, DirectReceiveBuffers)) {
+      boolean directReceiveBuffers = parseBoolean(properties, DirectReceiveBuffers);
+      config.setDirectReceiveBuffers(directReceiveBuffers);
+      logger.info("Read " + DirectReceiveBuffers + " = " + directReceiveBuffers);
+    }
+
+    if (check(properties, SelectorThreads)) {
+      int selectorThreads = parse(properties, SelectorThreads);
+      config.setSelectorThreads(selectorThreads);
+      logger.info("Read " + SelectorThreads + " = " + selectorThreads);
+    }
+
+    if (check(properties, CallbackThreads)) {
+      int callbackThreads = parse(properties, CallbackThreads);
+      config.setCallbackThreads(callbackThreads);
+      logger.info("Read " + CallbackThreads + " = " + callbackThreads);
+    }
+
+    if (check(properties, MaxPendingBytes)) {
+      int maxPendingBytes = parse(properties, MaxPendingBytes);
+      config.setMaxPendingBytes(maxPendingBytes);
+      logger.info("Read " + MaxPendingBytes + " = " + maxPendingBytes);
+    }
+
+    if (check(properties, MaxPendingMessages)) {
+      int maxPendingMessages = parse(properties, MaxPendingMessages);
+      config.setMaxPendingMessages(maxPendingMessages);
+      logger.info("Read " + MaxPendingMessages + " = " + maxPendingMessages);
+    }
+
+    if (check(properties, MaxPendingBytesPerDestination)) {
+      int maxPendingBytesPerDestination = parse(properties, MaxPendingBytesPerDestination);
+      config.setMaxPendingBytesPerDestination(maxPendingBytesPerDestination);
+      logger.info("Read " + MaxPendingBytesPerDestination + " = " + maxPendingBytesPerDestination);
+    }
+
+    if (check(properties, MaxPendingMessagesPerDestination)) {
+      int maxPendingMessagesPerDestination = parse(properties, MaxPendingMessagesPerDestination);
+      config.setMaxPendingMessagesPerDestination(maxPendingMessagesPerDestination);
+      logger.info("Read " + MaxPendingMessagesPerDestination + " = "
+          + maxPendingMessagesPerDestination);
+    }
+
+    if (check(properties, PendingLimitPolicy)) {
+      Configuration.PendingLimitPolicy pendingLimitPolicy =
+          parsePolicy(properties, PendingLimitPolicy);
+      config.setPendingLimitPolicy(pendingLimitPolicy);
+      logger.info("Read " + PendingLimitPolicy + " = " + pendingLimitPolicy);
+    }
+
+    if (check(properties, CompressionThreshold)) {
+      int compressionThreshold = parse(properties, CompressionThreshold);
+      config.setCompressionThreshold(compressionThreshold);
+      logger.info("Read " + CompressionThreshold + " = " + compressionThreshold);
+    }
+
+    if (check(properties, ConnectionStripes)) {
+      int connectionStripes = parse(properties, ConnectionStripes);
+      config.setConnectionStripes(connectionStripes);
+      logger.info("Read " + ConnectionStripes + " = " + connectionStripes);
+    }
+
+    if (check(properties, MaxHeldBytesPerStripe)) {
+      int maxHeldBytesPerStripe = parse(properties, MaxHeldBytesPerStripe);
+      config.setMaxHeldBytesPerStripe(maxHeldBytesPerStripe);
+      logger.info("Read " + MaxHeldBytesPerStripe + " = " + maxHeldBytesPerStripe);
+    }
+
     return config;
   }
 
@@ -178,4 +278,43 @@ public class ConfigurationFileReader {
     return value;
 
   }
+
+  /**
+   * Parses the boolean value of a specific key in a string-to-string hash map.
+   *
+   * @param map The hash map containing the key value pair.
+   * @param key The key of the value to be parsed.
+   */
+  private boolean parseBoolean(HashMap<String, String> map, String key) {
+    logger.info("Parsing boolean value of the " + key + " property: " + map.get(key));
+    String value = map.get(key);
+
+    if ("true".equalsIgnoreCase(value)) {
+      return true;
+    } else if ("false".equalsIgnoreCase(value)) {
+      return false;
+    }
+
+    throw new IllegalArgumentException(
+        "Could not parse the boolean value of the " + key + " property.");
+  }
+
+  /**
+   * Parses the pending limit policy of a specific key in a string-to-string hash map.
+   *
+   * @param map The hash map containing the key value pair.
+   * @param key The key of the value to be parsed.
+   */
+  private Configuration.PendingLimitPolicy parsePolicy(HashMap<String, String> map, String key) {
+    logger.info("Parsing policy value of the " + key + " property: " + map.get(key));
+
+    for (Configuration.PendingLimitPolicy policy : Configuration.PendingLimitPolicy.values()) {
+      if (policy.name().equalsIgnoreCase(map.get(key))) {
+        return policy;
+      }
+    }
+
+    throw new IllegalArgumentException(
+        "Could not parse the policy value of the " + key + " property.");
+  }
 }
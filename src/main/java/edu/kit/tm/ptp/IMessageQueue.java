@@ -1,5 +1,8 @@
 package edu.kit.tm.ptp;
 
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
 /**
  * Interface for a generic queue which can only be polled.
  * 
@@ -17,4 +20,27 @@ public interface IMessageQueue<T> {
    * Return the next item in the queue or null if the queue is empty.
    */
   QueuedMessage<T> pollMessage();
+
+  /**
+   * Returns the next item in the queue. Waits up to the supplied time if the queue is empty.
+   *
+   * @return The next item or null if no item has been received in time.
+   * @throws InterruptedException If the thread is interrupted while waiting.
+   */
+  QueuedMessage<T> pollMessage(long timeout, TimeUnit unit) throws InterruptedException;
+
+  /**
+   * Returns the next item in the queue. Waits until an item is received if the queue is empty.
+   *
+   * @throws InterruptedException If the thread is interrupted while waiting.
+   */
+  QueuedMessage<T> takeMessage() throws InterruptedException;
+
+  /**
+   * Removes up to the supplied number of items from the queue and adds them to the collection.
+   * Doesn't wait for items.
+   *
+   * @return The number of items added to the collection.
+   */
+  int drainTo(Collection<? super QueuedMessage<T>> target, int maxMessages);
 }
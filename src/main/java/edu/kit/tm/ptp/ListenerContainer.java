@@ -1,21 +1,61 @@
 package edu.kit.tm.ptp;
 
-import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
 
 /**
  * Container to store a listener for a class type.
  * Inspired by typesafe heterogeneous containers.
  * Effective Java, Second Edition, Item 29.
- * 
+ * Listeners may be added while messages are being dispatched by other threads.
+ * The registered type, listener and queue of a class of received objects are resolved once
+ * and looked up in constant time afterwards. Registering a type or listener discards the
+ * resolved entries.
+ *
  * @author Timon Hackenjos
  *
  */
 public class ListenerContainer {
   private Map<Class<?>, Object> listeners = new Hashtable<Class<?>, Object>();
-  protected Set<Class<?>> registerClasses = new HashSet<Class<?>>();
+  protected Set<Class<?>> registerClasses = new CopyOnWriteArraySet<Class<?>>();
+  private volatile HandlerTable handlers = new HandlerTable();
+
+  /**
+   * The registered type of a class of objects and the listener and queue for the type.
+   */
+  protected static final class Handler {
+    /** The registered type or null if no registered type matches. */
+    public final Class<?> type;
+    public final MessageReceivedListener<?> listener;
+    public final Queue<Object> queue;
+
+    public Handler(Class<?> type, MessageReceivedListener<?> listener, Queue<Object> queue) {
+      this.type = type;
+      this.listener = listener;
+      this.queue = queue;
+    }
+  }
+
+  /**
+   * Resolves the handler of a class by checking the registered types in the order
+   * of their registration, so objects of subclasses are handled as their registered type.
+   */
+  private final class HandlerTable extends ClassValue<Handler> {
+    @Override
+    protected Handler computeValue(Class<?> cl) {
+      for (Class<?> type : registerClasses) {
+        if (type.isAssignableFrom(cl)) {
+          return new Handler(type, (MessageReceivedListener<?>) listeners.get(type),
+              getQueueOrNull(type));
+        }
+      }
+
+      return new Handler(null, null, null);
+    }
+  }
 
   /**
    * Maps the listener to the supplied class type.
@@ -24,56 +64,70 @@ public class ListenerContainer {
     if (type == null || listener == null) {
       throw new NullPointerException("Parameter is null");
     }
-    
+
     listeners.put(type, listener);
     registerClasses.add(type);
+    invalidate();
+  }
+
+  /**
+   * Returns the handler for the supplied object.
+   */
+  protected Handler getHandler(Object obj) {
+    return handlers.get(obj.getClass());
+  }
+
+  /**
+   * Returns the queue for the supplied registered type or null if there is none.
+   */
+  protected Queue<Object> getQueueOrNull(Class<?> type) {
+    return null;
+  }
+
+  /**
+   * Discards resolved handlers. Has to be called after changing registered types,
+   * listeners or queues.
+   */
+  protected void invalidate() {
+    handlers = new HandlerTable();
   }
-  
+
   protected Class<?> getType(Object obj) {
-    for (Class<?> cl : registerClasses) {
-      if (cl.isInstance(obj)) {
-        return cl;
-      }
+    Class<?> type = getHandler(obj).type;
+
+    if (type == null) {
+      throw new IllegalStateException("Type of object hasn't been registered before");
     }
-    
-    throw new IllegalStateException("Type of object hasn't been registered before");
+
+    return type;
   }
-  
+
   protected Class<?> getTypeOrNull(Object obj) {
-    for (Class<?> cl : registerClasses) {
-      if (cl.isInstance(obj)) {
-        return cl;
-      }
-    }
-    
-    return null;
+    return getHandler(obj).type;
   }
-  
-  
+
+
   /**
    * Calls a previously registered listener.
    */
   public void callReceiveListener(Object obj, Identifier source) {
-    if (!hasListener(obj)) {
+    Handler handler = getHandler(obj);
+
+    if (handler.listener == null) {
       throw new IllegalArgumentException();
     }
-    
-    callListener(getType(obj).cast(obj), source);
+
+    callListener(handler, obj, source);
   }
-  
+
   public boolean hasListener(Object obj) {
-    return listeners.get(getType(obj)) != null;
+    return getHandler(obj).listener != null;
   }
-  
-  private <T> void callListener(T object, Identifier source) {
+
+  protected void callListener(Handler handler, Object object, Identifier source) {
     @SuppressWarnings("unchecked")
-    MessageReceivedListener<T> listener = 
-        (MessageReceivedListener<T>) listeners.get(object.getClass());
-    
-    if (listener == null) {
-      throw new IllegalArgumentException("Type of object hasn't been registered before");
-    }
-    
+    MessageReceivedListener<Object> listener = (MessageReceivedListener<Object>) handler.listener;
+
     listener.messageReceived(object, source);
   }
 }
@@ -0,0 +1,135 @@
+package edu.kit.tm.ptp;
+
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A bidirectional stream of bytes to a peer. Several streams share the connection to the peer,
+ * the data of each stream is received in order. A writer may only send as much data as the
+ * reader has granted credit for, so a stream which isn't read doesn't fill the memory of the
+ * receiver or delay the other streams to the peer.
+ *
+ * <p>A stream is opened using {@link PTP#openStream(Identifier, long) openStream()} and
+ * announced to the peer by its {@link StreamListener StreamListener}. Each side may close its
+ * direction of the stream. The stream is reset if a message of it can't be sent or if one side
+ * aborts it.
+ *
+ * @author Timon Hackenjos
+ */
+public class LogicalStream {
+  private final StreamManager manager;
+  private final Identifier destination;
+  private final int id;
+  /** True if the stream has been opened by this side. */
+  final boolean local;
+  final long timeout;
+
+  /** Number of bytes which may still be sent to the peer. */
+  int sendCredit;
+  /** Number of bytes the peer may still send. */
+  int receiveWindow;
+  /** Number of bytes read by the application which haven't been granted to the peer again. */
+  int consumed = 0;
+  final LinkedList<byte[]> received = new LinkedList<>();
+  boolean closedLocal = false;
+  boolean closedRemote = false;
+  boolean reset = false;
+
+  LogicalStream(StreamManager manager, Identifier destination, int id, boolean local,
+      long timeout, int window) {
+    this.manager = manager;
+    this.destination = destination;
+    this.id = id;
+    this.local = local;
+    this.timeout = timeout;
+    this.sendCredit = window;
+    this.receiveWindow = window;
+  }
+
+  public int getId() {
+    return id;
+  }
+
+  /**
+   * Returns the hidden service identifier of the peer.
+   */
+  public Identifier getDestination() {
+    return destination;
+  }
+
+  /**
+   * Sends the data to the peer. Waits until the peer has granted enough credit.
+   *
+   * @throws IOException If the stream has been closed or reset.
+   * @throws InterruptedException If the thread is interrupted while waiting.
+   */
+  public void write(byte[] data) throws IOException, InterruptedException {
+    if (data == null) {
+      throw new IllegalArgumentException();
+    }
+
+    manager.write(this, data);
+  }
+
+  /**
+   * Returns the next chunk of data received from the peer and waits for it if necessary.
+   *
+   * @return The data or null if the peer has closed the stream and all data has been read.
+   * @throws IOException If the stream has been reset.
+   * @throws InterruptedException If the thread is interrupted while waiting.
+   */
+  public byte[] read() throws IOException, InterruptedException {
+    return manager.read(this, -1);
+  }
+
+  /**
+   * Returns the next chunk of data received from the peer and waits up to the supplied time
+   * for it.
+   *
+   * @return The data or null if the peer has closed the stream and all data has been read.
+   * @throws java.io.InterruptedIOException If no data has been received in time.
+   * @throws IOException If the stream has been reset.
+   * @throws InterruptedException If the thread is interrupted while waiting.
+   */
+  public byte[] read(long timeout, TimeUnit unit) throws IOException, InterruptedException {
+    if (timeout < 0 || unit == null) {
+      throw new IllegalArgumentException();
+    }
+
+    return manager.read(this, unit.toMillis(timeout));
+  }
+
+  /**
+   * Closes the stream for writing. The peer reads the data written before and the end of the
+   * stream afterwards. Data sent by the peer can still be read.
+   */
+  public void close() {
+    manager.close(this);
+  }
+
+  /**
+   * Aborts the stream in both directions. Data which hasn't been read is discarded.
+   */
+  public void reset() {
+    manager.reset(this);
+  }
+
+  /**
+   * Returns true if the stream has been closed for writing or has been reset.
+   */
+  public boolean isClosed() {
+    synchronized (manager) {
+      return closedLocal || reset;
+    }
+  }
+
+  /**
+   * Returns true if the stream has been reset.
+   */
+  public boolean isReset() {
+    synchronized (manager) {
+      return reset;
+    }
+  }
+}
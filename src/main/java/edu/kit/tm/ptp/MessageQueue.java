@@ -1,5 +1,8 @@
 package edu.kit.tm.ptp;
 
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
 /**
  * Generic queue which can only be polled.
  * 
@@ -32,4 +35,19 @@ public class MessageQueue<T> implements IMessageQueue<T> {
     return container.pollMessage(type);
   }
 
+  @Override
+  public QueuedMessage<T> pollMessage(long timeout, TimeUnit unit) throws InterruptedException {
+    return container.pollMessage(type, timeout, unit);
+  }
+
+  @Override
+  public QueuedMessage<T> takeMessage() throws InterruptedException {
+    return container.takeMessage(type);
+  }
+
+  @Override
+  public int drainTo(Collection<? super QueuedMessage<T>> target, int maxMessages) {
+    return container.drainTo(type, target, maxMessages);
+  }
+
 }
@@ -1,105 +1,203 @@
 package edu.kit.tm.ptp;
 
-import java.util.Hashtable;
+import java.util.Collection;
 import java.util.Map;
 import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * Extends ListenerContainer to allow to save queued messages of
  * previously registered types.
- * 
+ * Consumers may wait for messages and take several messages at once. A queue may be bounded,
+ * received messages which don't fit into it anymore are dropped.
+ *
  * @author Timon Hackenjos
  */
 
 public class MessageQueueContainer extends ListenerContainer {
-  private Map<Class<?>, Queue<Object>> queues = new Hashtable<Class<?>, Queue<Object>>();
-  
+  private static final Logger logger = Logger.getLogger(MessageQueueContainer.class.getName());
+
+  private Map<Class<?>, LimitedQueue> queues = new ConcurrentHashMap<Class<?>, LimitedQueue>();
+
+  /**
+   * A queue which refuses messages while it holds limit messages. Only adding messages is
+   * synchronized, so the limit can't be exceeded by concurrent producers.
+   */
+  private static final class LimitedQueue extends LinkedBlockingQueue<Object> {
+    private static final long serialVersionUID = 1L;
+    private volatile int limit;
+
+    public LimitedQueue(int limit) {
+      this.limit = limit;
+    }
+
+    @Override
+    public synchronized boolean offer(Object message) {
+      return size() < limit && super.offer(message);
+    }
+  }
+
   /**
    * Adds a queue for messages of Type type.
    */
-  protected synchronized <T> void addMessageQueue(Class<T> type) {
-    if (queues.get(type) != null) {
+  protected <T> void addMessageQueue(Class<T> type) {
+    addMessageQueue(type, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Adds a queue for messages of Type type which holds up to capacity messages.
+   */
+  protected synchronized <T> void addMessageQueue(Class<T> type, int capacity) {
+    if (queues.get(type) != null || capacity < 1) {
       throw new IllegalArgumentException();
     }
-     
-    queues.put(type, new ConcurrentLinkedQueue<Object>());
+
+    queues.put(type, new LimitedQueue(capacity));
     registerClasses.add(type);
+    invalidate();
   }
-  
+
   /**
-   * Returns a message of the supplied type or null if the queue is empty.
+   * Limits the queue of the type to capacity messages. The queue isn't replaced, so waiting
+   * consumers keep waiting on it. Messages which are already queued are kept.
    */
-  protected synchronized <T> QueuedMessage<T> pollMessage(Class<T> type) {
-    Queue<Object> queue = queues.get(type);
-    
-    if (queue == null) {
-      throw new IllegalArgumentException("Type hasn't been registered before.");
-    }
-    
-    Object obj = queue.poll();
-    
-    if (obj == null) {
-      return null;
+  protected <T> void setCapacity(Class<T> type, int capacity) {
+    LimitedQueue queue = getQueue(type);
+
+    if (capacity < 1) {
+      throw new IllegalArgumentException();
     }
-    
+
+    queue.limit = capacity;
+  }
+
+  /**
+   * Returns a message of the supplied type or null if the queue is empty.
+   */
+  protected <T> QueuedMessage<T> pollMessage(Class<T> type) {
+    return cast(getQueue(type).poll());
+  }
+
+  /**
+   * Returns a message of the supplied type or null if none has been received in time.
+   */
+  protected <T> QueuedMessage<T> pollMessage(Class<T> type, long timeout, TimeUnit unit)
+      throws InterruptedException {
+    return cast(getQueue(type).poll(timeout, unit));
+  }
+
+  /**
+   * Returns a message of the supplied type and waits for one if necessary.
+   */
+  protected <T> QueuedMessage<T> takeMessage(Class<T> type) throws InterruptedException {
+    return cast(getQueue(type).take());
+  }
+
+  /**
+   * Moves up to maxMessages messages of the supplied type to the collection.
+   *
+   * @return The number of messages moved.
+   */
+  protected <T> int drainTo(Class<T> type, Collection<? super QueuedMessage<T>> target,
+                            int maxMessages) {
+    // The queue only contains messages of the type
     @SuppressWarnings("unchecked")
-    QueuedMessage<T> objT = (QueuedMessage<T>) obj;
-    
-    return objT;
+    Collection<Object> objects = (Collection<Object>) target;
+
+    return getQueue(type).drainTo(objects, maxMessages);
   }
 
   /**
    * Returns true if the queue of the specified type contains a message.
    */
-  protected synchronized <T> boolean hasMessage(Class<T> type) {
-    Queue<Object> queue = queues.get(type);
-    
-    if (queue == null) {
-      throw new IllegalArgumentException("Type hasn't been registered before.");
-    }
-    
-    return queue.size() > 0;
+  protected <T> boolean hasMessage(Class<T> type) {
+    return !getQueue(type).isEmpty();
   }
 
   /**
    * Adds a message to the corresponding queue by determining it's type
    * by comparing it's type to the registered types.
-   * 
+   *
    * @param message The message to add.
    * @param source The source of the message.
    */
-  protected synchronized void addMessageToQueue(Object message, Identifier source,
-                                                long receiveTime) {
-    addMessage(getType(message).cast(message), source, receiveTime);
+  protected void addMessageToQueue(Object message, Identifier source, long receiveTime) {
+    Handler handler = getHandler(message);
+
+    if (handler.queue == null) {
+      throw new IllegalArgumentException("Type of object hasn't been registered before");
+    }
+
+    addMessage(handler, message, source, receiveTime);
   }
-  
+
   /**
-   * Returns true if it exists a queue for the supplied message.
+   * Passes a message to the listener and the queue of its type using a single lookup.
+   *
+   * @param message The message to deliver.
+   * @param source The source of the message.
+   * @param receiveTime The time the message has been received at.
+   * @return False if neither a listener nor a queue exists for the message.
    */
-  protected synchronized boolean hasQueue(Object message) {
-    Class<?> type = getTypeOrNull(message);
-    if (type == null) {
-      return false;
+  protected boolean deliver(Object message, Identifier source, long receiveTime) {
+    Handler handler = getHandler(message);
+
+    if (handler.listener != null) {
+      callListener(handler, message, source);
     }
-    
-    return queues.get(type) != null;
+
+    if (handler.queue != null) {
+      addMessage(handler, message, source, receiveTime);
+    }
+
+    return handler.listener != null || handler.queue != null;
+  }
+
+  /**
+   * Returns true if it exists a queue for the supplied message.
+   */
+  protected boolean hasQueue(Object message) {
+    return getHandler(message).queue != null;
   }
 
   /**
    * Returns true if queuing has been enabled for the type.
    */
-  protected synchronized <T> boolean queueEnabled(Class<T> type) {
+  protected <T> boolean queueEnabled(Class<T> type) {
     return queues.get(type) != null;
   }
-  
-  private <T> void addMessage(T message, Identifier source, long receiveTime) {
-    Queue<Object> queue = queues.get(message.getClass());
-    
+
+  private LimitedQueue getQueue(Class<?> type) {
+    LimitedQueue queue = queues.get(type);
+
     if (queue == null) {
-      throw new IllegalArgumentException("Type of object hasn't been registered before");
+      throw new IllegalArgumentException("Type hasn't been registered before.");
     }
-    
-    queue.add(new QueuedMessage<T>(source, message, receiveTime));
+
+    return queue;
+  }
+
+  @Override
+  protected Queue<Object> getQueueOrNull(Class<?> type) {
+    return queues.get(type);
+  }
+
+  private <T> void addMessage(Handler handler, T message, Identifier source,
+                              long receiveTime) {
+    if (!handler.queue.offer(new QueuedMessage<T>(source, message, receiveTime))) {
+      logger.log(Level.WARNING, "Dropping received message because the queue for "
+          + handler.type.getName() + " is full");
+    }
+  }
+
+  private static <T> QueuedMessage<T> cast(Object obj) {
+    @SuppressWarnings("unchecked")
+    QueuedMessage<T> objT = (QueuedMessage<T>) obj;
+
+    return objT;
   }
 }
@@ -2,7 +2,9 @@ package edu.kit.tm.ptp;
 
 import edu.kit.tm.ptp.auth.AuthenticatorFactory;
 import edu.kit.tm.ptp.auth.PublicKeyAuthenticatorFactory;
+import edu.kit.tm.ptp.channels.MessageChannel;
 import edu.kit.tm.ptp.connection.ConnectionManager;
+import edu.kit.tm.ptp.connection.FrameListener;
 import edu.kit.tm.ptp.hiddenservice.HiddenServiceManager;
 import edu.kit.tm.ptp.serialization.ByteArrayMessage;
 import edu.kit.tm.ptp.serialization.Serializer;
@@ -11,6 +13,18 @@ import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -19,11 +33,21 @@ import java.util.logging.Logger;
  * Class that provides the PTP API. The method {@link #init() init()} needs to be called to to use
  * PTP. Before calling {@link #init() init()} only the following methods may be called:
  * {@link #setReceiveListener(ReceiveListener) setReceiveListener(ReceiveListener)},
+ * {@link #setByteBufferReceiveListener(ByteBufferReceiveListener)
+ * setByteBufferReceiveListener(ByteBufferReceiveListener)},
  * {@link #setSendListener(SendListener) setSendListener(SendListener)},
+ * {@link #setTransferListener(TransferListener) setTransferListener(TransferListener)},
+ * {@link #setStreamListener(StreamListener) setStreamListener(StreamListener)},
  * {@link #setReceiveListener(Class, MessageReceivedListener) setReceiveListener(Class,
  * MessageReceivedListener)}, {@link #registerClass(Class) registerClass(Class)},
  * {@link #enableMessageQueue() enableMessageQueue()}, {@link #enableMessageQueue(Class)
- * enableMessageQueue(Class)}.
+ * enableMessageQueue(Class)}, {@link #setCallbackExecutor(Executor)
+ * setCallbackExecutor(Executor)}.
+ *
+ * <p>Messages may be sent by several threads concurrently. Sending and the delivery of received
+ * messages don't acquire the lock of the PTP object, so listeners may take their time without
+ * blocking senders. Methods changing the life cycle of the object like {@link #init() init()}
+ * and {@link #exit() exit()} are serialized.</p>
  *
  * @author Timon Hackenjos
  * @author Simeon Andreev
@@ -45,13 +69,26 @@ public class PTP {
   private Configuration config = null;
   /** The Tor process manager. */
   private TorManager tor;
-  private ReceiveListener receiveListener = null;
-  private SendListener sendListener = new SendListenerAdapter();
+  private volatile ReceiveListener receiveListener = null;
+  private volatile ByteBufferReceiveListener byteBufferReceiveListener = null;
+  private volatile SendListener sendListener = new SendListenerAdapter();
+  private TransferListener transferListener = null;
+  private TransferManager transferManager = null;
+  private StreamListener streamListener = null;
+  private StreamManager streamManager = null;
   private HiddenServiceManager hiddenServiceManager;
   private String workingDirectory;
   private int controlPort;
   private IsAliveManager isAliveManager = null;
-
+  private Executor callbackExecutor = null;
+  /** The executor created by PTP if the application didn't supply one. */
+  private ExecutorService callbackThreads = null;
+  private CallbackDispatcher callbackDispatcher = null;
+  /** Futures of messages sent asynchronously whose result hasn't been reported yet. */
+  private final Map<Long, CompletableFuture<SendListener.State>> sendFutures =
+      new ConcurrentHashMap<>();
+
+  /** Publishes the fields assigned by init() to threads checking the state. */
   private volatile boolean initialized = false;
   private volatile boolean closed = false;
   private volatile boolean queueMessages = false;
@@ -206,8 +243,21 @@ public class PTP {
       tor = new TorManager(controlPort, config);
     }
 
+    if (callbackExecutor == null && config.getCallbackThreads() > 0) {
+      callbackThreads = Executors.newFixedThreadPool(config.getCallbackThreads(),
+          new CallbackThreadFactory());
+      callbackExecutor = callbackThreads;
+    }
+
+    callbackDispatcher = new CallbackDispatcher(callbackExecutor);
+
     connectionManager = new ConnectionManager(config.getHiddenServicePort(),
         new PTPReceiveListener(), new PTPSendListener(), config, ptpGroup, authFactory);
+    transferManager = new TransferManager(connectionManager, new TransferSendListener(),
+        callbackDispatcher, ptpGroup);
+    transferManager.setTransferListener(transferListener);
+    streamManager = new StreamManager(connectionManager, ptpGroup);
+    streamManager.setStreamListener(dispatching(streamListener));
 
     tor.addSOCKSProxyListener(new SOCKSProxyPortListener());
     tor.addSOCKSProxyListener(connectionManager);
@@ -233,14 +283,14 @@ public class PTP {
   /**
    * Returns true if PTP was initialized successfully.
    */
-  public synchronized boolean isInitialized() {
+  public boolean isInitialized() {
     return initialized;
   }
 
   /**
    * Returns the currently used API configuration.
    */
-  public synchronized Configuration getConfiguration() {
+  public Configuration getConfiguration() {
     if (!initialized || closed) {
       throw new IllegalStateException();
     }
@@ -298,20 +348,53 @@ public class PTP {
 
 
   /**
-   * Sends bytes to the supplied destination.
+   * Sends bytes to the supplied destination. The bytes are sent as they are without serializing
+   * them, so the array must not be modified until the message has been sent.
    * 
    * @param data The data to send.
    * @param destination The hidden service identifier of the destination.
    * @param timeout How long to wait for a successful transmission.
-   * @return Identifier of the message.
+   * @return Identifier of the message or -1 if the message hasn't been accepted because
+   *     too many messages are pending.
+   * @throws IllegalStateException If too many messages are pending and the configured
+   *     policy is {@link Configuration.PendingLimitPolicy#FAIL FAIL}.
+   * @see SendListener
+   * @see Configuration#getPendingLimitPolicy()
    */
-  public synchronized long sendMessage(byte[] data, Identifier destination, long timeout) {
+  public long sendMessage(byte[] data, Identifier destination, long timeout) {
+    if (!initialized || closed) {
+      throw new IllegalStateException();
+    }
+
     if (data == null || destination == null) {
       throw new IllegalArgumentException();
     }
 
-    ByteArrayMessage msg = new ByteArrayMessage(data);
-    return sendMessage(msg, destination, timeout);
+    return sendMessage(data, destination, timeout, Priority.NORMAL);
+  }
+
+  /**
+   * Sends bytes with the supplied priority to the supplied destination.
+   *
+   * @param data The data to send.
+   * @param destination The hidden service identifier of the destination.
+   * @param timeout How long to wait for a successful transmission.
+   * @param priority The priority of the message.
+   * @return Identifier of the message or -1 if the message hasn't been accepted.
+   * @see #sendMessage(byte[], Identifier, long)
+   */
+  public long sendMessage(byte[] data, Identifier destination, long timeout,
+                          Priority priority) {
+    if (!initialized || closed) {
+      throw new IllegalStateException();
+    }
+
+    if (data == null || destination == null || priority == null) {
+      throw new IllegalArgumentException();
+    }
+
+    return connectionManager.sendLimited(connectionManager.newMessageId(), data,
+        MessageChannel.TYPE_RAW, priority.getValue(), destination, timeout);
   }
 
   /**
@@ -320,7 +403,7 @@ public class PTP {
    * @param data The data to send.
    * @param destination The hidden service identifier of the destination.
    */
-  public synchronized long sendMessage(byte[] data, Identifier destination) {
+  public long sendMessage(byte[] data, Identifier destination) {
     if (data == null || destination == null) {
       throw new IllegalArgumentException();
     }
@@ -328,6 +411,135 @@ public class PTP {
     return sendMessage(data, destination, -1);
   }
 
+  /**
+   * Sends bytes to each of the supplied destinations. The same array is sent to all
+   * destinations, so it must not be modified until all messages have been sent.
+   *
+   * @param data The data to send.
+   * @param destinations The hidden service identifiers of the destinations.
+   * @param timeout How long to wait for a successful transmission.
+   * @return Identifier of the message for each destination.
+   *     The identifier is -1 if the message to the destination hasn't been accepted.
+   * @see #sendMessage(Object, Collection, long)
+   */
+  public Map<Identifier, Long> sendMessage(byte[] data, Collection<Identifier> destinations,
+                                           long timeout) {
+    if (!initialized || closed) {
+      throw new IllegalStateException();
+    }
+
+    if (data == null || destinations == null) {
+      throw new IllegalArgumentException();
+    }
+
+    return multicast(data, MessageChannel.TYPE_RAW, destinations, timeout);
+  }
+
+  /**
+   * Sends bytes to the supplied destination like {@link #sendMessage(byte[], Identifier, long)
+   * sendMessage(byte[], Identifier, long)}. The SendListener is informed as well.
+   *
+   * @param data The data to send.
+   * @param destination The hidden service identifier of the destination.
+   * @param timeout How long to wait for a successful transmission.
+   * @return A future which is completed with the result of the transmission.
+   * @see #sendMessageAsync(Object, Identifier, long)
+   */
+  public CompletableFuture<SendListener.State> sendMessageAsync(byte[] data,
+      Identifier destination, long timeout) {
+    if (!initialized || closed) {
+      throw new IllegalStateException();
+    }
+
+    if (data == null || destination == null) {
+      throw new IllegalArgumentException();
+    }
+
+    return sendAsync(data, MessageChannel.TYPE_RAW, destination, timeout);
+  }
+
+  /**
+   * Sends bytes to the supplied destination.
+   *
+   * @see #sendMessageAsync(byte[], Identifier, long)
+   */
+  public CompletableFuture<SendListener.State> sendMessageAsync(byte[] data,
+      Identifier destination) {
+    return sendMessageAsync(data, destination, -1);
+  }
+
+  /**
+   * Sends the content of a file from its current position to its end to the supplied
+   * destination. The file is sent in chunks which are written to the connection directly
+   * from the file. The position of the file isn't changed. The file must not be modified
+   * until the transfer has finished. The receiver is informed by its
+   * {@link TransferListener TransferListener}.
+   *
+   * @param file The file to send.
+   * @param destination The hidden service identifier of the destination.
+   * @param timeout How long to wait for a successful transmission of each chunk.
+   * @return Identifier used to inform the SendListener about the result of the transfer.
+   * @throws IOException If the size of the file can't be determined.
+   */
+  public long sendFile(FileChannel file, Identifier destination, long timeout)
+      throws IOException {
+    if (!initialized || closed) {
+      throw new IllegalStateException();
+    }
+
+    if (file == null || destination == null) {
+      throw new IllegalArgumentException();
+    }
+
+    return transferManager.sendFile(file, destination, timeout);
+  }
+
+  /**
+   * Sends the content of a stream to the supplied destination. The stream is read
+   * in chunks by a separate thread until its end is reached and isn't closed afterwards.
+   * The receiver is informed by its {@link TransferListener TransferListener}.
+   * If reading from the stream fails, the transfer is aborted and reported with
+   * {@link SendListener.State#TIMEOUT TIMEOUT}.
+   *
+   * @param stream The stream to send.
+   * @param destination The hidden service identifier of the destination.
+   * @param timeout How long to wait for a successful transmission of each chunk.
+   * @return Identifier used to inform the SendListener about the result of the transfer.
+   */
+  public long sendStream(InputStream stream, Identifier destination, long timeout) {
+    if (!initialized || closed) {
+      throw new IllegalStateException();
+    }
+
+    if (stream == null || destination == null) {
+      throw new IllegalArgumentException();
+    }
+
+    return transferManager.sendStream(stream, destination, timeout);
+  }
+
+  /**
+   * Opens a logical stream to the supplied destination. All streams to a destination share
+   * the connection to it. The stream is announced to the receiver by its
+   * {@link StreamListener StreamListener}.
+   *
+   * @param destination The hidden service identifier of the destination.
+   * @param timeout How long to wait for a successful transmission of each message of the
+   *     stream. The stream is reset if a message can't be sent in time.
+   * @return The stream to write to and read the replies of the destination from.
+   */
+  public LogicalStream openStream(Identifier destination, long timeout) {
+    if (!initialized || closed) {
+      throw new IllegalStateException();
+    }
+
+    if (destination == null) {
+      throw new IllegalArgumentException();
+    }
+
+    return streamManager.openStream(destination, timeout);
+  }
+
   /**
    * Send an object of a previously registered class to the supplied destination.
    * 
@@ -336,7 +548,7 @@ public class PTP {
    * @return Identifier of the message.
    * @see #enableMessageQueue(Class)
    */
-  public synchronized long sendMessage(Object message, Identifier destination) {
+  public long sendMessage(Object message, Identifier destination) {
     if (message == null || destination == null) {
       throw new IllegalArgumentException();
     }
@@ -350,10 +562,71 @@ public class PTP {
    * @param message The object to send.
    * @param destination The hidden service identifier of the destination.
    * @param timeout How long to wait for a successful transmission.
-   * @return Identifier of the message.
+   * @return Identifier of the message or -1 if the message hasn't been accepted because
+   *     too many messages are pending.
+   * @throws IllegalStateException If too many messages are pending and the configured
+   *     policy is {@link Configuration.PendingLimitPolicy#FAIL FAIL}.
    * @see #enableMessageQueue(Class)
+   * @see Configuration#getPendingLimitPolicy()
+   */
+  public long sendMessage(Object message, Identifier destination, long timeout) {
+    if (!initialized || closed) {
+      throw new IllegalStateException();
+    }
+
+    if (message == null || destination == null) {
+      throw new IllegalArgumentException();
+    }
+
+    return sendMessage(message, destination, timeout, Priority.NORMAL);
+  }
+
+  /**
+   * Send an object of a previously registered class with the supplied priority to the
+   * supplied destination.
+   *
+   * @param message The object to send.
+   * @param destination The hidden service identifier of the destination.
+   * @param timeout How long to wait for a successful transmission.
+   * @param priority The priority of the message.
+   * @return Identifier of the message or -1 if the message hasn't been accepted.
+   * @see #sendMessage(Object, Identifier, long)
+   */
+  public long sendMessage(Object message, Identifier destination, long timeout,
+                          Priority priority) {
+    if (!initialized || closed) {
+      throw new IllegalStateException();
+    }
+
+    if (message == null || destination == null || priority == null) {
+      throw new IllegalArgumentException();
+    }
+
+    byte[] data = serializer.serialize(message);
+    return connectionManager.sendLimited(connectionManager.newMessageId(), data,
+        MessageChannel.TYPE_MESSAGE, priority.getValue(), destination, timeout);
+  }
+
+  /**
+   * Send an object of a previously registered class to the supplied destination.
+   * The returned future is completed with {@link SendListener.State#SUCCESS SUCCESS},
+   * {@link SendListener.State#TIMEOUT TIMEOUT} or
+   * {@link SendListener.State#INVALID_DESTINATION INVALID_DESTINATION} in the same way
+   * the SendListener is informed, which happens as well. Dependent actions which aren't
+   * run asynchronously are run by the thread informing the listeners.
+   * If the message isn't accepted because too many messages are pending the future is
+   * completed exceptionally with an IllegalStateException. Futures of messages
+   * which are still pending when PTP exits are cancelled.
+   *
+   * @param message The object to send.
+   * @param destination The hidden service identifier of the destination.
+   * @param timeout How long to wait for a successful transmission.
+   * @return A future which is completed with the result of the transmission.
+   * @throws IllegalStateException If too many messages are pending and the configured
+   *     policy is {@link Configuration.PendingLimitPolicy#FAIL FAIL}.
    */
-  public synchronized long sendMessage(Object message, Identifier destination, long timeout) {
+  public CompletableFuture<SendListener.State> sendMessageAsync(Object message,
+      Identifier destination, long timeout) {
     if (!initialized || closed) {
       throw new IllegalStateException();
     }
@@ -363,14 +636,114 @@ public class PTP {
     }
 
     byte[] data = serializer.serialize(message);
-    return connectionManager.send(data, destination, timeout);
+    return sendAsync(data, MessageChannel.TYPE_MESSAGE, destination, timeout);
+  }
+
+  /**
+   * Send an object of a previously registered class to the supplied destination.
+   *
+   * @see #sendMessageAsync(Object, Identifier, long)
+   */
+  public CompletableFuture<SendListener.State> sendMessageAsync(Object message,
+      Identifier destination) {
+    return sendMessageAsync(message, destination, -1);
+  }
+
+  private CompletableFuture<SendListener.State> sendAsync(byte[] data, int type,
+      Identifier destination, long timeout) {
+    CompletableFuture<SendListener.State> future = new CompletableFuture<>();
+    // Register the future before the result may be reported
+    long id = connectionManager.newMessageId();
+    sendFutures.put(id, future);
+
+    try {
+      if (connectionManager.sendLimited(id, data, type, destination, timeout) == -1) {
+        sendFutures.remove(id);
+        future.completeExceptionally(
+            new IllegalStateException("Message to " + destination + " hasn't been accepted"));
+      }
+    } catch (RuntimeException e) {
+      sendFutures.remove(id);
+      throw e;
+    }
+
+    return future;
+  }
+
+  /**
+   * Send an object of a previously registered class to each of the supplied destinations.
+   * The object is serialized once and the resulting bytes are shared by the messages to all
+   * destinations. The SendListener is informed about the result for each destination
+   * using the returned identifiers. Destinations contained several times receive the
+   * message once.
+   *
+   * @param message The object to send.
+   * @param destinations The hidden service identifiers of the destinations.
+   * @param timeout How long to wait for a successful transmission.
+   * @return Identifier of the message for each destination in the order of the collection.
+   *     The identifier is -1 if the message to the destination hasn't been accepted because
+   *     too many messages are pending. Unlike for a single destination, this is also the case
+   *     if the configured policy is {@link Configuration.PendingLimitPolicy#FAIL FAIL},
+   *     as the messages to the other destinations may have been sent already.
+   */
+  public Map<Identifier, Long> sendMessage(Object message, Collection<Identifier> destinations,
+                                           long timeout) {
+    if (!initialized || closed) {
+      throw new IllegalStateException();
+    }
+
+    if (message == null || destinations == null) {
+      throw new IllegalArgumentException();
+    }
+
+    byte[] data = serializer.serialize(message);
+    return multicast(data, MessageChannel.TYPE_MESSAGE, destinations, timeout);
+  }
+
+  /**
+   * Send an object of a previously registered class to each of the supplied destinations.
+   *
+   * @see #sendMessage(Object, Collection, long)
+   */
+  public Map<Identifier, Long> sendMessage(Object message, Collection<Identifier> destinations) {
+    return sendMessage(message, destinations, -1);
+  }
+
+  private Map<Identifier, Long> multicast(byte[] data, int type,
+      Collection<Identifier> destinations, long timeout) {
+    Map<Identifier, Long> ids = new LinkedHashMap<>();
+
+    for (Identifier destination : destinations) {
+      if (destination == null) {
+        throw new IllegalArgumentException();
+      }
+    }
+
+    for (Identifier destination : destinations) {
+      if (ids.containsKey(destination)) {
+        continue;
+      }
+
+      long id;
+
+      try {
+        id = connectionManager.sendLimited(data, type, destination, timeout);
+      } catch (IllegalStateException e) {
+        // Refused by the FAIL policy, report it like a rejected message
+        id = -1;
+      }
+
+      ids.put(destination, id);
+    }
+
+    return ids;
   }
 
   /**
    * Register class to be able to send and receive instances of the class. Registering a class
    * several times has no effect.
    */
-  public synchronized <T> void registerClass(Class<T> type) {
+  public <T> void registerClass(Class<T> type) {
     if (closed) {
       throw new IllegalStateException();
     }
@@ -384,8 +757,7 @@ public class PTP {
    * @param listener Listener to be informed about received objects.
    * @see #registerClass(Class)
    */
-  public synchronized <T> void setReceiveListener(Class<T> type,
-                                                  MessageReceivedListener<T> listener) {
+  public <T> void setReceiveListener(Class<T> type, MessageReceivedListener<T> listener) {
     if (closed) {
       throw new IllegalStateException();
     }
@@ -402,7 +774,7 @@ public class PTP {
    * 
    * @param listener The listener to inform.
    */
-  public synchronized void setReceiveListener(ReceiveListener listener) {
+  public void setReceiveListener(ReceiveListener listener) {
     if (closed) {
       throw new IllegalStateException();
     }
@@ -410,6 +782,64 @@ public class PTP {
     this.receiveListener = listener;
   }
 
+  /**
+   * Sets the listener for received byte[] messages which are passed as read-only ByteBuffers.
+   * The buffers are only valid until the listener returns.
+   *
+   * <p>A message is passed without copying it only if the listener is called on the thread
+   * receiving the messages, i.e. no callback threads and no callback executor are used, no
+   * {@link ReceiveListener} is set and message queueing is disabled. Otherwise every message
+   * is copied once, just like for a {@link ReceiveListener}.
+   *
+   * @param listener The listener to inform.
+   * @see Configuration#getDirectReceiveBuffers()
+   */
+  public void setByteBufferReceiveListener(ByteBufferReceiveListener listener) {
+    if (closed) {
+      throw new IllegalStateException();
+    }
+
+    this.byteBufferReceiveListener = listener;
+  }
+
+  /**
+   * Sets the listener for transfers received from remote peers.
+   *
+   * @param listener The listener to inform.
+   * @see #sendFile(FileChannel, Identifier, long)
+   * @see #sendStream(InputStream, Identifier, long)
+   */
+  public synchronized void setTransferListener(TransferListener listener) {
+    if (closed) {
+      throw new IllegalStateException();
+    }
+
+    this.transferListener = listener;
+
+    if (transferManager != null) {
+      transferManager.setTransferListener(listener);
+    }
+  }
+
+  /**
+   * Sets the listener for logical streams opened by remote peers. Streams are refused while no
+   * listener is set.
+   *
+   * @param listener The listener to inform.
+   * @see #openStream(Identifier, long)
+   */
+  public synchronized void setStreamListener(StreamListener listener) {
+    if (closed) {
+      throw new IllegalStateException();
+    }
+
+    this.streamListener = listener;
+
+    if (streamManager != null) {
+      streamManager.setStreamListener(dispatching(listener));
+    }
+  }
+
   /**
    * Enables queueing of objects of a previously registered type. Objects can be received using
    * {@link #getMessageQueue(Class) getMessageQueue(Class)}.
@@ -417,7 +847,19 @@ public class PTP {
    * @param type The type of objects to queue.
    * @see #setReceiveListener(Class, MessageReceivedListener)
    */
-  public synchronized <T> void enableMessageQueue(Class<T> type) {
+  public <T> void enableMessageQueue(Class<T> type) {
+    enableMessageQueue(type, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Enables queueing of objects of a previously registered type in a bounded queue.
+   * Received objects which don't fit into the queue anymore are dropped.
+   *
+   * @param type The type of objects to queue.
+   * @param capacity The maximum number of objects in the queue.
+   * @see #enableMessageQueue(Class)
+   */
+  public <T> void enableMessageQueue(Class<T> type, int capacity) {
     if (closed) {
       throw new IllegalStateException();
     }
@@ -425,18 +867,39 @@ public class PTP {
     if (!serializer.isRegistered(type)) {
       throw new IllegalArgumentException("Class type hasn't been registered before");
     }
-    messageTypes.addMessageQueue(type);
+    messageTypes.addMessageQueue(type, capacity);
   }
 
   /**
    * Enables queueing of byte[] messages. Objects can be received using {@link #getMessageQueue()
    * getMessageQueue()}
    */
-  public synchronized void enableMessageQueue() {
+  public void enableMessageQueue() {
+    if (closed) {
+      throw new IllegalStateException();
+    }
+
+    this.queueMessages = true;
+  }
+
+  /**
+   * Enables queueing of byte[] messages in a bounded queue.
+   * Received messages which don't fit into the queue anymore are dropped.
+   *
+   * @param capacity The maximum number of messages in the queue.
+   * @throws IllegalArgumentException If queueing of byte[] messages has already been enabled.
+   * @see #enableMessageQueue()
+   */
+  public void enableMessageQueue(int capacity) {
     if (closed) {
       throw new IllegalStateException();
     }
 
+    if (queueMessages) {
+      throw new IllegalArgumentException("Queueing has already been enabled");
+    }
+
+    messageTypes.setCapacity(byte[].class, capacity);
     this.queueMessages = true;
   }
 
@@ -445,7 +908,7 @@ public class PTP {
    *
    * @see #enableMessageQueue(Class)
    */
-  public synchronized <T> IMessageQueue<T> getMessageQueue(Class<T> type) {
+  public <T> IMessageQueue<T> getMessageQueue(Class<T> type) {
     if (closed) {
       throw new IllegalStateException();
     }
@@ -464,7 +927,7 @@ public class PTP {
   /**
    * Returns a IMessageQueue to poll received byte[] messages from.
    */
-  public synchronized IMessageQueue<byte[]> getMessageQueue() {
+  public IMessageQueue<byte[]> getMessageQueue() {
     return getMessageQueue(byte[].class);
   }
 
@@ -473,7 +936,7 @@ public class PTP {
    * 
    * @param listener The lister to inform.
    */
-  public synchronized void setSendListener(SendListener listener) {
+  public void setSendListener(SendListener listener) {
     if (closed) {
       throw new IllegalStateException();
     }
@@ -481,10 +944,39 @@ public class PTP {
     this.sendListener = listener;
   }
 
+  /**
+   * Sets the executor to call the listeners of the application with. Listeners are informed
+   * about messages from and to the same destination in order. Has to be called before
+   * {@link #init() init()}. The executor isn't shut down by PTP.
+   * If no executor is set PTP creates threads according to
+   * {@link Configuration#getCallbackThreads()}.
+   *
+   * @param executor The executor to run listeners with.
+   */
+  public synchronized void setCallbackExecutor(Executor executor) {
+    if (initialized || closed) {
+      throw new IllegalStateException();
+    }
+
+    this.callbackExecutor = executor;
+  }
+
+  /**
+   * Returns the dispatcher calling the listeners of the application.
+   * Its metrics show how many callbacks are waiting to be run.
+   */
+  public CallbackDispatcher getCallbackDispatcher() {
+    if (!initialized || closed) {
+      throw new IllegalStateException();
+    }
+
+    return callbackDispatcher;
+  }
+
   /**
    * Returns the local port on which the local hidden service is listening.
    */
-  public synchronized int getLocalPort() {
+  public int getLocalPort() {
     if (!initialized || closed) {
       throw new IllegalStateException();
     }
@@ -526,6 +1018,23 @@ public class PTP {
       isAliveManager.stop();
     }
 
+    if (transferManager != null) {
+      transferManager.stop();
+    }
+
+    if (streamManager != null) {
+      streamManager.stop();
+    }
+
+    if (callbackThreads != null) {
+      callbackThreads.shutdown();
+    }
+
+    for (CompletableFuture<SendListener.State> future : sendFutures.values()) {
+      future.cancel(false);
+    }
+    sendFutures.clear();
+
     // Close the Tor process manager.
     if (tor != null) {
       tor.stopTor();
@@ -552,7 +1061,7 @@ public class PTP {
     tor.changeNetwork(enable);
   }
 
-  protected synchronized void closeConnections(Identifier destination) {
+  protected void closeConnections(Identifier destination) {
     if (!initialized || closed) {
       throw new IllegalStateException();
     }
@@ -560,55 +1069,111 @@ public class PTP {
     tor.closeCircuits(destination);
   }
   
-  protected synchronized void sendIsAlive(Identifier destination, long timeout) {
-    connectionManager.send(new byte[0], destination, timeout, false);
+  protected void sendIsAlive(Identifier destination, long timeout) {
+    // Keep-alives mustn't wait for other messages
+    connectionManager.send(new byte[0], MessageChannel.TYPE_MESSAGE,
+        MessageChannel.PRIORITY_CONTROL, destination, timeout, false);
   }
 
-  private class PTPReceiveListener implements ReceiveListener {
+  private class PTPReceiveListener implements FrameListener {
     @Override
-    public void messageReceived(byte[] data, Identifier source) {
-      synchronized (PTP.this) {
-        Object obj;
-        boolean isAliveMsg = data.length == 0;
-        try {
-          isAliveManager.messageReceived(source, isAliveMsg);
+    public void messageReceived(ByteBuffer data, int type, Identifier source) {
+      boolean isAliveMsg = data.remaining() == 0 && type == MessageChannel.TYPE_MESSAGE;
+      try {
+        isAliveManager.messageReceived(source, isAliveMsg);
 
-          if (isAliveMsg) {
-            return;
-          }
+        if (isAliveMsg) {
+          return;
+        }
+
+        if (type == MessageChannel.TYPE_TRANSFER) {
+          // Written to the channel of the application directly as the buffer is reused
+          transferManager.messageReceived(data, source);
+          return;
+        }
+
+        if (type == MessageChannel.TYPE_STREAM) {
+          streamManager.messageReceived(data, source);
+          return;
+        }
+
+        if (type == MessageChannel.TYPE_RAW) {
+          rawMessageReceived(data, source);
+          return;
+        }
+
+        // The buffer is released after returning so deserialize before dispatching
+        callbackDispatcher.dispatch(source,
+            new Delivery(serializer.deserialize(data), source, data.remaining()));
+      } catch (IOException e) {
+        logger.log(Level.WARNING, "Error occurred while deserializing data: " + e.getMessage());
+      }
+    }
+
+    private void rawMessageReceived(final ByteBuffer data, final Identifier source) {
+      final ByteBufferReceiveListener listener = byteBufferReceiveListener;
 
-          obj = serializer.deserialize(data);
-
-          if (obj instanceof ByteArrayMessage) {
-            ByteArrayMessage message = (ByteArrayMessage) obj;
-
-            if (receiveListener != null) {
-              receiveListener.messageReceived(message.getData(), source);
-            }
-
-            if (queueMessages) {
-              messageTypes.addMessageToQueue(message.getData(), source, System.currentTimeMillis());
-            }
-
-            if (receiveListener == null && !queueMessages) {
-              logger.log(Level.WARNING,
-                  "Dropping received message because no receive listener ist set.");
-            }
-          } else {
-            if (messageTypes.hasListener(obj)) {
-              messageTypes.callReceiveListener(obj, source);
-            }
-            if (messageTypes.hasQueue(obj)) {
-              messageTypes.addMessageToQueue(obj, source, System.currentTimeMillis());
-            }
-
-            if (!messageTypes.hasListener(obj) && !messageTypes.hasQueue(obj)) {
-              logger.log(Level.WARNING,
-                  "Received message of unregistered type with length " + data.length);
-            }
+      if (!callbackDispatcher.isAsynchronous() && listener != null && receiveListener == null
+          && !queueMessages) {
+        // The listener is called before the buffer is released so it doesn't need to be copied
+        callbackDispatcher.dispatch(source, new Runnable() {
+          @Override
+          public void run() {
+            listener.messageReceived(data.asReadOnlyBuffer(), source);
           }
-        } catch (IOException e) {
-          logger.log(Level.WARNING, "Error occurred while deserializing data: " + e.getMessage());
+        });
+        return;
+      }
+
+      // The buffer is released after returning, so callbacks on other threads need a copy
+      byte[] bytes = new byte[data.remaining()];
+      data.duplicate().get(bytes);
+      callbackDispatcher.dispatch(source,
+          new Delivery(new ByteArrayMessage(bytes), source, bytes.length));
+    }
+  }
+
+  private class Delivery implements Runnable {
+    private final Object obj;
+    private final Identifier source;
+    private final int length;
+
+    public Delivery(Object obj, Identifier source, int length) {
+      this.obj = obj;
+      this.source = source;
+      this.length = length;
+    }
+
+    @Override
+    public void run() {
+      if (obj instanceof ByteArrayMessage) {
+        ByteArrayMessage message = (ByteArrayMessage) obj;
+        // Listeners may be replaced concurrently
+        ReceiveListener receiveListener = PTP.this.receiveListener;
+        ByteBufferReceiveListener byteBufferReceiveListener = PTP.this.byteBufferReceiveListener;
+        boolean queueMessages = PTP.this.queueMessages;
+
+        if (receiveListener != null) {
+          receiveListener.messageReceived(message.getData(), source);
+        }
+
+        if (byteBufferReceiveListener != null) {
+          byteBufferReceiveListener.messageReceived(
+              ByteBuffer.wrap(message.getData()).asReadOnlyBuffer(), source);
+        }
+
+        if (queueMessages) {
+          messageTypes.addMessageToQueue(message.getData(), source, System.currentTimeMillis());
+        }
+
+        if (receiveListener == null && byteBufferReceiveListener == null && !queueMessages) {
+          logger.log(Level.WARNING,
+              "Dropping received message because no receive listener ist set.");
+        }
+      } else {
+        if (!messageTypes.deliver(obj, source, System.currentTimeMillis())) {
+          logger.log(Level.WARNING,
+              "Received message of unregistered type with length " + length);
         }
       }
     }
@@ -617,21 +1182,90 @@ public class PTP {
   private class PTPSendListener implements SendListener {
     @Override
     public void messageSent(long id, Identifier destination, State state) {
-      synchronized (PTP.this) {
-        // PTP doesn't allow to send messages before initialization is finished
-        if (!initialized) {
-          throw new IllegalStateException();
-        }
+      // PTP doesn't allow to send messages before initialization is finished
+      if (!initialized) {
+        throw new IllegalStateException();
+      }
 
-        if (state == State.SUCCESS) {
-          isAliveManager.messageSent(destination);
-        }
+      if (state == State.SUCCESS) {
+        isAliveManager.messageSent(destination);
+      }
+
+      if (transferManager.messageSent(id, destination, state)) {
+        // Results of transfers are reported by the TransferManager
+        return;
+      }
+
+      if (streamManager.messageSent(id, destination, state)) {
+        // Failed messages of streams reset the stream
+        return;
+      }
+
+      callbackDispatcher.dispatch(destination,
+          new SendResult(id, destination, state, sendFutures.remove(id)));
+    }
+  }
+
+  private StreamListener dispatching(final StreamListener listener) {
+    if (listener == null) {
+      return null;
+    }
+
+    // Run the listener on the callback threads if there are any
+    return new StreamListener() {
+      @Override
+      public void streamOpened(final LogicalStream stream) {
+        callbackDispatcher.dispatch(stream.getDestination(), new Runnable() {
+          @Override
+          public void run() {
+            listener.streamOpened(stream);
+          }
+        });
+      }
+    };
+  }
+
+  private class TransferSendListener implements SendListener {
+    @Override
+    public void messageSent(long id, Identifier destination, State state) {
+      callbackDispatcher.dispatch(destination, new SendResult(id, destination, state, null));
+    }
+  }
 
+  private class SendResult implements Runnable {
+    private final long id;
+    private final Identifier destination;
+    private final SendListener.State state;
+    /** The future of the message or null if it hasn't been sent asynchronously. */
+    private final CompletableFuture<SendListener.State> future;
+
+    public SendResult(long id, Identifier destination, SendListener.State state,
+                      CompletableFuture<SendListener.State> future) {
+      this.id = id;
+      this.destination = destination;
+      this.state = state;
+      this.future = future;
+    }
+
+    @Override
+    public void run() {
+      try {
         sendListener.messageSent(id, destination, state);
+      } finally {
+        if (future != null) {
+          future.complete(state);
+        }
       }
     }
   }
 
+  private class CallbackThreadFactory implements ThreadFactory {
+    @Override
+    public Thread newThread(Runnable runnable) {
+      return new Thread(ptpGroup, runnable, "PTP callback");
+    }
+  }
+
   private class SOCKSProxyPortListener implements  TorManager.SOCKSProxyListener {
 
     @Override
@@ -0,0 +1,30 @@
+package edu.kit.tm.ptp;
+
+import edu.kit.tm.ptp.channels.MessageChannel;
+
+/**
+ * The priority of a message. Messages of a higher priority to the same destination are
+ * written to the connection first, even between the fragments of a long message of a lower
+ * priority. Messages of the same priority are sent in order. Messages controlling the
+ * connection are always sent before messages of the application.
+ *
+ * @author Timon Hackenjos
+ */
+public enum Priority {
+  HIGH(MessageChannel.PRIORITY_HIGH),
+  NORMAL(MessageChannel.PRIORITY_NORMAL),
+  LOW(MessageChannel.PRIORITY_LOW);
+
+  private final int value;
+
+  private Priority(int value) {
+    this.value = value;
+  }
+
+  /**
+   * Returns the priority used by the MessageChannel.
+   */
+  int getValue() {
+    return value;
+  }
+}
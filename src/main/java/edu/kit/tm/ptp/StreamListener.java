@@ -0,0 +1,19 @@
+package edu.kit.tm.ptp;
+
+/**
+ * An interface for subscribers to logical streams opened by remote peers using
+ * {@link PTP#openStream(Identifier, long) openStream()}.
+ *
+ * @author Timon Hackenjos
+ */
+public interface StreamListener {
+
+  /**
+   * Indicates that a remote peer opened a stream. The method isn't called on the thread which
+   * receives the data of streams, so it may read from the stream. Blocking delays the
+   * announcement of further streams though.
+   *
+   * @param stream The stream to read the data of the peer from and to reply with.
+   */
+  void streamOpened(LogicalStream stream);
+}
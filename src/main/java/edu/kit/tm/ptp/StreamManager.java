@@ -0,0 +1,413 @@
+package edu.kit.tm.ptp;
+
+import edu.kit.tm.ptp.SendListener.State;
+import edu.kit.tm.ptp.channels.MessageChannel;
+import edu.kit.tm.ptp.connection.ConnectionManager;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Multiplexes logical streams over the connections to other peers. The data of a stream is
+ * sent in chunks as messages of type {@link MessageChannel#TYPE_STREAM}.
+ * Each side of a stream starts with a credit of {@link #window} bytes. The receiver grants
+ * credit again after the application has read half of it, a sender waits while it has none.
+ *
+ * <p>Every stream message starts with the id of the stream and the kind of the message.
+ * The highest bit of the kind is set if the message has been sent by the side which opened
+ * the stream, so both peers may choose ids independently. Credit messages contain the number
+ * of bytes granted.
+ *
+ * @author Timon Hackenjos
+ */
+public class StreamManager {
+  private static final byte OPEN = 0;
+  private static final byte DATA = 1;
+  private static final byte CREDIT = 2;
+  private static final byte CLOSE = 3;
+  private static final byte RESET = 4;
+  private static final byte OPENER = (byte) 0x80;
+
+  /** Length of the header of every stream message. */
+  private static final int headerLength = 4 + 1;
+  /** Maximum number of bytes of a stream sent per message. */
+  protected static final int chunkSize = 32 * 1024;
+  /** Number of bytes a side of a stream may send before it has to wait for credit. */
+  protected static final int window = 256 * 1024;
+
+  private static final Logger logger = Logger.getLogger(StreamManager.class.getName());
+
+  private static final class Key {
+    private final Identifier peer;
+    private final int id;
+    private final boolean local;
+
+    public Key(Identifier peer, int id, boolean local) {
+      this.peer = peer;
+      this.id = id;
+      this.local = local;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+
+      Key other = (Key) obj;
+      return id == other.id && local == other.local && peer.equals(other.peer);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * (31 * peer.hashCode() + id) + (local ? 1 : 0);
+    }
+  }
+
+  private final ConnectionManager connectionManager;
+  private final AtomicInteger nextStreamId = new AtomicInteger(0);
+  private final Map<Key, LogicalStream> streams = new HashMap<>();
+  /** Maps the ids of sent messages to the streams they belong to. */
+  private final Map<Long, LogicalStream> sentMessages = new HashMap<>();
+  /** Informs the stream listener apart from the thread which delivers the messages. */
+  private final ExecutorService listenerThread;
+
+  private StreamListener streamListener = null;
+  private boolean stopped = false;
+
+  /**
+   * Constructs a new StreamManager.
+   *
+   * @param connectionManager The ConnectionManager to send the messages of streams with.
+   */
+  public StreamManager(ConnectionManager connectionManager) {
+    this(connectionManager, null);
+  }
+
+  /**
+   * Constructs a new StreamManager.
+   *
+   * @param connectionManager The ConnectionManager to send the messages of streams with.
+   * @param group The ThreadGroup to create the thread informing the stream listener in.
+   */
+  public StreamManager(ConnectionManager connectionManager, final ThreadGroup group) {
+    if (connectionManager == null) {
+      throw new IllegalArgumentException();
+    }
+
+    this.connectionManager = connectionManager;
+    this.listenerThread = Executors.newSingleThreadExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        return new Thread(group, runnable, "StreamManager");
+      }
+    });
+  }
+
+  /**
+   * Sets the listener to inform about streams opened by other peers. The listener is called
+   * on a separate thread without holding the lock of the manager, so it may read from the
+   * stream. Streams are refused if no listener is set.
+   */
+  public synchronized void setStreamListener(StreamListener listener) {
+    this.streamListener = listener;
+  }
+
+  /**
+   * Opens a stream to the supplied destination.
+   *
+   * @param timeout How long to wait for a successful sending of each message of the stream.
+   */
+  public synchronized LogicalStream openStream(Identifier destination, long timeout) {
+    if (stopped) {
+      throw new IllegalStateException();
+    }
+
+    LogicalStream stream = new LogicalStream(this, destination,
+        nextStreamId.getAndIncrement(), true, timeout, window);
+    streams.put(key(stream), stream);
+    send(stream, OPEN, MessageChannel.PRIORITY_NORMAL);
+
+    return stream;
+  }
+
+  /**
+   * Informs the manager that a message has been sent or couldn't be sent.
+   *
+   * @return True if the message belonged to a stream.
+   */
+  public synchronized boolean messageSent(long id, Identifier destination, State state) {
+    LogicalStream stream = sentMessages.remove(id);
+
+    if (stream == null) {
+      return false;
+    }
+
+    if (state != State.SUCCESS && !stream.reset) {
+      logger.log(Level.INFO, "Resetting stream " + stream.getId() + " to " + destination);
+      abort(stream, true);
+    }
+
+    return true;
+  }
+
+  /**
+   * Processes a received message of type {@link MessageChannel#TYPE_STREAM}.
+   * The data is copied as the buffer is reused.
+   */
+  public synchronized void messageReceived(ByteBuffer data, Identifier source) {
+    if (data.remaining() < headerLength) {
+      logger.log(Level.WARNING, "Received invalid stream message from " + source);
+      return;
+    }
+
+    final int id = data.getInt();
+    final byte flags = data.get();
+    final byte kind = (byte) (flags & ~OPENER);
+    // Streams opened by the source are remote to us
+    final Key key = new Key(source, id, (flags & OPENER) == 0);
+
+    LogicalStream stream = streams.get(key);
+
+    if (kind == OPEN) {
+      opened(key, stream);
+      return;
+    }
+
+    if (stream == null) {
+      logger.log(Level.FINE, "Received message of unknown stream " + id + " from " + source);
+      return;
+    }
+
+    switch (kind) {
+      case DATA:
+        if (data.remaining() > stream.receiveWindow) {
+          logger.log(Level.WARNING, "Stream " + id + " of " + source + " exceeded its credit");
+          abort(stream, true);
+          return;
+        }
+
+        byte[] bytes = new byte[data.remaining()];
+        data.get(bytes);
+        stream.receiveWindow -= bytes.length;
+        stream.received.add(bytes);
+        break;
+      case CREDIT:
+        if (data.remaining() < 4) {
+          logger.log(Level.WARNING, "Received invalid stream message from " + source);
+          return;
+        }
+
+        stream.sendCredit += data.getInt();
+        break;
+      case CLOSE:
+        stream.closedRemote = true;
+        removeIfClosed(stream);
+        break;
+      case RESET:
+        abort(stream, false);
+        break;
+      default:
+        logger.log(Level.WARNING, "Received invalid stream message from " + source);
+        return;
+    }
+
+    notifyAll();
+  }
+
+  /**
+   * Resets all streams and refuses new ones.
+   */
+  public synchronized void stop() {
+    stopped = true;
+
+    for (LogicalStream stream : streams.values()) {
+      stream.reset = true;
+    }
+
+    streams.clear();
+    sentMessages.clear();
+    listenerThread.shutdown();
+    notifyAll();
+  }
+
+  synchronized void write(LogicalStream stream, byte[] data)
+      throws IOException, InterruptedException {
+    int offset = 0;
+    checkWritable(stream);
+
+    while (offset < data.length) {
+      while (!stream.reset && !stream.closedLocal && stream.sendCredit == 0) {
+        wait();
+      }
+
+      checkWritable(stream);
+
+      int count = Math.min(Math.min(data.length - offset, stream.sendCredit), chunkSize);
+      send(stream, DATA, data, offset, count, MessageChannel.PRIORITY_NORMAL);
+      stream.sendCredit -= count;
+      offset += count;
+    }
+  }
+
+  synchronized byte[] read(LogicalStream stream, long timeout)
+      throws IOException, InterruptedException {
+    long deadline = System.currentTimeMillis() + timeout;
+
+    while (!stream.reset && stream.received.isEmpty() && !stream.closedRemote) {
+      if (timeout < 0) {
+        wait();
+      } else {
+        long remaining = deadline - System.currentTimeMillis();
+
+        if (remaining <= 0) {
+          throw new InterruptedIOException("Read timed out");
+        }
+
+        wait(remaining);
+      }
+    }
+
+    if (stream.reset) {
+      throw new IOException("Stream has been reset");
+    }
+
+    if (stream.received.isEmpty()) {
+      return null;
+    }
+
+    byte[] data = stream.received.removeFirst();
+    stream.consumed += data.length;
+
+    if (stream.consumed >= window / 2 && !stream.closedRemote) {
+      byte[] credit = ByteBuffer.allocate(4).putInt(stream.consumed).array();
+      send(stream, CREDIT, credit, 0, credit.length, MessageChannel.PRIORITY_HIGH);
+      stream.receiveWindow += stream.consumed;
+      stream.consumed = 0;
+    }
+
+    return data;
+  }
+
+  synchronized void close(LogicalStream stream) {
+    if (stream.reset || stream.closedLocal) {
+      return;
+    }
+
+    stream.closedLocal = true;
+    send(stream, CLOSE, MessageChannel.PRIORITY_NORMAL);
+    removeIfClosed(stream);
+    notifyAll();
+  }
+
+  synchronized void reset(LogicalStream stream) {
+    if (!stream.reset) {
+      abort(stream, true);
+    }
+  }
+
+  private void opened(Key key, LogicalStream stream) {
+    if (key.local) {
+      logger.log(Level.WARNING, "Received invalid stream message from " + key.peer);
+      return;
+    }
+
+    if (stream != null) {
+      abort(stream, false);
+    }
+
+    // Messages of streams opened by other peers don't expire
+    stream = new LogicalStream(this, key.peer, key.id, false, -1, window);
+
+    if (stopped || streamListener == null) {
+      logger.log(Level.WARNING, "Refusing stream because no stream listener is set.");
+      send(stream, RESET, MessageChannel.PRIORITY_HIGH);
+      return;
+    }
+
+    streams.put(key, stream);
+
+    // Reading blocks until the thread delivering the messages passes on the data
+    final StreamListener listener = streamListener;
+    final LogicalStream newStream = stream;
+    listenerThread.execute(new Runnable() {
+      @Override
+      public void run() {
+        listener.streamOpened(newStream);
+      }
+    });
+  }
+
+  private void checkWritable(LogicalStream stream) throws IOException {
+    if (stream.reset) {
+      throw new IOException("Stream has been reset");
+    }
+
+    if (stream.closedLocal) {
+      throw new IOException("Stream has been closed");
+    }
+  }
+
+  private void abort(LogicalStream stream, boolean informPeer) {
+    stream.reset = true;
+    stream.received.clear();
+    streams.remove(key(stream));
+
+    // Remove the remaining messages of the stream
+    Iterator<LogicalStream> iterator = sentMessages.values().iterator();
+    while (iterator.hasNext()) {
+      if (iterator.next() == stream) {
+        iterator.remove();
+      }
+    }
+
+    if (informPeer) {
+      connectionManager.send(header(stream, RESET), MessageChannel.TYPE_STREAM,
+          MessageChannel.PRIORITY_HIGH, stream.getDestination(), stream.timeout, false);
+    }
+
+    notifyAll();
+  }
+
+  private void removeIfClosed(LogicalStream stream) {
+    if (stream.closedLocal && stream.closedRemote) {
+      streams.remove(key(stream));
+    }
+  }
+
+  private void send(LogicalStream stream, byte kind, int priority) {
+    send(stream, kind, new byte[0], 0, 0, priority);
+  }
+
+  private void send(LogicalStream stream, byte kind, byte[] payload, int offset, int length,
+      int priority) {
+    byte[] message = new byte[headerLength + length];
+    System.arraycopy(header(stream, kind), 0, message, 0, headerLength);
+    System.arraycopy(payload, offset, message, headerLength, length);
+
+    long id = connectionManager.send(message, MessageChannel.TYPE_STREAM, priority,
+        stream.getDestination(), stream.timeout, true);
+    sentMessages.put(id, stream);
+  }
+
+  private static byte[] header(LogicalStream stream, byte kind) {
+    ByteBuffer buffer = ByteBuffer.allocate(headerLength);
+    buffer.putInt(stream.getId());
+    buffer.put(stream.local ? (byte) (kind | OPENER) : kind);
+    return buffer.array();
+  }
+
+  private static Key key(LogicalStream stream) {
+    return new Key(stream.getDestination(), stream.getId(), stream.local);
+  }
+}
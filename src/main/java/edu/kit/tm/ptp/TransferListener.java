@@ -0,0 +1,38 @@
+package edu.kit.tm.ptp;
+
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * An interface for subscribers to transfers started using
+ * {@link PTP#sendFile(java.nio.channels.FileChannel, Identifier, long) sendFile()}
+ * or {@link PTP#sendStream(java.io.InputStream, Identifier, long) sendStream()}.
+ *
+ * @author Timon Hackenjos
+ */
+public interface TransferListener {
+
+  /**
+   * Indicates that a remote peer started a transfer.
+   * The returned channel is written to by a separate thread of the transfer. A write which
+   * doesn't accept any data fails the transfer, so the channel should be in blocking mode.
+   *
+   * @param transferId The id of the transfer.
+   * @param source The hidden service identifier of the source of the transfer.
+   * @param size The size of the transfer in bytes or -1 if it's unknown.
+   * @return The channel to write the received data to or null to discard the data.
+   */
+  WritableByteChannel transferStarted(long transferId, Identifier source, long size);
+
+  /**
+   * Indicates that a transfer ended.
+   * If a channel has been returned, this method is called by the thread writing to it
+   * after all data has been written.
+   * The channel returned by {@link #transferStarted(long, Identifier, long) transferStarted()}
+   * isn't used afterwards but isn't closed either.
+   *
+   * @param transferId The id of the transfer.
+   * @param source The hidden service identifier of the source of the transfer.
+   * @param success True if all data has been received and written successfully.
+   */
+  void transferFinished(long transferId, Identifier source, boolean success);
+}
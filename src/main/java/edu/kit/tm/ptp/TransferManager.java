@@ -0,0 +1,716 @@
+package edu.kit.tm.ptp;
+
+import edu.kit.tm.ptp.SendListener.State;
+import edu.kit.tm.ptp.channels.BufferPool;
+import edu.kit.tm.ptp.channels.MessageChannel;
+import edu.kit.tm.ptp.connection.ConnectionManager;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Sends and receives transfers of payloads which are too big to be kept in memory.
+ * A transfer is split into chunks which are sent as messages of type
+ * {@link MessageChannel#TYPE_TRANSFER}. Only a few chunks of a transfer are queued at
+ * the same time, so the memory used doesn't depend on the size of the transfer.
+ * Chunks of files are written to the connection directly from the file.
+ * Received chunks are written to the channel of the application by a separate thread for each
+ * transfer, so a slow channel doesn't delay the connections. Only a few transfers of a peer are
+ * received at the same time. The receiver tells the sender to stop a transfer it refused or
+ * couldn't write.
+ *
+ * <p>Every transfer message starts with the id of the transfer, the kind of the message and
+ * a value which depends on the kind: the size of the transfer, the offset of a chunk or the
+ * number of bytes sent.
+ *
+ * @author Timon Hackenjos
+ */
+public class TransferManager {
+  private static final byte START = 0;
+  private static final byte DATA = 1;
+  private static final byte END = 2;
+  private static final byte ABORT = 3;
+  /** Sent by the receiver of a transfer it refused or failed to write. */
+  private static final byte FAILED = 4;
+
+  /** Length of the header of every transfer message. */
+  private static final int headerLength = 8 + 1 + 8;
+  /** Number of bytes of the transfer sent per chunk. */
+  protected static final int chunkSize = 64 * 1024 - headerLength;
+  /** Number of chunks of a transfer which are queued at the same time. */
+  private static final int window = 4;
+  /** Maximum number of received chunks of a transfer waiting to be written. */
+  protected static final int maxQueuedChunks = 256;
+  /** Maximum number of transfers received from a peer at the same time. */
+  protected static final int maxIncomingTransfers = 8;
+  /** How long to try to inform the sender about a failed transfer. */
+  private static final long failedTimeout = 60 * 1000;
+  /** Marks the end of the chunks of an incoming transfer. */
+  private static final ByteBuffer endOfChunks = ByteBuffer.allocate(0);
+
+  private static final Logger logger = Logger.getLogger(TransferManager.class.getName());
+
+  private final ConnectionManager connectionManager;
+  private final SendListener sendListener;
+  private final CallbackDispatcher callbackDispatcher;
+  private final BufferPool bufferPool;
+  private final ThreadGroup group;
+  private final AtomicLong nextTransferId = new AtomicLong(0);
+  /** Maps the ids of sent messages to the transfers they belong to. */
+  private final Map<Long, OutgoingTransfer> sentMessages = new HashMap<>();
+  /** Maps the ids of outgoing transfers to the transfers. */
+  private final Map<Long, OutgoingTransfer> outgoing = new HashMap<>();
+  private final Set<StreamTransfer> streams = new HashSet<>();
+  private final Map<Identifier, Map<Long, IncomingTransfer>> incoming = new HashMap<>();
+
+  private TransferListener transferListener = null;
+  private boolean stopped = false;
+
+  /**
+   * Constructs a new TransferManager which calls the TransferListener directly.
+   *
+   * @param connectionManager The ConnectionManager to send chunks with.
+   * @param sendListener The listener to inform about finished outgoing transfers.
+   * @param group The ThreadGroup to start threads reading from streams in or null.
+   */
+  public TransferManager(ConnectionManager connectionManager, SendListener sendListener,
+      ThreadGroup group) {
+    this(connectionManager, sendListener, new CallbackDispatcher(null), group);
+  }
+
+  /**
+   * Constructs a new TransferManager.
+   *
+   * @param connectionManager The ConnectionManager to send chunks with.
+   * @param sendListener The listener to inform about finished outgoing transfers.
+   * @param callbackDispatcher The dispatcher to call the TransferListener with.
+   * @param group The ThreadGroup to start threads reading from streams in or null.
+   */
+  public TransferManager(ConnectionManager connectionManager, SendListener sendListener,
+      CallbackDispatcher callbackDispatcher, ThreadGroup group) {
+    if (connectionManager == null || sendListener == null || callbackDispatcher == null) {
+      throw new IllegalArgumentException();
+    }
+
+    this.connectionManager = connectionManager;
+    this.sendListener = sendListener;
+    this.callbackDispatcher = callbackDispatcher;
+    this.bufferPool = connectionManager.getBufferPool();
+    this.group = group;
+  }
+
+  public synchronized void setTransferListener(TransferListener listener) {
+    this.transferListener = listener;
+  }
+
+  /**
+   * Sends the content of a file from its current position to its end.
+   * The position of the file isn't changed.
+   *
+   * @return The id used to report the result of the transfer to the SendListener.
+   */
+  public long sendFile(FileChannel file, Identifier destination, long timeout)
+      throws IOException {
+    long position = file.position();
+    FileTransfer transfer =
+        new FileTransfer(file, position, file.size() - position, destination, timeout);
+
+    synchronized (this) {
+      start(transfer, file.size() - position);
+      transfer.fill();
+    }
+
+    return transfer.id;
+  }
+
+  /**
+   * Sends the content of a stream until its end is reached.
+   * The stream is read by a separate thread and isn't closed afterwards.
+   *
+   * @return The id used to report the result of the transfer to the SendListener.
+   */
+  public long sendStream(InputStream stream, Identifier destination, long timeout) {
+    StreamTransfer transfer = new StreamTransfer(stream, destination, timeout);
+
+    synchronized (this) {
+      start(transfer, -1);
+      streams.add(transfer);
+    }
+
+    transfer.thread.start();
+
+    return transfer.id;
+  }
+
+  /**
+   * Informs the manager that a message has been sent or couldn't be sent.
+   *
+   * @return True if the message belonged to a transfer.
+   */
+  public boolean messageSent(long id, Identifier destination, State state) {
+    OutgoingTransfer finished = null;
+
+    synchronized (this) {
+      OutgoingTransfer transfer = sentMessages.remove(id);
+
+      if (transfer == null) {
+        return false;
+      }
+
+      if (transfer.finished) {
+        return true;
+      }
+
+      if (state != State.SUCCESS) {
+        logger.log(Level.INFO, "Aborting transfer " + transfer.transferId + " to " + destination);
+        abort(transfer, state);
+        finished = transfer;
+      } else if (id == transfer.endId) {
+        transfer.finished = true;
+        transfer.state = State.SUCCESS;
+        streams.remove(transfer);
+        outgoing.remove(transfer.transferId);
+        finished = transfer;
+      } else if (id != transfer.id) {
+        transfer.chunkSent();
+      }
+    }
+
+    // Call the listener without holding the lock
+    if (finished != null) {
+      sendListener.messageSent(finished.id, finished.destination, finished.state);
+    }
+
+    return true;
+  }
+
+  /**
+   * Processes a received message of type {@link MessageChannel#TYPE_TRANSFER}.
+   * Received data is copied and written to the channel supplied by the TransferListener
+   * by the thread of the transfer. The TransferListener is called using the
+   * CallbackDispatcher without holding the lock.
+   */
+  public void messageReceived(ByteBuffer data, Identifier source) {
+    if (data.remaining() < headerLength) {
+      logger.log(Level.WARNING, "Received invalid transfer message from " + source);
+      return;
+    }
+
+    final long id = data.getLong();
+    final byte kind = data.get();
+    final long value = data.getLong();
+
+    if (kind == FAILED) {
+      transferFailed(id, source);
+      return;
+    }
+
+    List<Runnable> callbacks = new ArrayList<>();
+
+    synchronized (this) {
+      messageReceived(id, kind, value, data, source, callbacks);
+    }
+
+    // Call the listener without holding the lock
+    for (Runnable callback : callbacks) {
+      callbackDispatcher.dispatch(source, callback);
+    }
+  }
+
+  private void messageReceived(long id, byte kind, long value, ByteBuffer data,
+      Identifier source, List<Runnable> callbacks) {
+    Map<Long, IncomingTransfer> transfers = incoming.get(source);
+    IncomingTransfer transfer = transfers != null ? transfers.get(id) : null;
+
+    if (kind == START) {
+      if (transfer != null) {
+        finish(source, id, false, callbacks);
+        transfers = incoming.get(source);
+      }
+
+      if (transfers != null && transfers.size() >= maxIncomingTransfers) {
+        logger.log(Level.WARNING, "Refusing transfer " + id + " from " + source
+            + " because too many transfers are received from it");
+        refuse(source, id);
+        return;
+      }
+
+      if (transferListener == null) {
+        logger.log(Level.WARNING, "Discarding transfer because no transfer listener is set.");
+      }
+
+      if (transfers == null) {
+        transfers = new HashMap<>();
+        incoming.put(source, transfers);
+      }
+
+      IncomingTransfer started = new IncomingTransfer(id, source, transferListener != null);
+      transfers.put(id, started);
+
+      if (transferListener != null) {
+        // Chunks are queued until the listener supplied the channel
+        callbacks.add(started.announce(transferListener, value));
+      } else {
+        started.started = true;
+      }
+      return;
+    }
+
+    if (transfer == null) {
+      logger.log(Level.INFO, "Received message of unknown transfer " + id + " from " + source);
+      return;
+    }
+
+    switch (kind) {
+      case DATA:
+        if (value != transfer.received) {
+          logger.log(Level.WARNING, "Missing data of transfer " + id + " from " + source);
+          finish(source, id, false, callbacks);
+          refuse(source, id);
+          return;
+        }
+
+        transfer.received += data.remaining();
+
+        if (transfer.started && transfer.channel == null) {
+          return;
+        }
+
+        if (transfer.chunks.size() >= maxQueuedChunks) {
+          logger.log(Level.WARNING, "Data of transfer " + id + " from " + source
+              + " isn't written fast enough");
+          finish(source, id, false, callbacks);
+          refuse(source, id);
+          return;
+        }
+
+        ByteBuffer chunk = bufferPool.acquire(data.remaining());
+        chunk.put(data);
+        chunk.flip();
+        transfer.chunks.add(chunk);
+        break;
+      case END:
+        finish(source, id, transfer.received == value, callbacks);
+        break;
+      case ABORT:
+        finish(source, id, false, callbacks);
+        break;
+      default:
+        logger.log(Level.WARNING, "Received invalid transfer message from " + source);
+        break;
+    }
+  }
+
+  /**
+   * Stops an outgoing transfer the receiver refused or failed to write.
+   */
+  private void transferFailed(long transferId, Identifier source) {
+    OutgoingTransfer transfer;
+
+    synchronized (this) {
+      transfer = outgoing.get(transferId);
+
+      if (transfer == null || !transfer.destination.equals(source)) {
+        logger.log(Level.INFO, "Received failure of unknown transfer " + transferId + " from "
+            + source);
+        return;
+      }
+
+      logger.log(Level.INFO, "Transfer " + transferId + " failed at " + source);
+      abort(transfer, State.TIMEOUT);
+    }
+
+    // Call the listener without holding the lock
+    sendListener.messageSent(transfer.id, transfer.destination, transfer.state);
+  }
+
+  /**
+   * Stops all threads reading from streams and writing received transfers.
+   */
+  public void stop() {
+    synchronized (this) {
+      stopped = true;
+
+      for (StreamTransfer transfer : streams) {
+        transfer.finished = true;
+        transfer.thread.interrupt();
+      }
+
+      streams.clear();
+
+      for (Map<Long, IncomingTransfer> transfers : incoming.values()) {
+        for (IncomingTransfer transfer : transfers.values()) {
+          if (transfer.channel != null) {
+            transfer.thread.interrupt();
+          }
+        }
+      }
+
+      incoming.clear();
+    }
+  }
+
+  private void start(OutgoingTransfer transfer, long size) {
+    transfer.id = send(transfer, START, size);
+    outgoing.put(transfer.transferId, transfer);
+  }
+
+  private void abort(OutgoingTransfer transfer, State state) {
+    transfer.finished = true;
+    transfer.state = state;
+    outgoing.remove(transfer.transferId);
+
+    if (streams.remove(transfer)) {
+      ((StreamTransfer) transfer).thread.interrupt();
+    }
+
+    // Remove the remaining messages of the transfer
+    Iterator<OutgoingTransfer> iterator = sentMessages.values().iterator();
+    while (iterator.hasNext()) {
+      if (iterator.next() == transfer) {
+        iterator.remove();
+      }
+    }
+
+    // Inform the receiver if possible
+    connectionManager.send(header(transfer.transferId, ABORT, 0), MessageChannel.TYPE_TRANSFER,
+        transfer.destination, transfer.timeout, false);
+  }
+
+  private void finish(final Identifier source, final long id, final boolean success,
+      List<Runnable> callbacks) {
+    Map<Long, IncomingTransfer> transfers = incoming.get(source);
+    IncomingTransfer transfer = transfers.remove(id);
+
+    if (transfers.isEmpty()) {
+      incoming.remove(source);
+    }
+
+    if (!transfer.started || transfer.channel != null) {
+      // The listener is informed after the queued chunks have been written
+      transfer.success = success;
+      transfer.ended = true;
+      transfer.chunks.add(endOfChunks);
+    } else if (transfer.informListener && transferListener != null) {
+      final TransferListener listener = transferListener;
+
+      callbacks.add(new Runnable() {
+        @Override
+        public void run() {
+          listener.transferFinished(id, source, success);
+        }
+      });
+    }
+  }
+
+  /**
+   * Tells the sender of a transfer to stop sending it.
+   */
+  private void refuse(Identifier source, long transferId) {
+    connectionManager.send(header(transferId, FAILED, 0), MessageChannel.TYPE_TRANSFER,
+        MessageChannel.PRIORITY_HIGH, source, failedTimeout, false);
+  }
+
+  private long send(OutgoingTransfer transfer, byte kind, long value) {
+    long id = connectionManager.send(header(transfer.transferId, kind, value),
+        MessageChannel.TYPE_TRANSFER, transfer.destination, transfer.timeout, true);
+    sentMessages.put(id, transfer);
+    return id;
+  }
+
+  private static byte[] header(long transferId, byte kind, long value) {
+    return writeHeader(new byte[headerLength], transferId, kind, value);
+  }
+
+  private static byte[] writeHeader(byte[] data, long transferId, byte kind, long value) {
+    ByteBuffer buffer = ByteBuffer.wrap(data);
+    buffer.putLong(transferId);
+    buffer.put(kind);
+    buffer.putLong(value);
+    return data;
+  }
+
+  private abstract class OutgoingTransfer {
+    protected final long transferId = nextTransferId.getAndIncrement();
+    protected final Identifier destination;
+    protected final long timeout;
+    /** The id to report the result of the transfer with. */
+    protected long id = -1;
+    /** The id of the last message of the transfer. */
+    protected long endId = -1;
+    protected boolean finished = false;
+    protected State state = null;
+
+    protected OutgoingTransfer(Identifier destination, long timeout) {
+      this.destination = destination;
+      this.timeout = timeout;
+    }
+
+    /**
+     * Gets called with the lock held when a chunk has been sent.
+     */
+    protected abstract void chunkSent();
+  }
+
+  private class FileTransfer extends OutgoingTransfer {
+    private final FileChannel file;
+    private final long start;
+    private long position;
+    private long remaining;
+    private int queued = 0;
+
+    public FileTransfer(FileChannel file, long position, long size, Identifier destination,
+        long timeout) {
+      super(destination, timeout);
+      this.file = file;
+      this.start = position;
+      this.position = position;
+      this.remaining = size;
+    }
+
+    /**
+     * Queues chunks until the window is full.
+     */
+    public void fill() {
+      while (queued < window && remaining > 0) {
+        int count = (int) Math.min(chunkSize, remaining);
+
+        long id = connectionManager.send(header(transferId, DATA, position - start), file,
+            position, count, MessageChannel.TYPE_TRANSFER, destination, timeout);
+        sentMessages.put(id, this);
+
+        position += count;
+        remaining -= count;
+        queued++;
+      }
+
+      if (remaining == 0 && endId == -1) {
+        endId = send(this, END, position - start);
+      }
+    }
+
+    @Override
+    protected void chunkSent() {
+      queued--;
+      fill();
+    }
+  }
+
+  private class StreamTransfer extends OutgoingTransfer implements Runnable {
+    private final InputStream stream;
+    private final Semaphore free = new Semaphore(window);
+    private final Thread thread;
+
+    public StreamTransfer(InputStream stream, Identifier destination, long timeout) {
+      super(destination, timeout);
+      this.stream = stream;
+      this.thread = new Thread(group, this);
+    }
+
+    @Override
+    protected void chunkSent() {
+      free.release();
+    }
+
+    @Override
+    public void run() {
+      long offset = 0;
+      int read;
+
+      try {
+        do {
+          free.acquire();
+
+          byte[] message = new byte[headerLength + chunkSize];
+          read = readFully(message, headerLength);
+
+          if (read > 0) {
+            if (read < chunkSize) {
+              message = Arrays.copyOf(message, headerLength + read);
+            }
+
+            writeHeader(message, transferId, DATA, offset);
+            offset += read;
+
+            synchronized (TransferManager.this) {
+              if (finished) {
+                return;
+              }
+
+              long id = connectionManager.send(message, MessageChannel.TYPE_TRANSFER,
+                  destination, timeout, true);
+              sentMessages.put(id, this);
+            }
+          }
+        } while (read == chunkSize);
+
+        synchronized (TransferManager.this) {
+          if (!finished) {
+            endId = send(this, END, offset);
+          }
+        }
+      } catch (InterruptedException e) {
+        logger.log(Level.INFO, "Stopped reading stream of transfer " + transferId);
+      } catch (IOException e) {
+        logger.log(Level.WARNING, "Failed to read stream of transfer " + transferId + ": "
+            + e.getMessage());
+
+        synchronized (TransferManager.this) {
+          if (finished) {
+            return;
+          }
+
+          abort(this, State.TIMEOUT);
+        }
+
+        sendListener.messageSent(id, destination, State.TIMEOUT);
+      }
+    }
+
+    private int readFully(byte[] buffer, int offset) throws IOException {
+      int read = 0;
+
+      while (read < chunkSize) {
+        int count = stream.read(buffer, offset + read, chunkSize - read);
+
+        if (count == -1) {
+          break;
+        }
+
+        read += count;
+      }
+
+      return read;
+    }
+  }
+
+  private class IncomingTransfer implements Runnable {
+    private final long id;
+    private final Identifier source;
+    private final boolean informListener;
+    private final BlockingQueue<ByteBuffer> chunks = new LinkedBlockingQueue<>();
+    private final Thread thread;
+    private WritableByteChannel channel = null;
+    /** True after the TransferListener has supplied the channel. */
+    private boolean started = false;
+    /** True after the last message of the transfer has been received. */
+    private boolean ended = false;
+    private long received = 0;
+    /** The result of the transfer as seen by the receiving thread. */
+    private volatile boolean success = false;
+
+    public IncomingTransfer(long id, Identifier source, boolean informListener) {
+      this.id = id;
+      this.source = source;
+      this.informListener = informListener;
+      this.thread = new Thread(group, this);
+    }
+
+    /**
+     * Returns the callback asking the listener for the channel to write the transfer to.
+     * Starts the thread of the transfer if the listener supplied a channel.
+     */
+    public Runnable announce(final TransferListener listener, final long size) {
+      return new Runnable() {
+        @Override
+        public void run() {
+          WritableByteChannel supplied = listener.transferStarted(id, source, size);
+          boolean finished;
+
+          synchronized (TransferManager.this) {
+            if (stopped) {
+              return;
+            }
+
+            started = true;
+            channel = supplied;
+
+            if (channel != null) {
+              thread.start();
+              return;
+            }
+
+            // The transfer is discarded
+            finished = ended;
+
+            for (ByteBuffer chunk : chunks) {
+              bufferPool.release(chunk);
+            }
+
+            chunks.clear();
+          }
+
+          if (finished) {
+            listener.transferFinished(id, source, success);
+          }
+        }
+      };
+    }
+
+    @Override
+    public void run() {
+      boolean written = true;
+
+      try {
+        ByteBuffer chunk;
+
+        while ((chunk = chunks.take()) != endOfChunks) {
+          // Remaining chunks are discarded after a failed write
+          if (written && !write(chunk)) {
+            written = false;
+            refuse(source, id);
+          }
+
+          bufferPool.release(chunk);
+        }
+      } catch (InterruptedException e) {
+        logger.log(Level.INFO, "Stopped writing data of transfer " + id);
+        return;
+      }
+
+      TransferListener listener;
+
+      synchronized (TransferManager.this) {
+        listener = transferListener;
+      }
+
+      // Call the listener without holding the lock
+      if (informListener && listener != null) {
+        listener.transferFinished(id, source, written && success);
+      }
+    }
+
+    private boolean write(ByteBuffer chunk) {
+      try {
+        while (chunk.hasRemaining()) {
+          if (channel.write(chunk) == 0) {
+            throw new IOException("Channel didn't accept any data");
+          }
+        }
+
+        return true;
+      } catch (IOException e) {
+        logger.log(Level.WARNING, "Failed to write data of transfer " + id + ": "
+            + e.getMessage());
+        return false;
+      }
+    }
+  }
+}
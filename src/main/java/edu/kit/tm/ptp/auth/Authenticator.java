@@ -14,6 +14,10 @@ import edu.kit.tm.ptp.channels.MessageChannel;
 public abstract class Authenticator implements ChannelMessageListener {
   protected AuthenticationListener authListener;
   protected MessageChannel channel;
+  /** The id of the group of connections the channel belongs to or 0. */
+  protected long stripeGroup = 0;
+  /** The index of the channel within its group. */
+  protected int stripe = 0;
 
   /**
    * Constructs a new Authenticator.
@@ -42,4 +46,31 @@ public abstract class Authenticator implements ChannelMessageListener {
    * @param other Expected identifier of the remote end.
    */
   public abstract void authenticate(Identifier own, Identifier other);
+
+  /**
+   * Sets the group of connections to announce to the remote end. Has to be called by the
+   * initiator before the authentication is started.
+   *
+   * @param group The id of the group or 0 if the channel doesn't belong to a group.
+   * @param stripe The index of the channel within the group.
+   */
+  public void setStripe(long group, int stripe) {
+    this.stripeGroup = group;
+    this.stripe = stripe;
+  }
+
+  /**
+   * Returns the id of the group of connections the channel belongs to or 0.
+   * Announced by the initiator of the authentication.
+   */
+  public long getStripeGroup() {
+    return stripeGroup;
+  }
+
+  /**
+   * Returns the index of the channel within its group.
+   */
+  public int getStripe() {
+    return stripe;
+  }
 }
@@ -3,9 +3,9 @@ package edu.kit.tm.ptp.auth;
 import edu.kit.tm.ptp.Identifier;
 import edu.kit.tm.ptp.channels.MessageChannel;
 import edu.kit.tm.ptp.serialization.Serializer;
-import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -21,6 +21,7 @@ public class DummyAuthenticator extends Authenticator {
   private boolean sent;
   private boolean received;
   private byte[] response;
+  private boolean initiator = false;
   private static final Logger logger = Logger.getLogger(DummyAuthenticator.class.getName());
   private static Serializer serializer = null;
 
@@ -50,13 +51,17 @@ public class DummyAuthenticator extends Authenticator {
 
   public static class AuthenticationMessage {
     private Identifier source;
+    private long stripeGroup;
+    private int stripe;
 
     public AuthenticationMessage() {
       this.source = null;
     }
 
-    public AuthenticationMessage(Identifier identifier) {
+    public AuthenticationMessage(Identifier identifier, long stripeGroup, int stripe) {
       this.source = identifier;
+      this.stripeGroup = stripeGroup;
+      this.stripe = stripe;
     }
   }
 
@@ -76,15 +81,15 @@ public class DummyAuthenticator extends Authenticator {
   }
 
   @Override
-  @SuppressFBWarnings(value = "EI_EXPOSE_REP2", justification = "MessageChannel uses"
-            + "a new buffer for each message and doesn't change old buffers.")
-  public void messageReceived(byte[] data, MessageChannel source) {
+  public void messageReceived(ByteBuffer data, int type, MessageChannel source) {
     if (!channel.equals(source)) {
       logger.log(Level.WARNING, "Received message from wrong channel");
       return;
     }
 
-    response = data;
+    // The buffer is reused after this method returns
+    response = new byte[data.remaining()];
+    data.duplicate().get(response);
     received = true;
 
     if (sent) {
@@ -100,6 +105,12 @@ public class DummyAuthenticator extends Authenticator {
         authListener.authenticationFailed(channel);
       } else {
         AuthenticationMessage authMessage = (AuthenticationMessage) message;
+
+        if (!initiator) {
+          stripeGroup = authMessage.stripeGroup;
+          stripe = authMessage.stripe;
+        }
+
         authListener.authenticationSuccess(channel, authMessage.source);
       }
     } catch (IOException e) {
@@ -111,13 +122,14 @@ public class DummyAuthenticator extends Authenticator {
 
   @Override
   public void authenticate(Identifier own) {
-    AuthenticationMessage message = new AuthenticationMessage(own);
+    AuthenticationMessage message = new AuthenticationMessage(own, stripeGroup, stripe);
     byte[] data = serializer.serialize(message);
-    channel.addMessage(data, 0);
+    channel.addMessage(data, MessageChannel.TYPE_MESSAGE, MessageChannel.PRIORITY_CONTROL, 0);
   }
 
   @Override
   public void authenticate(Identifier own, Identifier other) {
+    initiator = true;
     authenticate(own);
   }
 }
@@ -23,6 +23,13 @@ import java.util.logging.Logger;
  * AuthenticationMessage to the target. The target checks the validity of the AuthenticationMessage
  * and responds with a AUTHENTICATION_SUCCESS_MESSAGE in that case. Otherwise the channel will be
  * closed.
+ *
+ * <p>The initiator appends an extension to the serialized AuthenticationMessage, which older
+ * versions ignore. It announces whether the initiator supports compression and the group of
+ * connections the channel belongs to, if any. The extension is signed together with the fields
+ * of the AuthenticationMessage. If both ends support compression, the target appends a byte to
+ * the AUTHENTICATION_SUCCESS_MESSAGE and compression is enabled for the channel. Otherwise the
+ * target responds with the single byte expected by older versions.
  * 
  * @author Timon Hackenjos
  *
@@ -33,18 +40,46 @@ public class PublicKeyAuthenticator extends Authenticator {
 
   private static final Logger logger = Logger.getLogger(PublicKeyAuthenticator.class.getName());
   private static final byte AUTHENTICATION_SUCCESS_MESSAGE = 0x0;
+  private static final byte COMPRESSION_ENABLED = 0x1;
+  /** Marks the end of an authentication message which is followed by an extension. */
+  private static final int EXTENSION_MAGIC = 0x50545845;
+  private static final byte EXTENSION_VERSION = 0x1;
+  private static final byte FLAG_COMPRESSION = 0x1;
+  /** Length of the version, flags, group and index of an extension. */
+  private static final int EXTENSION_FIELDS_LENGTH = 1 + 1 + 8 + 4;
+  /** Length of the length of an extension and the magic number following it. */
+  private static final int EXTENSION_TRAILER_LENGTH = 4 + 4;
   private static final long TIMESTAMP_INTERVALL = 180 * 1000; // in ms
 
   private final CryptHelper cryptHelper;
+  /** Minimum size of messages to compress or 0 if compression is disabled. */
+  private final int compressionThreshold;
   private static Serializer serializer = null;
   private boolean initiator;
   private boolean messageSent = false;
   private boolean okReceived = false;
+  /** True if the initiator announced support for compression. */
+  private boolean remoteCompression = false;
 
   public PublicKeyAuthenticator(AuthenticationListener listener, MessageChannel channel,
       CryptHelper cryptHelper) {
+    this(listener, channel, cryptHelper, 0);
+  }
+
+  /**
+   * Constructs a new PublicKeyAuthenticator.
+   *
+   * @param listener The listener to inform about the authentication.
+   * @param channel The channel to authenticate.
+   * @param cryptHelper The CryptHelper to sign and verify authentication messages with.
+   * @param compressionThreshold Minimum size of messages to compress or 0 to disable
+   *     compression.
+   */
+  public PublicKeyAuthenticator(AuthenticationListener listener, MessageChannel channel,
+      CryptHelper cryptHelper, int compressionThreshold) {
     super(listener, channel);
     this.cryptHelper = cryptHelper;
+    this.compressionThreshold = compressionThreshold;
 
     initSerializer();
   }
@@ -120,11 +155,18 @@ public class PublicKeyAuthenticator extends Authenticator {
   }
 
   @Override
-  public void messageReceived(byte[] data, MessageChannel source) {
+  public void messageReceived(ByteBuffer data, int type, MessageChannel source) {
     assert channel.equals(source);
 
     if (initiator) {
-      if (data.length == 1 && data[0] == AUTHENTICATION_SUCCESS_MESSAGE) {
+      if ((data.remaining() == 1 || data.remaining() == 2)
+          && data.get(data.position()) == AUTHENTICATION_SUCCESS_MESSAGE) {
+        if (data.remaining() == 2 && compressionThreshold > 0
+            && data.get(data.position() + 1) == COMPRESSION_ENABLED) {
+          // Messages sent afterwards may be compressed
+          channel.enableCompression(compressionThreshold);
+        }
+
         if (messageSent) {
           authSuccess();
         } else {
@@ -145,8 +187,9 @@ public class PublicKeyAuthenticator extends Authenticator {
         return;
       }
 
-      // check if the authentication message is valid
-      if (authMessage == null || !authenticationMessageValid(authMessage)) {
+      // check if the authentication message and its extension are valid
+      if (authMessage == null || !authenticationMessageValid(authMessage)
+          || !readExtension(data, authMessage)) {
         authFailed();
         return;
       }
@@ -154,8 +197,20 @@ public class PublicKeyAuthenticator extends Authenticator {
       // now we know the identifier of the initiator
       other = authMessage.source;
 
+      boolean compression = compressionThreshold > 0 && remoteCompression;
+      // Older initiators only accept the single byte
+      byte[] response = compression
+          ? new byte[] {AUTHENTICATION_SUCCESS_MESSAGE, COMPRESSION_ENABLED}
+          : new byte[] {AUTHENTICATION_SUCCESS_MESSAGE};
+
       // respond with message to signal successfull authentication
-      channel.addMessage(new byte[] {AUTHENTICATION_SUCCESS_MESSAGE}, 0);
+      channel.addMessage(response, MessageChannel.TYPE_MESSAGE, MessageChannel.PRIORITY_CONTROL,
+          0);
+
+      if (compression) {
+        // The response itself is sent uncompressed
+        channel.enableCompression(compressionThreshold);
+      }
     }
   }
 
@@ -182,7 +237,7 @@ public class PublicKeyAuthenticator extends Authenticator {
 
     // We initiated the authentication process and therefore send an authentication message
     try {
-      sendAuthMessage(createAuthenticationMessage());
+      sendAuthMessage(serialize(createAuthenticationMessage()));
     } catch (GeneralSecurityException | UnsupportedEncodingException e) {
       logger.log(Level.WARNING, "Failed to sign authentication message");
       authFailed();
@@ -197,12 +252,99 @@ public class PublicKeyAuthenticator extends Authenticator {
     authListener.authenticationSuccess(channel, other);
   }
 
-  private void sendAuthMessage(AuthenticationMessage message) {
-    byte[] data = serializer.serialize(message);
-    channel.addMessage(data, 0);
+  private void sendAuthMessage(byte[] data) {
+    channel.addMessage(data, MessageChannel.TYPE_MESSAGE, MessageChannel.PRIORITY_CONTROL, 0);
+  }
+
+  /**
+   * Serializes the authentication message and appends the signed extension.
+   * The extension consists of the version, the flags, the group and the index of the channel
+   * and a signature, followed by the length of the extension and a magic number.
+   */
+  protected byte[] serialize(AuthenticationMessage message)
+      throws GeneralSecurityException, UnsupportedEncodingException {
+    byte[] serialized = serializer.serialize(message);
+    ByteBuffer fields = getExtensionFields(compressionThreshold > 0, stripeGroup, stripe);
+    byte[] signature = cryptHelper.sign(getBytes(message, fields));
+
+    int extensionLength = EXTENSION_FIELDS_LENGTH + signature.length;
+    ByteBuffer buffer =
+        ByteBuffer.allocate(serialized.length + extensionLength + EXTENSION_TRAILER_LENGTH);
+    buffer.put(serialized);
+    buffer.put(fields);
+    buffer.put(signature);
+    buffer.putInt(extensionLength);
+    buffer.putInt(EXTENSION_MAGIC);
+
+    return buffer.array();
+  }
+
+  /**
+   * Reads the extension following a valid authentication message, if any. Messages of older
+   * versions don't contain an extension, so the defaults are kept in that case.
+   *
+   * @param data The received authentication message.
+   * @param message The deserialized authentication message.
+   * @return False if the extension is malformed or its signature is invalid.
+   */
+  protected boolean readExtension(ByteBuffer data, AuthenticationMessage message) {
+    int end = data.limit();
+
+    if (data.remaining() < EXTENSION_TRAILER_LENGTH
+        || data.getInt(end - 4) != EXTENSION_MAGIC) {
+      return true;
+    }
+
+    int length = data.getInt(end - EXTENSION_TRAILER_LENGTH);
+
+    if (length <= EXTENSION_FIELDS_LENGTH
+        || length > data.remaining() - EXTENSION_TRAILER_LENGTH) {
+      logger.log(Level.WARNING, "Authentication message contains an invalid extension");
+      return false;
+    }
+
+    ByteBuffer extension = data.duplicate();
+    extension.limit(end - EXTENSION_TRAILER_LENGTH);
+    extension.position(extension.limit() - length);
+
+    if (extension.get() != EXTENSION_VERSION) {
+      logger.log(Level.INFO, "Ignoring authentication extension of unknown version");
+      return true;
+    }
+
+    boolean compression = (extension.get() & FLAG_COMPRESSION) != 0;
+    long group = extension.getLong();
+    int index = extension.getInt();
+    byte[] signature = new byte[extension.remaining()];
+    extension.get(signature);
+
+    if (group == 0 && index != 0 || index < 0) {
+      logger.log(Level.WARNING, "Authentication message contains an invalid extension");
+      return false;
+    }
+
+    try {
+      PublicKey pubKey = cryptHelper.decodePublicKey(message.pubKey);
+      ByteBuffer fields = getExtensionFields(compression, group, index);
+
+      if (!cryptHelper.verifySignature(getBytes(message, fields), signature, pubKey)) {
+        logger.log(Level.WARNING, "Invalid signature of authentication extension");
+        return false;
+      }
+    } catch (InvalidKeySpecException | InvalidKeyException | SignatureException
+        | UnsupportedEncodingException e) {
+      logger.log(Level.WARNING, "Failed to verify signature of authentication extension");
+      return false;
+    }
+
+    remoteCompression = compression;
+    stripeGroup = group;
+    stripe = index;
+
+    return true;
   }
 
-  private AuthenticationMessage deserialize(byte[] data) throws IOException {
+  private AuthenticationMessage deserialize(ByteBuffer data) throws IOException {
     Object message = serializer.deserialize(data);
 
     if (!(message instanceof AuthenticationMessage)) {
@@ -293,10 +435,7 @@ public class PublicKeyAuthenticator extends Authenticator {
 
     byte[] signature = cryptHelper.sign(toSign);
 
-    AuthenticationMessage auth =
-        new AuthenticationMessage(own, other, pubKey, timestamp, signature);
-
-    return auth;
+    return new AuthenticationMessage(own, other, pubKey, timestamp, signature);
   }
 
   protected ByteBuffer getBytes(Identifier source, Identifier destination, byte[] pubKey,
@@ -319,4 +458,30 @@ public class PublicKeyAuthenticator extends Authenticator {
   private ByteBuffer getBytes(AuthenticationMessage message) throws UnsupportedEncodingException {
     return getBytes(message.source, message.destination, message.pubKey, message.timestamp);
   }
+
+  /**
+   * Returns the bytes to sign for the extension, the fields of the authentication message
+   * followed by the fields of the extension.
+   */
+  private ByteBuffer getBytes(AuthenticationMessage message, ByteBuffer fields)
+      throws UnsupportedEncodingException {
+    ByteBuffer bytes = getBytes(message);
+    ByteBuffer buffer = ByteBuffer.allocate(bytes.remaining() + fields.remaining());
+    buffer.put(bytes);
+    buffer.put(fields.duplicate());
+
+    buffer.rewind();
+    return buffer;
+  }
+
+  private static ByteBuffer getExtensionFields(boolean compression, long group, int index) {
+    ByteBuffer buffer = ByteBuffer.allocate(EXTENSION_FIELDS_LENGTH);
+    buffer.put(EXTENSION_VERSION);
+    buffer.put(compression ? FLAG_COMPRESSION : 0);
+    buffer.putLong(group);
+    buffer.putInt(index);
+
+    buffer.rewind();
+    return buffer;
+  }
 }
@@ -14,6 +14,7 @@ public class PublicKeyAuthenticatorFactory extends AuthenticatorFactory {
   @Override
   public Authenticator createInstance(ConnectionManager manager, AuthenticationListener listener,
       MessageChannel channel) {
-    return new PublicKeyAuthenticator(listener, channel, manager.getCryptHelper());
+    return new PublicKeyAuthenticator(listener, channel, manager.getCryptHelper(),
+        manager.getCompressionThreshold());
   }
 }
@@ -0,0 +1,187 @@
+package edu.kit.tm.ptp.channels;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of ByteBuffers to receive messages into.
+ * Buffers are grouped in size classes which are powers of two.
+ * Buffers for messages bigger than the maximum pooled size are allocated
+ * on demand and are not kept after they have been released.
+ * The pool either hands out heap buffers or direct buffers.
+ *
+ * @author Timon Hackenjos
+ */
+public class BufferPool {
+  /** Size of the smallest size class. */
+  private static final int minClassSize = 64;
+  /** Maximum number of idle buffers kept per size class. */
+  private static final int defaultBuffersPerClass = 32;
+
+  private final int maxPooledSize;
+  private final int buffersPerClass;
+  private final boolean direct;
+  private final Queue<ByteBuffer>[] pools;
+  private final AtomicInteger[] pooled;
+
+  /**
+   * Constructs a new BufferPool.
+   *
+   * @param maxPooledSize Messages up to this size (in bytes) use pooled buffers.
+   *                      A value of 0 disables pooling.
+   */
+  public BufferPool(int maxPooledSize) {
+    this(maxPooledSize, defaultBuffersPerClass, false);
+  }
+
+  /**
+   * Constructs a new BufferPool.
+   *
+   * @param maxPooledSize Messages up to this size (in bytes) use pooled buffers.
+   *                      A value of 0 disables pooling.
+   * @param direct True to use direct buffers instead of heap buffers.
+   */
+  public BufferPool(int maxPooledSize, boolean direct) {
+    this(maxPooledSize, defaultBuffersPerClass, direct);
+  }
+
+  /**
+   * Constructs a new BufferPool.
+   *
+   * @param maxPooledSize Messages up to this size (in bytes) use pooled buffers.
+   *                      A value of 0 disables pooling.
+   * @param buffersPerClass Maximum number of idle buffers kept per size class.
+   * @param direct True to use direct buffers instead of heap buffers.
+   */
+  public BufferPool(int maxPooledSize, int buffersPerClass, boolean direct) {
+    if (maxPooledSize < 0 || buffersPerClass < 0) {
+      throw new IllegalArgumentException();
+    }
+
+    this.maxPooledSize = maxPooledSize;
+    this.buffersPerClass = buffersPerClass;
+    this.direct = direct;
+
+    int classes = maxPooledSize == 0 ? 0 : sizeClass(maxPooledSize) + 1;
+    pools = createPools(classes);
+    pooled = new AtomicInteger[classes];
+
+    for (int i = 0; i < classes; i++) {
+      pooled[i] = new AtomicInteger(0);
+    }
+  }
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private static Queue<ByteBuffer>[] createPools(int classes) {
+    Queue<ByteBuffer>[] queues = new Queue[classes];
+
+    for (int i = 0; i < classes; i++) {
+      queues[i] = new ConcurrentLinkedQueue<ByteBuffer>();
+    }
+
+    return queues;
+  }
+
+  /**
+   * Returns a buffer to receive a message of the supplied length into.
+   * The limit of the buffer is set to the length.
+   *
+   * @param length The length of the message.
+   */
+  public ByteBuffer acquire(int length) {
+    if (length < 0) {
+      throw new IllegalArgumentException();
+    }
+
+    if (length > maxPooledSize) {
+      return allocate(length);
+    }
+
+    int sizeClass = sizeClass(length);
+    ByteBuffer buffer = pools[sizeClass].poll();
+
+    if (buffer == null) {
+      buffer = allocate(minClassSize << sizeClass);
+    } else {
+      pooled[sizeClass].decrementAndGet();
+    }
+
+    buffer.clear();
+    buffer.limit(length);
+    return buffer;
+  }
+
+  /**
+   * Returns a buffer to the pool. The buffer must not be used afterwards.
+   * Buffers which haven't been acquired from a pool are ignored.
+   */
+  public void release(ByteBuffer buffer) {
+    if (buffer == null) {
+      return;
+    }
+
+    int capacity = buffer.capacity();
+
+    if (capacity < minClassSize || Integer.bitCount(capacity) != 1 || buffer.isReadOnly()
+        || buffer.isDirect() != direct) {
+      // Not a pooled buffer
+      return;
+    }
+
+    int sizeClass = sizeClass(capacity);
+
+    if (sizeClass >= pools.length) {
+      return;
+    }
+
+    if (pooled[sizeClass].incrementAndGet() > buffersPerClass) {
+      pooled[sizeClass].decrementAndGet();
+      return;
+    }
+
+    pools[sizeClass].add(buffer);
+  }
+
+  /**
+   * Returns the maximum length of messages which use pooled buffers.
+   */
+  public int getMaxPooledSize() {
+    return maxPooledSize;
+  }
+
+  /**
+   * Returns true if the pool hands out direct buffers.
+   */
+  public boolean isDirect() {
+    return direct;
+  }
+
+  /**
+   * Returns the number of idle buffers in the pool.
+   */
+  public int getPooledBuffers() {
+    int count = 0;
+
+    for (AtomicInteger classCount : pooled) {
+      count += classCount.get();
+    }
+
+    return count;
+  }
+
+  private ByteBuffer allocate(int capacity) {
+    return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+  }
+
+  private static int sizeClass(int length) {
+    if (length <= minClassSize) {
+      return 0;
+    }
+
+    // Exponent of the smallest power of two >= length relative to minClassSize
+    return 32 - Integer.numberOfLeadingZeros(length - 1)
+        - Integer.numberOfTrailingZeros(minClassSize);
+  }
+}
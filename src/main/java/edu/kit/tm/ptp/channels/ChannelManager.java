@@ -1,33 +1,32 @@
 package edu.kit.tm.ptp.channels;
 
+import edu.kit.tm.ptp.Configuration;
+
 import java.io.IOException;
 import java.nio.channels.ClosedChannelException;
-import java.nio.channels.SelectableChannel;
 import java.nio.channels.SelectionKey;
-import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
-import java.util.Iterator;
-import java.util.Queue;
-import java.util.Set;
-import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * Coordinates reading from and writing to several MessageChannels.
+ * The channels are spread over a configurable number of selector threads.
+ * A new channel is assigned to the thread with the fewest registered channels
+ * and stays with it until it is removed. Connections to server sockets
+ * are accepted by a dedicated thread.
  *
  * @see MessageChannel
  * @author Timon Hackenjos
  */
 
-public class ChannelManager implements Runnable {
+public class ChannelManager {
   private static final Logger logger = Logger.getLogger(ChannelManager.class.getName());
   private final ChannelListener listener;
-  private final Thread thread;
-  private final Queue<ChannelEvent> eventQueue = new ConcurrentLinkedQueue<>();
-
-  private Selector selector = null;
+  private final BufferPool bufferPool;
+  private final SelectorLoop acceptLoop;
+  private final SelectorLoop[] loops;
 
   /**
    * Initializes a new ChannelManager.
@@ -44,122 +43,75 @@ public class ChannelManager implements Runnable {
    * @param listener The ChannelListener to inform about changed channels and messages.
    */
   public ChannelManager(ChannelListener listener, ThreadGroup group) {
-    if (listener == null) {
-      throw new NullPointerException();
-    }
-
-    this.listener = listener;
-    thread = new Thread(group, this);
-    selector = null;
+    this(listener, group, new BufferPool(Configuration.DEFAULT_MAXPOOLEDMESSAGESIZE));
   }
 
   /**
-   * Starts a thread to handle reading an writing.
+   * Initializes a new ChannelManager.
+   *
+   * @param listener The ChannelListener to inform about changed channels and messages.
+   * @param group The ThreadGroup to start the thread in or null.
+   * @param bufferPool The pool to take buffers for received messages from.
    */
-  public void start() throws IOException {
-    selector = Selector.open();
-    thread.start();
+  public ChannelManager(ChannelListener listener, ThreadGroup group, BufferPool bufferPool) {
+    this(listener, group, bufferPool, Configuration.DEFAULT_SELECTORTHREADS);
   }
 
   /**
-   * Stops a previously started thread. Does nothing if the thread has been stopped before.
+   * Initializes a new ChannelManager.
+   *
+   * @param listener The ChannelListener to inform about changed channels and messages.
+   * @param group The ThreadGroup to start the threads in or null.
+   * @param bufferPool The pool to take buffers for received messages from.
+   * @param selectorThreads The number of threads to read from and write to channels.
    */
-  public void stop() {
-    thread.interrupt();
-    try {
-      // Does nothing if thread isn't running
-      thread.join();
-    } catch (InterruptedException e) {
-      logger.log(Level.WARNING, "Failed to wait for thread to stop: " + e.getMessage());
+  public ChannelManager(ChannelListener listener, ThreadGroup group, BufferPool bufferPool,
+      int selectorThreads) {
+    if (listener == null || bufferPool == null) {
+      throw new NullPointerException();
     }
 
-    try {
-      closeChannels();
-    } catch (IOException e) {
-      logger.log(Level.WARNING, "Failed to close selector: " + e.getMessage());
+    if (selectorThreads < 1) {
+      throw new IllegalArgumentException();
     }
-  }
-
-
 
-  @Override
-  public void run() {
-    int readyChannels = 0;
-    long timeout = 100;
-    ChannelEvent event;
-
-    while (!thread.isInterrupted()) {
+    this.listener = listener;
+    this.bufferPool = bufferPool;
+    acceptLoop = new SelectorLoop(this, group);
+    loops = new SelectorLoop[selectorThreads];
 
-      while ((event = eventQueue.poll()) != null) {
-        event.process(selector);
-      }
+    for (int i = 0; i < loops.length; i++) {
+      loops[i] = new SelectorLoop(this, group);
+    }
+  }
 
-      try {
-        readyChannels = selector.select(timeout);
-      } catch (IOException e) {
-        logger.log(Level.WARNING, "Error occurred during selection operation: " + e.getMessage());
-        thread.interrupt();
-        continue;
-      }
+  /**
+   * Starts the threads to handle reading an writing.
+   */
+  public void start() throws IOException {
+    acceptLoop.start();
 
-      if (readyChannels == 0) {
-        continue;
-      }
+    for (SelectorLoop loop : loops) {
+      loop.start();
+    }
+  }
 
-      Set<SelectionKey> selectedKeys = selector.selectedKeys();
-      Iterator<SelectionKey> keyIterator = selectedKeys.iterator();
-
-      while (keyIterator.hasNext()) {
-        SelectionKey key = keyIterator.next();
-
-        if (key.isValid() && key.isAcceptable()) {
-          ServerSocketChannel server = (ServerSocketChannel) key.attachment();
-          try {
-            SocketChannel client = server.accept();
-            client.configureBlocking(false);
-            MessageChannel channel = new MessageChannel(client, this);
-            listener.channelOpened(channel);
-          } catch (IOException e) {
-            logger.log(Level.WARNING,
-                "Caught exception while accepting connection: " + e.getMessage());
-          }
-
-        } else {
-          MessageChannel channel = (MessageChannel) key.attachment();
-
-          if (key.isValid() && key.isConnectable()) {
-            try {
-              // unregister channel
-              key.interestOps(0);
-
-              if (channel.getChannel().finishConnect()) {
-                listener.channelOpened(channel);
-              } else {
-                key.cancel();
-                listener.channelClosed(channel);
-              }
-            } catch (IOException ioe) {
-              logger.log(Level.WARNING,
-                  "Caught exception while handling connectable channel: " + ioe.getMessage());
-              key.cancel();
-              listener.channelClosed(channel);
-            }
-          }
-
-          if (key.isValid() && key.isReadable()) {
-            channel.read();
-          }
-
-          if (key.isValid() && key.isWritable()) {
-            channel.write();
-          }
-        }
-
-        keyIterator.remove();
-      }
+  /**
+   * Stops previously started threads. Does nothing if the threads have been stopped before.
+   */
+  public void stop() {
+    acceptLoop.stop();
 
+    for (SelectorLoop loop : loops) {
+      loop.stop();
     }
+  }
 
+  /**
+   * Returns the number of threads reading from and writing to channels.
+   */
+  public int getSelectorThreads() {
+    return loops.length;
   }
 
   /**
@@ -172,7 +124,8 @@ public class ChannelManager implements Runnable {
    */
   public void addServerSocket(ServerSocketChannel server) throws IOException {
     server.configureBlocking(false);
-    eventQueue.add(new ChannelEventRegister(SelectionKey.OP_ACCEPT, server, server));
+    acceptLoop.assign();
+    acceptLoop.addEvent(new ChannelEventRegister(SelectionKey.OP_ACCEPT, server, server));
   }
 
   /**
@@ -187,25 +140,30 @@ public class ChannelManager implements Runnable {
   public MessageChannel connect(SocketChannel socket) throws IOException {
     socket.configureBlocking(false);
     MessageChannel channel = new MessageChannel(socket, this);
-    eventQueue.add(new ChannelEventRegister(SelectionKey.OP_CONNECT, socket, channel));
+    loopFor(channel).addEvent(new ChannelEventRegister(SelectionKey.OP_CONNECT, socket, channel));
     return channel;
   }
 
   /**
    * Adds MessageChannel to the manager. Reading and writing needs to be enabled separately.
+   * A channel which has been added before stays with the same selector thread.
    * 
    * @param channel The MessageChannel.
    * @throws ClosedChannelException If the channel is closed.
    */
   public void addChannel(MessageChannel channel) throws ClosedChannelException {
-    eventQueue.add(new ChannelEventRegister(0, channel.getChannel(), channel));
+    loopFor(channel).addEvent(new ChannelEventRegister(0, channel.getChannel(), channel));
   }
 
   /**
    * Stops to read from and write messages to the supplied MessageChannel.
    */
   public void removeChannel(MessageChannel channel) {
-    eventQueue.add(new ChannelEventRemove(channel));
+    SelectorLoop loop = channel.getSelectorLoop();
+
+    if (loop != null) {
+      loop.addEvent(new ChannelEventRemove(channel));
+    }
   }
 
   /**
@@ -215,6 +173,13 @@ public class ChannelManager implements Runnable {
     return listener;
   }
 
+  /**
+   * Returns the pool to take buffers for received messages from.
+   */
+  public BufferPool getBufferPool() {
+    return bufferPool;
+  }
+
   /**
    * Tells the ChannelManager if the supplied channel has data to write.
    */
@@ -230,30 +195,40 @@ public class ChannelManager implements Runnable {
   }
 
   private void setInterestOps(MessageChannel channel, boolean enable, int operation) {
-    eventQueue.add(new ChannelEventSetInterestOps(channel, enable, operation));
+    SelectorLoop loop = channel.getSelectorLoop();
+
+    if (loop == null) {
+      // Can happen for incoming connections
+      logger.log(Level.INFO, "Unregistered channel tries to register operation.");
+      return;
+    }
+
+    loop.addEvent(new ChannelEventSetInterestOps(channel, enable, operation));
   }
 
-  private void closeChannels() throws IOException {
-    if (selector != null) {
-      // Close all connections
-      for (SelectionKey key : selector.keys()) {
-        SelectableChannel channel = key.channel();
-        try {
-          if (channel instanceof SocketChannel) {
-            logger.log(Level.INFO, "Closing SocketChannel");
-            ((SocketChannel) channel).close();
-          }
-
-          if (channel instanceof ServerSocketChannel) {
-            logger.log(Level.INFO, "Closing ServerSocketChannel");
-            ((ServerSocketChannel) channel).close();
-          }
-        } catch (IOException ioe) {
-          logger.log(Level.INFO, "Failed to close channel");
-        }
-      }
+  /**
+   * Returns the selector thread to register the channel at and assigns the least loaded one
+   * if the channel hasn't been added before.
+   */
+  private synchronized SelectorLoop loopFor(MessageChannel channel) {
+    SelectorLoop loop = channel.getSelectorLoop();
 
-      selector.close();
+    if (loop != null) {
+      loop.assign();
+      return loop;
     }
+
+    loop = loops[0];
+
+    for (int i = 1; i < loops.length; i++) {
+      if (loops[i].getLoad() < loop.getLoad()) {
+        loop = loops[i];
+      }
+    }
+
+    loop.assign();
+    channel.setSelectorLoop(loop);
+
+    return loop;
   }
 }
@@ -1,5 +1,7 @@
 package edu.kit.tm.ptp.channels;
 
+import java.nio.ByteBuffer;
+
 /**
  * Interface to listen for changed channels and sent and received messages.
  * 
@@ -17,9 +19,14 @@ public interface ChannelMessageListener {
 
   /**
    * Gets called when a new message has been received.
+   * The message is located between the position and the limit of the buffer.
+   * The buffer is taken from a pool and has to be handed back using
+   * {@link MessageChannel#releaseBuffer(ByteBuffer) releaseBuffer()}
+   * after the message has been processed.
    * 
    * @param data The message itself.
+   * @param type The type of the message.
    * @param source The channel that received the message.
    */
-  void messageReceived(byte[] data, MessageChannel source);
+  void messageReceived(ByteBuffer data, int type, MessageChannel source);
 }
@@ -2,15 +2,35 @@ package edu.kit.tm.ptp.channels;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.channels.SocketChannel;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.Arrays;
+import java.util.LinkedList;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 /**
  * Reads and writes messages to a SocketChannel.
- * A message is always prepended by it's length.
+ * A message is always prepended by it's length. The upper bits of the length
+ * contain the type of the message.
+ * Messages to write are queued by their priority. Messages of a higher priority are written
+ * first, messages of the same priority in the order they have been added.
+ * Messages longer than a fragment are written in fragments, so messages of a higher priority
+ * may be written between the fragments. One message of each priority is fragmented at a time,
+ * so a long message may be overtaken by the fragments of a long message of a higher priority.
+ * The first fragment starts with the length of the whole content, a flag within the
+ * length marks fragments. The length of a fragment contains its priority as well, fragments
+ * are reassembled separately for each priority.
+ * Several queued messages are written to the channel at once using a gathering write.
+ * The body of a message may end with a region of a file which is written using
+ * {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)
+ * transferTo()}.
+ * If compression has been enabled, the content of messages reaching a threshold is compressed
+ * if that makes it smaller. A flag within the length marks compressed messages, their content
+ * starts with the length of the uncompressed content.
  *
  * @author Timon Hackenjos
  */
@@ -21,25 +41,186 @@ public class MessageChannel {
     IDLE, LENGTH, DATA, CLOSED
   }
 
-  private static final Logger logger = Logger.getLogger(MessageChannel.class.getName());
-  private static final int bufferLength = 1024;
-  private static final int maxBufferLength = 1024 * 1024 * 100; // 100MB
+  /**
+   * A message waiting to be written to the channel.
+   */
+  private static final class Frame {
+    /** The length of the message or of the current fragment. */
+    public ByteBuffer length;
+    /** Bytes written in front of the content without copying them into it. */
+    public final ByteBuffer prefix;
+    /** The content which hasn't been passed to a fragment yet. */
+    public final ByteBuffer data;
+    /** The content of the current fragment or all content if the message isn't fragmented. */
+    public ByteBuffer chunk;
+    public final int header;
+    public final int priority;
+    /** The length of the content of the message. */
+    public final long size;
+    public final FileChannel file;
+    public final long id;
+    public long filePosition;
+    public long fileRemaining;
+    public boolean fragmented = false;
+
+    public Frame(ByteBuffer prefix, ByteBuffer data, int type, int flags, int priority,
+        FileChannel file, long position, int count, long id) {
+      this.header = (type << typeShift) | flags;
+      this.length = ByteBuffer.allocate(lenLength);
+      this.length.putInt(header | (prefix.remaining() + data.remaining() + count));
+      this.length.flip();
+      this.size = prefix.remaining() + data.remaining() + (long) count;
+      this.prefix = prefix;
+      this.data = data;
+      this.chunk = data;
+      this.priority = priority;
+      this.file = file;
+      this.filePosition = position;
+      this.fileRemaining = count;
+      this.id = id;
+    }
+
+    /**
+     * Returns true if the message has to be fragmented before writing it.
+     */
+    public boolean needsFragmenting() {
+      return !fragmented && file == null
+          && prefix.remaining() + data.remaining() > maxFragmentLength;
+    }
+
+    /**
+     * Prepares the next fragment. The first fragment starts with the length of the content
+     * followed by the prefix.
+     */
+    public void nextFragment() {
+      int total = fragmented ? 0 : lenLength;
+      int count = Math.min(data.remaining(), maxFragmentLength - total - prefix.remaining());
+
+      length = ByteBuffer.allocate(lenLength + total);
+      length.putInt(header | fragmentFlag | (priority << laneShift)
+          | (total + prefix.remaining() + count));
+      if (!fragmented) {
+        length.putInt(prefix.remaining() + data.remaining());
+        fragmented = true;
+      }
+      length.flip();
+
+      chunk = data.duplicate();
+      chunk.limit(chunk.position() + count);
+      data.position(data.position() + count);
+    }
+
+    public boolean headerWritten() {
+      return !length.hasRemaining() && !prefix.hasRemaining() && !chunk.hasRemaining();
+    }
+
+    public boolean hasRemaining() {
+      return !headerWritten() || data.hasRemaining() || fileRemaining > 0;
+    }
+  }
+
+  /**
+   * A fragmented message which is being read.
+   */
+  private static final class Reassembly {
+    /** The content which has been read so far. */
+    public final ByteBuffer buffer;
+    public final int length;
+    public final int type;
+    public final boolean compressed;
+
+    public Reassembly(ByteBuffer buffer, int length, int type, boolean compressed) {
+      this.buffer = buffer;
+      this.length = length;
+      this.type = type;
+      this.compressed = compressed;
+    }
+  }
 
-  private final ByteBuffer sendLengthBuffer;
-  private final ByteBuffer receiveLengthBuffer;
-  private final int lenLength = 4;
+  /** Type of messages which are passed to the listener as they are. */
+  public static final int TYPE_MESSAGE = 0;
+  /** Type of messages which are part of a file or stream transfer. */
+  public static final int TYPE_TRANSFER = 1;
+  /** Type of byte[] messages of the application which aren't serialized. */
+  public static final int TYPE_RAW = 2;
+  /** Type of messages which belong to a logical stream. */
+  public static final int TYPE_STREAM = 3;
+
+  /** Priority of messages controlling the connection which are always written first. */
+  public static final int PRIORITY_CONTROL = 0;
+  public static final int PRIORITY_HIGH = 1;
+  public static final int PRIORITY_NORMAL = 2;
+  public static final int PRIORITY_LOW = 3;
+  private static final int priorities = 4;
+
+  private static final Logger logger = Logger.getLogger(MessageChannel.class.getName());
+  /** Maximum length of a single message. */
+  public static final int maxBufferLength = 1024 * 1024 * 100; // 100MB
+  private static final int lenLength = 4;
+  private static final byte[] noPrefix = new byte[0];
+  /** Position of the type within the length of a message. */
+  private static final int typeShift = 29;
+  private static final int typeMask = 0x3;
+  /** The lower bits of the length contain the actual length of the message. */
+  private static final int lengthMask = (1 << 27) - 1;
+  /** Flag within the length of a message marking compressed content. */
+  private static final int compressedFlag = 1 << 27;
+  /** Flag within the length of a message marking a fragment of a message. */
+  private static final int fragmentFlag = 1 << 28;
+  /** Maximum length of a fragment including the length of the content of the message. */
+  private static final int maxFragmentLength = 16 * 1024;
+  /** Position of the priority of a fragment within its length. */
+  private static final int laneShift = 25;
+  /** The lower bits of the length of a fragment contain the actual length of the fragment. */
+  private static final int fragmentLengthMask = (1 << laneShift) - 1;
+  /** Maximum number of messages to pass to a single gathering write. */
+  private static final int maxGatherMessages = 64;
+  /** Size of the buffer to read several small messages at once. */
+  private static final int readBufferLength = 16 * 1024;
+  /** Maximum number of reads from the channel per call to read(). */
+  private static final int maxReadsPerEvent = 16;
+
+  private final ByteBuffer readBuffer;
+  /** Messages waiting to be written for each priority. */
+  private final LinkedList<Frame>[] sendQueues = createQueues();
+  private final ByteBuffer[] gatherBuffers = new ByteBuffer[3 * maxGatherMessages];
+  private final Frame[] gatherFrames = new Frame[maxGatherMessages];
+  /** The message of each priority which is being written in fragments. */
+  private final Frame[] fragmenting = new Frame[priorities];
+  /** The message which has been written partially and has to be continued first. */
+  private Frame current = null;
+  /** The length of the content of all queued messages. */
+  private long queuedBytes = 0;
+  /** The message of each priority whose fragments are being read. */
+  private final Reassembly[] reassemblies = new Reassembly[priorities];
+
+  private final BufferPool bufferPool;
+
+  /** Compresses messages of the threads adding messages to any channel. */
+  private static final ThreadLocal<Deflater> deflaters = new ThreadLocal<Deflater>() {
+    @Override
+    protected Deflater initialValue() {
+      return new Deflater(Deflater.BEST_SPEED);
+    }
+  };
 
-  private ByteBuffer sendBuffer;
   private ByteBuffer receiveBuffer;
+  private int receiveType;
+  private boolean receiveCompressed;
+  private boolean receiveFragment;
+  private int receiveLane;
+  /** Minimum length of messages to compress or 0 if compression is disabled. */
+  private volatile int compressionThreshold = 0;
+  private Inflater inflater = null;
   private State readState = State.LENGTH;
   private State writeState = State.IDLE;
-  private int readLength;
-  private long currentId;
 
   protected final SocketChannel channel;
   protected final ChannelChangeListener changeListener;
   protected final ChannelMessageListener messageListener;
   protected final ChannelManager manager;
+  /** The selector thread of the ChannelManager the channel is registered at. */
+  private volatile SelectorLoop selectorLoop = null;
 
   /**
    * Initializes a new MessageChannel.
@@ -57,79 +238,278 @@ public class MessageChannel {
     this.manager = manager;
     this.changeListener = manager.getChannelListener();
     this.messageListener = manager.getChannelListener();
+    this.bufferPool = manager.getBufferPool();
     
     // Initialize buffers
-    receiveBuffer = ByteBuffer.allocate(bufferLength);
-    sendLengthBuffer = ByteBuffer.allocate(lenLength);
-    receiveLengthBuffer = ByteBuffer.allocate(lenLength);
+    receiveBuffer = null;
+    readBuffer = bufferPool.isDirect() ? ByteBuffer.allocateDirect(readBufferLength)
+        : ByteBuffer.allocate(readBufferLength);
   }
 
   /**
-   * Reads data from the channel.
-   * Possibly needs to be called several times to read a whole message.
-   * Informs the ChannelListener when a whole message has been read.
+   * Reads data from the channel until no more data is available.
+   * Small messages are read into a common read buffer and several of them are parsed at once.
+   * The rest of bigger messages is read directly into the buffer of the message.
+   * Informs the ChannelListener about every whole message that has been read.
+   * Messages are passed in buffers of the BufferPool of the ChannelManager.
    */
   public synchronized void read() {
     try {
-      int read;
-      switch (readState) {
-        case LENGTH:
+      // Limit the number of reads to give other channels a chance
+      for (int i = 0; i < maxReadsPerEvent; i++) {
+        int read;
 
-          read = channel.read(receiveLengthBuffer);
+        switch (readState) {
+          case LENGTH:
+            read = channel.read(readBuffer);
 
-          if (read == -1) {
-            logger.log(Level.INFO, "Reading reached end of stream");
-            closeChannel();
-            return;
-          }
+            if (read == -1) {
+              logger.log(Level.INFO, "Reading reached end of stream");
+              closeChannel();
+              return;
+            }
+
+            if (read == 0) {
+              return;
+            }
+
+            readBuffer.flip();
+            boolean valid = parseMessages();
+            readBuffer.compact();
 
-          if (!receiveLengthBuffer.hasRemaining()) {
-            receiveLengthBuffer.flip();
-            readLength = receiveLengthBuffer.getInt();
-            receiveLengthBuffer.clear();
-            
-            if (readLength > maxBufferLength) {
-              logger.log(Level.WARNING, "Read length exceeded maximum buffer size");
+            if (!valid) {
               closeChannel();
               return;
             }
-            
-            if (readLength == 0) {
-              messageListener.messageReceived(new byte[0], this);
+            break;
+          case DATA:
+            read = channel.read(receiveBuffer);
+
+            if (read == -1) {
+              logger.log(Level.INFO, "Reading reached end of stream");
+              closeChannel();
               return;
             }
-            
-            receiveBuffer = ByteBuffer.allocate(readLength);
-            readState = State.DATA;
-          }
 
-          break;
-        case DATA:
-          read = channel.read(receiveBuffer);
+            if (!receiveBuffer.hasRemaining()) {
+              readState = State.LENGTH;
 
-          if (read == -1) {
-            logger.log(Level.INFO, "Reading reached end of stream");
-            closeChannel();
+              if (!deliverMessage()) {
+                closeChannel();
+                return;
+              }
+            } else if (read == 0) {
+              return;
+            }
+            break;
+          default:
             return;
-          }
+        }
+      }
+    } catch (IOException ioe) {
+      closeChannel();
+    }
+  }
 
-          if (!receiveBuffer.hasRemaining()) {
-            byte[] data = receiveBuffer.array();
+  /**
+   * Parses all messages in the read buffer. A trailing incomplete length stays in the
+   * read buffer. The available part of a trailing incomplete message is copied to the
+   * receive buffer and the rest of the message is read directly into the receive buffer.
+   *
+   * @return False if an invalid length has been read.
+   */
+  private boolean parseMessages() {
+    while (readBuffer.remaining() >= lenLength) {
+      int header = readBuffer.getInt(readBuffer.position());
+      int length = header & lengthMask;
+      boolean fragment = (header & fragmentFlag) != 0;
+
+      if (fragment) {
+        receiveLane = length >>> laneShift;
+        length &= fragmentLengthMask;
+      }
 
-            messageListener.messageReceived(data, this);
-            readState = State.LENGTH;
+      int flags = fragmentFlag | (inflater != null ? compressedFlag : 0);
 
-            receiveBuffer.clear();
-          }
-          break;
-        default:
-          break;
+      if (header < 0 || (header & ~lengthMask & ~(typeMask << typeShift) & ~flags) != 0
+          || length > (fragment ? maxFragmentLength : maxBufferLength)) {
+        logger.log(Level.WARNING, "Read length exceeded maximum buffer size");
+        return false;
+      }
 
+      readBuffer.position(readBuffer.position() + lenLength);
+      receiveBuffer = bufferPool.acquire(length);
+      receiveType = (header >>> typeShift) & typeMask;
+      receiveCompressed = (header & compressedFlag) != 0;
+      receiveFragment = fragment;
+
+      int available = Math.min(length, readBuffer.remaining());
+      ByteBuffer data = readBuffer.duplicate();
+      data.limit(data.position() + available);
+      receiveBuffer.put(data);
+      readBuffer.position(readBuffer.position() + available);
+
+      if (receiveBuffer.hasRemaining()) {
+        readState = State.DATA;
+        return true;
       }
 
-    } catch (IOException ioe) {
-      closeChannel();
+      if (!deliverMessage()) {
+        return false;
+      }
     }
+
+    return true;
+  }
+
+  /**
+   * Hands a completely read message over to the listener.
+   * The listener becomes responsible to release the buffer.
+   *
+   * @return False if a compressed message or a fragment is invalid.
+   */
+  private boolean deliverMessage() {
+    ByteBuffer data = receiveBuffer;
+    receiveBuffer = null;
+
+    data.flip();
+
+    if (receiveFragment) {
+      return reassemble(data);
+    }
+
+    return deliverMessage(data, receiveType, receiveCompressed);
+  }
+
+  private boolean deliverMessage(ByteBuffer data, int type, boolean compressed) {
+    if (compressed) {
+      try {
+        data = decompress(data);
+      } catch (DataFormatException e) {
+        logger.log(Level.WARNING, "Received invalid compressed message: " + e.getMessage());
+        return false;
+      }
+    }
+
+    messageListener.messageReceived(data, type, this);
+    return true;
+  }
+
+  /**
+   * Copies a fragment to the content of the message of its priority and delivers the message
+   * when its last fragment has been read. Releases the buffer of the fragment.
+   *
+   * @return False if the fragment is invalid.
+   */
+  private boolean reassemble(ByteBuffer fragment) {
+    Reassembly reassembly = reassemblies[receiveLane];
+
+    try {
+      if (reassembly == null) {
+        if (fragment.remaining() < lenLength) {
+          logger.log(Level.WARNING, "Received fragment without length");
+          return false;
+        }
+
+        int length = fragment.getInt();
+
+        if (length <= 0 || length > maxBufferLength) {
+          logger.log(Level.WARNING, "Length of fragmented message exceeds maximum buffer size");
+          return false;
+        }
+
+        reassembly = new Reassembly(bufferPool.acquire(length), length, receiveType,
+            receiveCompressed);
+        reassemblies[receiveLane] = reassembly;
+      } else if (reassembly.type != receiveType || reassembly.compressed != receiveCompressed) {
+        logger.log(Level.WARNING, "Received fragment of a different message");
+        return false;
+      }
+
+      if (reassembly.buffer.position() + fragment.remaining() > reassembly.length) {
+        logger.log(Level.WARNING, "Fragments exceed length of message");
+        return false;
+      }
+
+      reassembly.buffer.put(fragment);
+    } finally {
+      bufferPool.release(fragment);
+    }
+
+    if (reassembly.buffer.position() < reassembly.length) {
+      return true;
+    }
+
+    reassemblies[receiveLane] = null;
+    ByteBuffer data = reassembly.buffer;
+    data.flip();
+
+    return deliverMessage(data, reassembly.type, reassembly.compressed);
+  }
+
+  /**
+   * Decompresses the content of a message into a buffer of the pool.
+   * Releases the buffer of the compressed content.
+   */
+  private ByteBuffer decompress(ByteBuffer data) throws DataFormatException {
+    ByteBuffer content = null;
+
+    try {
+      if (data.remaining() < lenLength) {
+        throw new DataFormatException("Length is missing");
+      }
+
+      int length = data.getInt();
+
+      if (length < 0 || length > maxBufferLength) {
+        throw new DataFormatException("Length exceeds maximum buffer size");
+      }
+
+      byte[] input = data.hasArray() ? data.array() : new byte[data.remaining()];
+      int offset = data.hasArray() ? data.arrayOffset() + data.position() : 0;
+
+      if (!data.hasArray()) {
+        data.duplicate().get(input);
+      }
+
+      content = bufferPool.acquire(length);
+      byte[] output = content.hasArray() ? content.array() : new byte[length];
+      int outputOffset = content.hasArray() ? content.arrayOffset() : 0;
+
+      inflater.reset();
+      inflater.setInput(input, offset, data.remaining());
+      int inflated = inflater.inflate(output, outputOffset, length);
+
+      if (inflated != length || !inflater.finished()) {
+        throw new DataFormatException("Length doesn't match content");
+      }
+
+      if (!content.hasArray()) {
+        content.put(output, 0, length);
+      } else {
+        content.position(length);
+      }
+
+      content.flip();
+      ByteBuffer result = content;
+      content = null;
+      return result;
+    } finally {
+      bufferPool.release(data);
+
+      if (content != null) {
+        bufferPool.release(content);
+      }
+    }
+  }
+
+  /**
+   * Returns a buffer passed to {@link ChannelMessageListener#messageReceived(ByteBuffer,
+   * int, MessageChannel) messageReceived()} to the pool it has been taken from.
+   * The buffer must not be used afterwards.
+   */
+  public void releaseBuffer(ByteBuffer buffer) {
+    bufferPool.release(buffer);
   }
 
   /**
@@ -138,6 +518,29 @@ public class MessageChannel {
   protected synchronized void closeChannel() {
     readState = State.CLOSED;
     writeState = State.CLOSED;
+    for (LinkedList<Frame> queue : sendQueues) {
+      queue.clear();
+    }
+    Arrays.fill(fragmenting, null);
+    current = null;
+    queuedBytes = 0;
+
+    if (receiveBuffer != null) {
+      bufferPool.release(receiveBuffer);
+      receiveBuffer = null;
+    }
+
+    for (int i = 0; i < priorities; i++) {
+      if (reassemblies[i] != null) {
+        bufferPool.release(reassemblies[i].buffer);
+        reassemblies[i] = null;
+      }
+    }
+
+    if (inflater != null) {
+      inflater.end();
+      inflater = null;
+    }
 
     try {
       channel.close();
@@ -149,36 +552,65 @@ public class MessageChannel {
   }
 
   /**
-   * Writes a previously added Message to the channel.
-   * Needs possibly to be called several times to write a whole message.
-   * Informs the ChannelListener when a whole message has been written.
+   * Writes previously added messages to the channel.
+   * The lengths and contents of several queued messages are passed to a single
+   * gathering write in the order of their priorities. Writes until the queues are empty or
+   * the channel doesn't accept more data without blocking.
+   * Informs the ChannelListener about every message which has been written completely.
    */
   public synchronized void write() {
     try {
-      switch (writeState) {
-        case LENGTH:
+      while (writeState == State.DATA) {
+        int messages = schedule();
 
-          channel.write(sendLengthBuffer);
+        for (int i = 0; i < messages; i++) {
+          gatherBuffers[3 * i] = gatherFrames[i].length;
+          gatherBuffers[3 * i + 1] = gatherFrames[i].prefix;
+          gatherBuffers[3 * i + 2] = gatherFrames[i].chunk;
+        }
 
-          if (!sendLengthBuffer.hasRemaining()) {
-            sendLengthBuffer.clear();
-            writeState = State.DATA;
+        channel.write(gatherBuffers, 0, 3 * messages);
+        Arrays.fill(gatherBuffers, 0, 3 * messages, null);
+
+        boolean blocked = false;
+        current = null;
+
+        for (int i = 0; i < messages && !blocked; i++) {
+          Frame frame = gatherFrames[i];
+          gatherFrames[i] = null;
+
+          if (frame.fileRemaining > 0 && frame.headerWritten()) {
+            long transferred =
+                frame.file.transferTo(frame.filePosition, frame.fileRemaining, channel);
+
+            if (transferred == 0 && frame.filePosition >= frame.file.size()) {
+              throw new IOException("File has been truncated while sending it");
+            }
+
+            frame.filePosition += transferred;
+            frame.fileRemaining -= transferred;
           }
-          break;
-        case DATA:
-          channel.write(sendBuffer);
 
-          if (!sendBuffer.hasRemaining()) {
-            messageListener.messageSent(currentId, this);
-            writeState = State.IDLE;
+          if (!frame.headerWritten() || frame.fileRemaining > 0) {
+            // Socket buffer is full, a started message has to be continued first
+            if (frame.length.position() > 0) {
+              current = frame;
+            }
+            blocked = true;
+          } else if (!frame.hasRemaining()) {
+            sent(frame);
           }
-          break;
-        case IDLE:
-          manager.registerWrite(this, false);
-          break;
-        default:
-          break;
+        }
 
+        if (blocked) {
+          // Wait for the next write event
+          Arrays.fill(gatherFrames, null);
+          return;
+        }
+      }
+
+      if (writeState == State.IDLE) {
+        manager.registerWrite(this, false);
       }
     } catch (IOException ioe) {
       logger.log(Level.WARNING, "Caught exception while writing: " + ioe.getMessage());
@@ -186,34 +618,323 @@ public class MessageChannel {
     }
   }
 
+  /**
+   * Selects the messages or fragments to write next in the order of their priorities.
+   * A partially written message is continued first. A message has to be written completely
+   * before the next message of the same priority. Messages of different priorities are
+   * fragmented independently.
+   *
+   * @return The number of selected messages.
+   */
+  private int schedule() {
+    int messages = 0;
+
+    if (current != null) {
+      gatherFrames[messages++] = current;
+
+      if (current.file != null) {
+        // The file region has to be written before the next message
+        return messages;
+      }
+    }
+
+    for (LinkedList<Frame> queue : sendQueues) {
+      for (Frame frame : queue) {
+        if (messages == maxGatherMessages) {
+          return messages;
+        }
+
+        if (frame == current) {
+          if (frame.fragmented) {
+            break;
+          }
+          continue;
+        }
+
+        if (frame.needsFragmenting()) {
+          if (fragmenting[frame.priority] != null) {
+            // Wait for the message of the priority which is being fragmented
+            break;
+          }
+
+          fragmenting[frame.priority] = frame;
+          frame.nextFragment();
+        } else if (frame.fragmented && frame.headerWritten()) {
+          frame.nextFragment();
+        }
+
+        gatherFrames[messages++] = frame;
+
+        if (frame.file != null) {
+          return messages;
+        }
+
+        if (frame.fragmented) {
+          // The following messages have to wait for the remaining fragments
+          break;
+        }
+      }
+    }
+
+    return messages;
+  }
+
+  /**
+   * Removes a completely written message from its queue and informs the listener.
+   */
+  private void sent(Frame frame) {
+    sendQueues[frame.priority].remove(frame);
+    queuedBytes -= frame.size;
+
+    if (frame == fragmenting[frame.priority]) {
+      fragmenting[frame.priority] = null;
+    }
+
+    if (getQueuedMessages() == 0) {
+      writeState = State.IDLE;
+    }
+
+    messageListener.messageSent(frame.id, this);
+  }
+
   /**
    * Adds a message to write to the MessageChannel.
-   * A MessageChannel can only have one message to write at a time.
-   * It's only allowed to call the method again, when the
-   * ChannelListener is informed, that the last message was
-   * sent successfully.
+   * Messages are queued and written in the order they have been added.
+   * The ChannelListener is informed about every message which has been
+   * written successfully.
    * 
    * @param data The bytes to send.
    * @param id The id to use when informing the ChannelListener about a sent message.
-   * @return True if the channel was idle and the message has been added successfully.
+   * @return True if the message has been added successfully, false if the channel is closed.
+   */
+  public boolean addMessage(byte[] data, long id) {
+    return addMessage(data, TYPE_MESSAGE, id);
+  }
+
+  /**
+   * Adds a message of the supplied type to write to the MessageChannel.
+   *
+   * @param data The bytes to send.
+   * @param type The type of the message.
+   * @param id The id to use when informing the ChannelListener about a sent message.
+   * @return True if the message has been added successfully, false if the channel is closed.
+   * @see #addMessage(byte[], long)
+   */
+  public boolean addMessage(byte[] data, int type, long id) {
+    return addMessage(data, type, PRIORITY_NORMAL, id);
+  }
+
+  /**
+   * Adds a message of the supplied type and priority to write to the MessageChannel.
+   *
+   * @param data The bytes to send.
+   * @param type The type of the message.
+   * @param priority The priority of the message, {@link #PRIORITY_CONTROL} is the highest.
+   * @param id The id to use when informing the ChannelListener about a sent message.
+   * @return True if the message has been added successfully, false if the channel is closed.
+   * @see #addMessage(byte[], long)
+   */
+  public boolean addMessage(byte[] data, int type, int priority, long id) {
+    return addMessage(noPrefix, data, type, priority, id);
+  }
+
+  /**
+   * Adds a message of the supplied type and priority to write to the MessageChannel whose
+   * content consists of the prefix followed by the data. Both are written without
+   * concatenating them.
+   *
+   * @param prefix The bytes to send before the data.
+   * @param data The bytes to send.
+   * @param type The type of the message.
+   * @param priority The priority of the message, {@link #PRIORITY_CONTROL} is the highest.
+   * @param id The id to use when informing the ChannelListener about a sent message.
+   * @return True if the message has been added successfully, false if the channel is closed.
+   * @see #addMessage(byte[], long)
+   */
+  public boolean addMessage(byte[] prefix, byte[] data, int type, int priority, long id) {
+    checkMessage(prefix.length + (long) data.length, type);
+    checkPriority(priority);
+
+    int length = prefix.length + data.length;
+
+    int threshold = compressionThreshold;
+
+    if (threshold > 0 && length >= threshold && length > lenLength) {
+      // Compress before acquiring the lock to not hold up reading and writing
+      byte[] compressed = compress(prefix, data);
+
+      if (compressed != null) {
+        return addFrame(new Frame(ByteBuffer.wrap(noPrefix), ByteBuffer.wrap(compressed), type,
+            compressedFlag, priority, null, 0, 0, id));
+      }
+    }
+
+    return addFrame(new Frame(ByteBuffer.wrap(prefix), ByteBuffer.wrap(data), type, 0, priority,
+        null, 0, 0, id));
+  }
+
+  /**
+   * Returns the compressed content of a message or null if compressing doesn't make
+   * it smaller.
+   */
+  private static byte[] compress(byte[] prefix, byte[] data) {
+    Deflater deflater = deflaters.get();
+    byte[] compressed = new byte[prefix.length + data.length];
+    int length = lenLength;
+
+    ByteBuffer.wrap(compressed).putInt(compressed.length);
+    deflater.reset();
+    deflater.setInput(prefix);
+
+    while (!deflater.needsInput() && length < compressed.length) {
+      length += deflater.deflate(compressed, length, compressed.length - length);
+    }
+
+    deflater.setInput(data);
+    deflater.finish();
+    length += deflater.deflate(compressed, length, compressed.length - length);
+
+    if (!deflater.finished()) {
+      // Incompressible content is sent as it is
+      return null;
+    }
+
+    return Arrays.copyOf(compressed, length);
+  }
+
+  /**
+   * Enables compression of messages added afterwards and accepts compressed messages.
+   * Has to be agreed on with the remote end before.
+   *
+   * @param threshold Minimum length of messages to compress.
+   */
+  public synchronized void enableCompression(int threshold) {
+    if (threshold <= 0) {
+      throw new IllegalArgumentException();
+    }
+
+    if (inflater == null && readState != State.CLOSED) {
+      inflater = new Inflater();
+    }
+
+    compressionThreshold = threshold;
+  }
+
+  /**
+   * Returns true if compression has been enabled.
+   */
+  public boolean isCompressionEnabled() {
+    return compressionThreshold > 0;
+  }
+
+  /**
+   * Adds a message to write to the MessageChannel which consists of the supplied
+   * header followed by a region of a file. The file region is written without
+   * copying it to the heap, if supported by the operating system.
+   * The file must not be truncated until the message has been sent.
+   *
+   * @param header The bytes to send before the file region.
+   * @param file The file to send the region of.
+   * @param position The position of the region within the file.
+   * @param count The length of the region.
+   * @param type The type of the message.
+   * @param id The id to use when informing the ChannelListener about a sent message.
+   * @return True if the message has been added successfully, false if the channel is closed.
+   * @see #addMessage(byte[], long)
+   */
+  public boolean addMessage(byte[] header, FileChannel file, long position,
+      int count, int type, long id) {
+    return addMessage(noPrefix, header, file, position, count, type, id);
+  }
+
+  /**
+   * Adds a message to write to the MessageChannel which consists of the prefix and the
+   * header followed by a region of a file.
+   *
+   * @see #addMessage(byte[], FileChannel, long, int, int, long)
    */
-  public synchronized boolean addMessage(byte[] data, long id) {
-    if (writeState != State.IDLE) {
-      logger.log(Level.INFO, "MessageChannel is busy. Can't add message " + id + ".");
+  public synchronized boolean addMessage(byte[] prefix, byte[] header, FileChannel file,
+      long position, int count, int type, long id) {
+    if (file == null || position < 0 || count < 0) {
+      throw new IllegalArgumentException();
+    }
+
+    checkMessage(prefix.length + header.length + (long) count, type);
+
+    return addFrame(new Frame(ByteBuffer.wrap(prefix), ByteBuffer.wrap(header), type, 0,
+        PRIORITY_NORMAL, file, position, count, id));
+  }
+
+  private static void checkMessage(long length, int type) {
+    if (length > maxBufferLength || type < 0 || type > typeMask) {
+      throw new IllegalArgumentException();
+    }
+  }
+
+  private static void checkPriority(int priority) {
+    if (priority < 0 || priority >= priorities) {
+      throw new IllegalArgumentException();
+    }
+  }
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private static LinkedList<Frame>[] createQueues() {
+    LinkedList<Frame>[] queues = new LinkedList[priorities];
+
+    for (int i = 0; i < priorities; i++) {
+      queues[i] = new LinkedList<>();
+    }
+
+    return queues;
+  }
+
+  private synchronized boolean addFrame(Frame frame) {
+    if (writeState == State.CLOSED) {
+      logger.log(Level.INFO, "MessageChannel is closed. Can't add message " + frame.id + ".");
       return false;
     }
 
-    sendLengthBuffer.putInt(data.length);
-    sendLengthBuffer.flip();
-    sendBuffer = ByteBuffer.wrap(data);
+    sendQueues[frame.priority].add(frame);
+    queuedBytes += frame.size;
+
+    if (writeState == State.IDLE) {
+      writeState = State.DATA;
+      manager.registerWrite(this, true);
+    }
 
-    currentId = id;
-    writeState = State.LENGTH;
-    manager.registerWrite(this, true);
     return true;
   }
 
+  /**
+   * Returns the number of messages which have been added but not written completely yet.
+   */
+  public synchronized int getQueuedMessages() {
+    int messages = 0;
+
+    for (LinkedList<Frame> queue : sendQueues) {
+      messages += queue.size();
+    }
+
+    return messages;
+  }
+
+  /**
+   * Returns the length of the content of the messages which have been added but not written
+   * completely yet.
+   */
+  public synchronized long getQueuedBytes() {
+    return queuedBytes;
+  }
+
   public SocketChannel getChannel() {
     return channel;
   }
+
+  SelectorLoop getSelectorLoop() {
+    return selectorLoop;
+  }
+
+  void setSelectorLoop(SelectorLoop selectorLoop) {
+    this.selectorLoop = selectorLoop;
+  }
 }
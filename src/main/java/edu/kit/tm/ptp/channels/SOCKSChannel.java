@@ -23,6 +23,8 @@ public class SOCKSChannel extends MessageChannel {
 
   public SOCKSChannel(MessageChannel messageChannel, ChannelManager manager) {
     super(messageChannel.getChannel(), manager);
+    // Keep the selector thread the socket is already registered at
+    setSelectorLoop(messageChannel.getSelectorLoop());
     connected = false;
   }
 
@@ -39,22 +41,37 @@ public class SOCKSChannel extends MessageChannel {
    * @param host The host to connect to.
    * @param port The port to connect to.
    */
-  public synchronized void connectThroughSOCKS(String host, int port) {
+  public void connectThroughSOCKS(String host, int port) {
+    connectThroughSOCKS(host, port, null);
+  }
+
+  /**
+   * Opens a connection through a SOCKS proxy and passes the supplied user id to the proxy.
+   * Tor uses separate circuits for connections with different user ids.
+   *
+   * @param host The host to connect to.
+   * @param port The port to connect to.
+   * @param user The user id or null.
+   * @see #connectThroughSOCKS(String, int)
+   */
+  public synchronized void connectThroughSOCKS(String host, int port, String user) {
     if (connected) {
       logger.log(Level.SEVERE, "A connection through the proxy has already been established.");
       throw new IllegalStateException();
     }
     byte[] hostBytes;
+    byte[] userBytes;
     
     try {
       hostBytes = host.getBytes(Constants.charset);
+      userBytes = user != null ? user.getBytes(Constants.charset) : new byte[0];
     } catch (UnsupportedEncodingException e) {
       logger.log(Level.WARNING, "Failed to encode host string using " + Constants.charset);
       closeChannel();
       return;
     }
 
-    socksWriteBuffer = ByteBuffer.allocate(hostBytes.length + 10);
+    socksWriteBuffer = ByteBuffer.allocate(hostBytes.length + userBytes.length + 10);
 
     // ByteBuffers use Big Endian by Default
     // SOCKS4a
@@ -62,6 +79,7 @@ public class SOCKSChannel extends MessageChannel {
     socksWriteBuffer.put((byte) 0x01);
     socksWriteBuffer.putShort((short) port);
     socksWriteBuffer.putInt(0x01);
+    socksWriteBuffer.put(userBytes);
     socksWriteBuffer.put((byte) 0x00);
     socksWriteBuffer.put(hostBytes);
     socksWriteBuffer.put((byte) 0x00);
@@ -132,12 +150,16 @@ public class SOCKSChannel extends MessageChannel {
    * It's not allowed to call this method while it establishes a connection through the SOCKS proxy.
    */
   @Override
-  public synchronized boolean addMessage(byte[] data, long id) {
-    if (!connected) {
+  public boolean addMessage(byte[] data, int type, int priority, long id) {
+    if (!isConnected()) {
       logger.log(Level.WARNING, "Tried to add message to an unconnected SOCKSChannel.");
       return false;
     }
 
-    return super.addMessage(data, id);
+    return super.addMessage(data, type, priority, id);
+  }
+
+  private synchronized boolean isConnected() {
+    return connected;
   }
 }
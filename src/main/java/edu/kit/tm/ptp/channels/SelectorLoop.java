@@ -0,0 +1,230 @@
+package edu.kit.tm.ptp.channels;
+
+import java.io.IOException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A thread with its own Selector which reads from and writes to the channels registered at it.
+ * Changes to the registration of channels are passed as events and are processed by the thread.
+ * Other threads wake up the selector when they add an event. Several events added before the
+ * thread gets to process them cause a single wakeup.
+ *
+ * @see ChannelManager
+ * @author Timon Hackenjos
+ */
+class SelectorLoop implements Runnable {
+  private static final Logger logger = Logger.getLogger(SelectorLoop.class.getName());
+
+  private final ChannelManager manager;
+  private final ChannelListener listener;
+  private final Thread thread;
+  private final Queue<ChannelEvent> eventQueue = new ConcurrentLinkedQueue<>();
+  /** Number of channels registered at the selector when the events have been processed. */
+  private volatile int registered = 0;
+  /** Number of registrations which have been assigned to this loop but not processed yet. */
+  private final AtomicInteger pending = new AtomicInteger(0);
+  /** True if the selector has been woken up and the event queue hasn't been processed since. */
+  private final AtomicBoolean wakeupPending = new AtomicBoolean(false);
+
+  private volatile Selector selector = null;
+
+  /**
+   * Initializes a new SelectorLoop.
+   *
+   * @param manager The ChannelManager to create accepted channels for.
+   * @param group The ThreadGroup to start the thread in or null.
+   */
+  public SelectorLoop(ChannelManager manager, ThreadGroup group) {
+    this.manager = manager;
+    this.listener = manager.getChannelListener();
+    this.thread = new Thread(group, this);
+  }
+
+  /**
+   * Opens the selector and starts the thread.
+   */
+  public void start() throws IOException {
+    selector = Selector.open();
+    thread.start();
+  }
+
+  /**
+   * Stops a previously started thread and closes all channels registered at the selector.
+   */
+  public void stop() {
+    thread.interrupt();
+    try {
+      // Does nothing if thread isn't running
+      thread.join();
+    } catch (InterruptedException e) {
+      logger.log(Level.WARNING, "Failed to wait for thread to stop: " + e.getMessage());
+    }
+
+    try {
+      closeChannels();
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Failed to close selector: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Queues an event to be processed by the thread of this loop.
+   * Wakes up the selector unless a wakeup is already pending.
+   */
+  public void addEvent(ChannelEvent event) {
+    eventQueue.add(event);
+
+    // The thread itself processes the queue before selecting again
+    if (Thread.currentThread() == thread || !wakeupPending.compareAndSet(false, true)) {
+      return;
+    }
+
+    Selector current = selector;
+
+    if (current != null) {
+      current.wakeup();
+    }
+  }
+
+  /**
+   * Accounts for a {@link ChannelEventRegister} which is about to be added to this loop.
+   */
+  public void assign() {
+    pending.incrementAndGet();
+  }
+
+  /**
+   * Returns the number of channels registered or about to be registered at this loop.
+   */
+  public int getLoad() {
+    return registered + pending.get();
+  }
+
+  @Override
+  public void run() {
+    int readyChannels = 0;
+    ChannelEvent event;
+
+    while (!thread.isInterrupted()) {
+      // Events added from now on wake up the selector again
+      wakeupPending.set(false);
+      int registrations = 0;
+
+      while ((event = eventQueue.poll()) != null) {
+        event.process(selector);
+
+        if (event instanceof ChannelEventRegister) {
+          registrations++;
+        }
+      }
+
+      // Cancelled keys are removed from the key set by the next selection operation.
+      // Registrations which are still queued stay pending.
+      registered = selector.keys().size();
+      pending.addAndGet(-registrations);
+
+      try {
+        // Returns when an event is added or the thread is interrupted
+        readyChannels = selector.select();
+      } catch (IOException e) {
+        logger.log(Level.WARNING, "Error occurred during selection operation: " + e.getMessage());
+        thread.interrupt();
+        continue;
+      }
+
+      if (readyChannels == 0) {
+        continue;
+      }
+
+      Set<SelectionKey> selectedKeys = selector.selectedKeys();
+      Iterator<SelectionKey> keyIterator = selectedKeys.iterator();
+
+      while (keyIterator.hasNext()) {
+        SelectionKey key = keyIterator.next();
+
+        if (key.isValid() && key.isAcceptable()) {
+          ServerSocketChannel server = (ServerSocketChannel) key.attachment();
+          try {
+            SocketChannel client = server.accept();
+            client.configureBlocking(false);
+            MessageChannel channel = new MessageChannel(client, manager);
+            listener.channelOpened(channel);
+          } catch (IOException e) {
+            logger.log(Level.WARNING,
+                "Caught exception while accepting connection: " + e.getMessage());
+          }
+
+        } else {
+          MessageChannel channel = (MessageChannel) key.attachment();
+
+          if (key.isValid() && key.isConnectable()) {
+            try {
+              // unregister channel
+              key.interestOps(0);
+
+              if (channel.getChannel().finishConnect()) {
+                listener.channelOpened(channel);
+              } else {
+                key.cancel();
+                listener.channelClosed(channel);
+              }
+            } catch (IOException ioe) {
+              logger.log(Level.WARNING,
+                  "Caught exception while handling connectable channel: " + ioe.getMessage());
+              key.cancel();
+              listener.channelClosed(channel);
+            }
+          }
+
+          if (key.isValid() && key.isReadable()) {
+            channel.read();
+          }
+
+          if (key.isValid() && key.isWritable()) {
+            channel.write();
+          }
+        }
+
+        keyIterator.remove();
+      }
+
+    }
+
+  }
+
+  private void closeChannels() throws IOException {
+    if (selector != null) {
+      // Close all connections
+      for (SelectionKey key : selector.keys()) {
+        SelectableChannel channel = key.channel();
+        try {
+          if (channel instanceof SocketChannel) {
+            logger.log(Level.INFO, "Closing SocketChannel");
+            ((SocketChannel) channel).close();
+          }
+
+          if (channel instanceof ServerSocketChannel) {
+            logger.log(Level.INFO, "Closing ServerSocketChannel");
+            ((ServerSocketChannel) channel).close();
+          }
+        } catch (IOException ioe) {
+          logger.log(Level.INFO, "Failed to close channel");
+        }
+      }
+
+      selector.close();
+    }
+  }
+}
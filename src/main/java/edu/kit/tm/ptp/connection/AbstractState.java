@@ -4,6 +4,8 @@ import edu.kit.tm.ptp.Identifier;
 import edu.kit.tm.ptp.channels.MessageChannel;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
 import java.util.logging.Level;
 
 /**
@@ -74,15 +76,37 @@ public abstract class AbstractState {
     }
 
     Identifier identifier = manager.channelMap.get(channel);
+    StripeGroup group = context.getStripeGroup();
+
+    if (group != null && group.contains(channel)) {
+      // Messages written to this connection may be missing, so the group can't be used anymore
+      for (MessageChannel stripe : group.close()) {
+        if (!stripe.equals(channel)) {
+          manager.channelClosed(stripe);
+        }
+      }
+
+      if (manager.stripeGroups.get(group.getIdentifier()) == group) {
+        manager.stripeGroups.remove(group.getIdentifier());
+      }
+    }
 
     if (identifier != null) {
-      for (MessageAttempt attempt : manager.dispatchedMessages.values()) {
+      Iterator<MessageAttempt> iterator = manager.dispatchedMessages.values().iterator();
+
+      while (iterator.hasNext()) {
+        MessageAttempt attempt = iterator.next();
+
         if (channel.equals(attempt.getDispatchedChannel())) {
+          // Pending messages are ordered by id so the message is sent before later ones
+          iterator.remove();
           attempt.setDispatchedChannel(null);
-          manager.eventQueue.add(new EventSendMessage(manager, attempt));
-          manager.semaphore.release();
+          manager.addPending(attempt);
         }
       }
+
+      manager.eventQueue.add(new EventSendPending(manager, identifier));
+      manager.semaphore.release();
       
       MessageChannel registeredChannel = manager.identifierMap.get(identifier);
 
@@ -104,9 +128,10 @@ public abstract class AbstractState {
    * Gets called when a message was received.
    *
    * @param data The message.
+   * @param type The type of the message.
    * @param source The channel that received the message.
    */
-  public void messageReceived(byte[] data, MessageChannel source) {
+  public void messageReceived(ByteBuffer data, int type, MessageChannel source) {
     throw new IllegalStateException();
   }
 
@@ -0,0 +1,117 @@
+package edu.kit.tm.ptp.connection;
+
+import edu.kit.tm.ptp.Identifier;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Decides when to try to connect to a destination again.
+ * The interval between two attempts doubles with every attempt up to a maximum
+ * and starts over once a connection has been established successfully.
+ * Each interval is randomized by a jitter so attempts to several destinations spread out.
+ *
+ * @author Timon Hackenjos
+ */
+public class ConnectBackoff {
+  private static final class Attempts {
+    public int count;
+    public long nextTry;
+  }
+
+  private final Map<Identifier, Attempts> attempts = new HashMap<>();
+  private final Random random = new Random();
+  private final long initialInterval;
+  private final long maxInterval;
+  private final int jitter;
+
+  /**
+   * Constructs a new ConnectBackoff.
+   *
+   * @param initialInterval The time (in milliseconds) to wait after the first attempt.
+   * @param maxInterval The maximum time (in milliseconds) to wait between two attempts.
+   * @param jitter The maximum deviation of an interval in percent.
+   */
+  public ConnectBackoff(long initialInterval, long maxInterval, int jitter) {
+    if (initialInterval < 0 || maxInterval < initialInterval || jitter < 0 || jitter > 100) {
+      throw new IllegalArgumentException();
+    }
+
+    this.initialInterval = initialInterval;
+    this.maxInterval = maxInterval;
+    this.jitter = jitter;
+  }
+
+  /**
+   * Returns the time (in milliseconds) until the next attempt to connect to the destination
+   * is allowed or 0 if it is allowed now.
+   */
+  public long getDelay(Identifier destination, long now) {
+    Attempts entry = attempts.get(destination);
+
+    if (entry == null) {
+      return 0;
+    }
+
+    return Math.max(0, entry.nextTry - now);
+  }
+
+  /**
+   * Records an attempt to connect to the destination.
+   *
+   * @return The time (in milliseconds) until the next attempt is allowed.
+   */
+  public long attempt(Identifier destination, long now) {
+    Attempts entry = attempts.get(destination);
+
+    if (entry == null) {
+      entry = new Attempts();
+      attempts.put(destination, entry);
+    }
+
+    entry.count++;
+
+    // Avoid overflows, the maximum is reached long before
+    long interval = initialInterval << Math.min(entry.count - 1, 30);
+    interval = Math.min(maxInterval, interval);
+
+    if (jitter > 0) {
+      double deviation = (2 * random.nextDouble() - 1) * jitter / 100;
+      interval = Math.min(maxInterval, Math.round(interval * (1 + deviation)));
+    }
+
+    entry.nextTry = now + interval;
+
+    return interval;
+  }
+
+  /**
+   * Forgets the attempts to connect to the destination after a successful connection.
+   */
+  public void reset(Identifier destination) {
+    attempts.remove(destination);
+  }
+
+  /**
+   * Forgets destinations which haven't been tried again for longer than the maximum interval
+   * after their last interval passed.
+   */
+  public void prune(long now) {
+    Iterator<Attempts> it = attempts.values().iterator();
+
+    while (it.hasNext()) {
+      if (now - it.next().nextTry > maxInterval) {
+        it.remove();
+      }
+    }
+  }
+
+  /**
+   * Returns the number of destinations with recorded attempts.
+   */
+  public int size() {
+    return attempts.size();
+  }
+}
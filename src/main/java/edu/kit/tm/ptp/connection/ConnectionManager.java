@@ -4,26 +4,34 @@ import edu.kit.tm.ptp.*;
 import edu.kit.tm.ptp.auth.AuthenticationListener;
 import edu.kit.tm.ptp.auth.AuthenticatorFactory;
 import edu.kit.tm.ptp.auth.PublicKeyAuthenticatorFactory;
+import edu.kit.tm.ptp.channels.BufferPool;
 import edu.kit.tm.ptp.channels.ChannelListener;
 import edu.kit.tm.ptp.channels.ChannelManager;
 import edu.kit.tm.ptp.channels.MessageChannel;
 import edu.kit.tm.ptp.crypt.CryptHelper;
-import edu.kit.tm.ptp.thread.Waker;
 import edu.kit.tm.ptp.utility.Constants;
 
 import java.io.File;
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.NavigableMap;
+import java.util.PriorityQueue;
 import java.util.Queue;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -34,19 +42,32 @@ import java.util.logging.Logger;
  * @author Timon Hackenjos
  */
 public class ConnectionManager implements Runnable, ChannelListener, AuthenticationListener,
-    TorManager.SOCKSProxyListener {
+    TorManager.SOCKSProxyListener, ExpireListener {
+  /** The interval in milliseconds at which the timer to retry sending messages is updated. */
+  private static final int timerStep = 10;
+  private static final int RETRYTIMERCLASS = 0;
+  private static final int DEADLINETIMERCLASS = 1;
+  private static final int CONNECTTIMERCLASS = 2;
   private final Thread thread;
   private final AtomicLong messageId = new AtomicLong(0);
   private final int sendMessageRetryInterval;
 
   protected final Semaphore semaphore = new Semaphore(0);
-  private final Waker waker;
+  private final TimerManager timerManager;
 
   protected final int hsPort;
   protected final SendListener sendListener;
-  protected final ReceiveListener receiveListener;
+  protected final FrameListener receiveListener;
   protected final Logger logger = Logger.getLogger(ConnectionManager.class.getName());
-  protected final int connectRetryInterval;
+  protected final ConnectBackoff connectBackoff;
+  /** Size and number of messages which haven't been sent or dropped yet. */
+  protected final OutboundLimit outboundLimit;
+  private final Configuration.PendingLimitPolicy pendingLimitPolicy;
+  /** Minimum size of messages to compress or 0 if compression is disabled. */
+  private final int compressionThreshold;
+  /** Number of connections opened to each destination. */
+  protected final int connectionStripes;
+  protected final int maxHeldBytesPerStripe;
 
   protected final ChannelManager channelManager;
   protected final AuthenticatorFactory authFactory;
@@ -55,14 +76,32 @@ public class ConnectionManager implements Runnable, ChannelListener, Authenticat
   protected final Map<Identifier, MessageChannel> identifierMap = new HashMap<>();
   protected final Map<MessageChannel, Identifier> channelMap = new HashMap<>();
   protected final Map<MessageChannel, Context> channelContexts = new HashMap<>();
-  protected final Map<Identifier, Long> lastTry = new HashMap<>();
   /** Messages which have already been dispatched to a channel. */
   protected final Map<Long, MessageAttempt> dispatchedMessages = new HashMap<>();
+  /** Groups of connections to destinations which have been opened in parallel. */
+  protected final Map<Identifier, StripeGroup> stripeGroups = new HashMap<>();
+  /** Messages which couldn't be dispatched yet ordered by their ids. */
+  protected final Map<Identifier, NavigableMap<Long, MessageAttempt>> pendingMessages =
+      new HashMap<>();
+  /** Pending messages with a timeout ordered by their deadlines. */
+  private final Queue<MessageAttempt> deadlines =
+      new PriorityQueue<>(11, new Comparator<MessageAttempt>() {
+        @Override
+        public int compare(MessageAttempt a1, MessageAttempt a2) {
+          int result = Long.compare(a1.getDeadline(), a2.getDeadline());
+          // Report messages with the same deadline in the order they have been sent
+          return result != 0 ? result : Long.compare(a1.getId(), a2.getId());
+        }
+      });
   protected final Queue<Event> eventQueue = new ConcurrentLinkedQueue<>();
 
   protected String socksHost = null;
   protected int socksPort = -1;
   protected Identifier localIdentifier = null;
+  /** Time at which all pending messages are tried again. */
+  private long nextRetry = 0;
+  /** The deadline the timer has been set for. */
+  private long scheduledDeadline = -1;
 
   /**
    * Construct a new ConnectionManager.
@@ -71,8 +110,8 @@ public class ConnectionManager implements Runnable, ChannelListener, Authenticat
    * @param receiveListener The listener to inform about received messages.
    * @param sendListener The listener to inform about sent messages.
    */
-  public ConnectionManager(int hsPort, ReceiveListener receiveListener, SendListener sendListener,
-                           Configuration config) {
+  public ConnectionManager(int hsPort, FrameListener receiveListener,
+                           SendListener sendListener, Configuration config) {
     this (hsPort, receiveListener, sendListener, config, null, new PublicKeyAuthenticatorFactory());
   }
 
@@ -84,8 +123,8 @@ public class ConnectionManager implements Runnable, ChannelListener, Authenticat
    * @param sendListener The listener to inform about sent messages.
    * @param group The ThreadGroup to start threads in or null.
    */
-  public ConnectionManager(int hsPort, ReceiveListener receiveListener, SendListener sendListener,
-                           Configuration config, ThreadGroup group) {
+  public ConnectionManager(int hsPort, FrameListener receiveListener,
+                           SendListener sendListener, Configuration config, ThreadGroup group) {
     this (hsPort, receiveListener, sendListener, config, group, new PublicKeyAuthenticatorFactory());
   }
 
@@ -96,8 +135,9 @@ public class ConnectionManager implements Runnable, ChannelListener, Authenticat
    * @param receiveListener The listener to inform about received messages.
    * @param sendListener The listener to inform about sent messages.
    */
-  public ConnectionManager(int hsPort, ReceiveListener receiveListener, SendListener sendListener,
-                           Configuration config, AuthenticatorFactory authFactory) {
+  public ConnectionManager(int hsPort, FrameListener receiveListener,
+                           SendListener sendListener, Configuration config,
+                           AuthenticatorFactory authFactory) {
     this (hsPort, receiveListener, sendListener, config, null, authFactory);
   }
 
@@ -105,8 +145,9 @@ public class ConnectionManager implements Runnable, ChannelListener, Authenticat
    * Allows to set the used authentication method by supplying a factory
    * to create authenticator objects.
    */
-  public ConnectionManager(int hsPort, ReceiveListener receiveListener, SendListener sendListener,
-                           Configuration config, ThreadGroup group, AuthenticatorFactory authFactory) {
+  public ConnectionManager(int hsPort, FrameListener receiveListener,
+                           SendListener sendListener, Configuration config, ThreadGroup group,
+                           AuthenticatorFactory authFactory) {
     if (receiveListener == null || sendListener == null || authFactory == null) {
       throw new IllegalArgumentException();
     }
@@ -115,17 +156,60 @@ public class ConnectionManager implements Runnable, ChannelListener, Authenticat
     this.receiveListener = receiveListener;
     this.sendListener = sendListener;
     this.authFactory = authFactory;
-    this.channelManager = new ChannelManager(this, group);
-    this.waker = new Waker(semaphore, group);
+    this.timerManager = new TimerManager(this, timerStep, group);
     this.thread = new Thread(group, this);
 
+    int connectRetryInterval;
+    int maxConnectRetryInterval;
+    int connectRetryJitter;
+    int maxPooledMessageSize;
+    boolean directReceiveBuffers;
+    int selectorThreads;
+    int maxPendingBytes;
+    int maxPendingMessages;
+    int maxPendingBytesPerDestination;
+    int maxPendingMessagesPerDestination;
+
     if (config == null) {
-      this.connectRetryInterval = Configuration.DEFAULT_CONNECTRETRYINTERVAL;
+      connectRetryInterval = Configuration.DEFAULT_CONNECTRETRYINTERVAL;
+      maxConnectRetryInterval = Configuration.DEFAULT_MAXCONNECTRETRYINTERVAL;
+      connectRetryJitter = Configuration.DEFAULT_CONNECTRETRYJITTER;
       this.sendMessageRetryInterval = Configuration.DEFAULT_MESSAGESENDRETRYINTERVAL;
+      maxPooledMessageSize = Configuration.DEFAULT_MAXPOOLEDMESSAGESIZE;
+      directReceiveBuffers = Configuration.DEFAULT_DIRECTRECEIVEBUFFERS;
+      selectorThreads = Configuration.DEFAULT_SELECTORTHREADS;
+      maxPendingBytes = Configuration.DEFAULT_MAXPENDINGBYTES;
+      maxPendingMessages = Configuration.DEFAULT_MAXPENDINGMESSAGES;
+      maxPendingBytesPerDestination = Configuration.DEFAULT_MAXPENDINGBYTESPERDESTINATION;
+      maxPendingMessagesPerDestination = Configuration.DEFAULT_MAXPENDINGMESSAGESPERDESTINATION;
+      this.pendingLimitPolicy = Configuration.DEFAULT_PENDINGLIMITPOLICY;
+      this.compressionThreshold = Configuration.DEFAULT_COMPRESSIONTHRESHOLD;
+      this.connectionStripes = Configuration.DEFAULT_CONNECTIONSTRIPES;
+      this.maxHeldBytesPerStripe = Configuration.DEFAULT_MAXHELDBYTESPERSTRIPE;
     } else {
-      this.connectRetryInterval = config.getConnectRetryInterval();
+      connectRetryInterval = config.getConnectRetryInterval();
+      maxConnectRetryInterval = config.getMaxConnectRetryInterval();
+      connectRetryJitter = config.getConnectRetryJitter();
       this.sendMessageRetryInterval = config.getMessageSendRetryInterval();
+      maxPooledMessageSize = config.getMaxPooledMessageSize();
+      directReceiveBuffers = config.getDirectReceiveBuffers();
+      selectorThreads = config.getSelectorThreads();
+      maxPendingBytes = config.getMaxPendingBytes();
+      maxPendingMessages = config.getMaxPendingMessages();
+      maxPendingBytesPerDestination = config.getMaxPendingBytesPerDestination();
+      maxPendingMessagesPerDestination = config.getMaxPendingMessagesPerDestination();
+      this.pendingLimitPolicy = config.getPendingLimitPolicy();
+      this.compressionThreshold = config.getCompressionThreshold();
+      this.connectionStripes = config.getConnectionStripes();
+      this.maxHeldBytesPerStripe = config.getMaxHeldBytesPerStripe();
     }
+
+    this.channelManager = new ChannelManager(this, group,
+        new BufferPool(maxPooledMessageSize, directReceiveBuffers), selectorThreads);
+    this.connectBackoff = new ConnectBackoff(connectRetryInterval,
+        Math.max(connectRetryInterval, maxConnectRetryInterval), connectRetryJitter);
+    this.outboundLimit = new OutboundLimit(maxPendingBytes, maxPendingMessages,
+        maxPendingBytesPerDestination, maxPendingMessagesPerDestination);
   }
   
   @Override
@@ -151,7 +235,7 @@ public class ConnectionManager implements Runnable, ChannelListener, Authenticat
     logger.log(Level.INFO, "Starting ConnectionManager");
     thread.start();
     channelManager.start();
-    waker.start();
+    timerManager.start();
     logger.log(Level.INFO, "ConnectionManager started");
   }
 
@@ -161,6 +245,8 @@ public class ConnectionManager implements Runnable, ChannelListener, Authenticat
   public void stop() {
     logger.log(Level.INFO, "Stopping ConnectionManager");
 
+    // Wake up threads waiting to send a message
+    outboundLimit.close();
     thread.interrupt();
     semaphore.release();
 
@@ -180,9 +266,9 @@ public class ConnectionManager implements Runnable, ChannelListener, Authenticat
 
     channelManager.stop();
 
-    logger.log(Level.INFO, "Stopping waker");
+    logger.log(Level.INFO, "Stopping timer manager");
 
-    waker.stop();
+    timerManager.stop();
 
     logger.log(Level.INFO, "ConnectionManager stopped");
   }
@@ -219,18 +305,180 @@ public class ConnectionManager implements Runnable, ChannelListener, Authenticat
   }
 
   public long send(byte[] data, Identifier destination, long timeout, boolean informSendListener) {
+    return send(data, MessageChannel.TYPE_MESSAGE, destination, timeout, informSendListener);
+  }
+
+  /**
+   * Sends a message of the supplied type to the specified destination.
+   *
+   * @param data The bytes to send.
+   * @param type The type of the message.
+   * @param destination The destination to send to.
+   * @param timeout How long to wait for a successful sending.
+   * @param informSendListener True to inform the SendListener about the result.
+   * @return Identifier for the message.
+   * @see MessageChannel#addMessage(byte[], int, long)
+   */
+  public long send(byte[] data, int type, Identifier destination, long timeout,
+                   boolean informSendListener) {
+    return send(data, type, MessageChannel.PRIORITY_NORMAL, destination, timeout,
+        informSendListener);
+  }
+
+  /**
+   * Sends a message of the supplied type and priority to the specified destination.
+   *
+   * @see #send(byte[], int, Identifier, long, boolean)
+   * @see MessageChannel#addMessage(byte[], int, int, long)
+   */
+  public long send(byte[] data, int type, int priority, Identifier destination, long timeout,
+                   boolean informSendListener) {
     long id = messageId.getAndIncrement();
     MessageAttempt attempt = new MessageAttempt(id, System.currentTimeMillis(), data, timeout,
         destination, informSendListener);
+    attempt.setType(type);
+    attempt.setPriority(priority);
+
+    return send(attempt);
+  }
+
+  /**
+   * Sends a message which consists of the supplied header followed by a region of a file
+   * to the specified destination.
+   *
+   * @param header The bytes to send before the file region.
+   * @param file The file to send the region of.
+   * @param position The position of the region within the file.
+   * @param count The length of the region.
+   * @param type The type of the message.
+   * @param destination The destination to send to.
+   * @param timeout How long to wait for a successful sending.
+   * @return Identifier for the message.
+   * @see MessageChannel#addMessage(byte[], FileChannel, long, int, int, long)
+   */
+  public long send(byte[] header, FileChannel file, long position, int count, int type,
+                   Identifier destination, long timeout) {
+    long id = messageId.getAndIncrement();
+    MessageAttempt attempt = new MessageAttempt(id, System.currentTimeMillis(), header, timeout,
+        destination, true);
+    attempt.setType(type);
+    attempt.setFileRegion(file, position, count);
+
+    return send(attempt);
+  }
+
+  /**
+   * Sends a message of the application to the specified destination.
+   * Applies the configured policy if a limit of pending messages is reached.
+   * Messages sent by the thread of the ConnectionManager are never blocked.
+   *
+   * @param data The bytes to send.
+   * @param type The type of the message.
+   * @param destination The destination to send to.
+   * @param timeout How long to wait for a successful sending.
+   * @return Identifier for the message or -1 if the message hasn't been accepted.
+   * @throws IllegalStateException If a limit is reached and the policy is to fail.
+   * @see Configuration#getPendingLimitPolicy()
+   */
+  public long sendLimited(byte[] data, int type, Identifier destination, long timeout) {
+    return sendLimited(newMessageId(), data, type, destination, timeout);
+  }
+
+  /**
+   * Sends a message of the application using an identifier returned by
+   * {@link #newMessageId()} before. Allows to keep track of the message before the
+   * SendListener may be informed about it.
+   *
+   * @see #sendLimited(byte[], int, Identifier, long)
+   */
+  public long sendLimited(long id, byte[] data, int type, Identifier destination,
+                          long timeout) {
+    return sendLimited(id, data, type, MessageChannel.PRIORITY_NORMAL, destination, timeout);
+  }
+
+  /**
+   * Sends a message of the application with the supplied priority.
+   *
+   * @see #sendLimited(long, byte[], int, Identifier, long)
+   * @see MessageChannel#addMessage(byte[], int, int, long)
+   */
+  public long sendLimited(long id, byte[] data, int type, int priority,
+                          Identifier destination, long timeout) {
+    MessageAttempt attempt = new MessageAttempt(id, System.currentTimeMillis(), data, timeout,
+        destination, true);
+    attempt.setType(type);
+    attempt.setPriority(priority);
+    checkLength(attempt);
+
+    boolean accepted;
+
+    switch (pendingLimitPolicy) {
+      case BLOCK:
+        if (Thread.currentThread() == thread) {
+          // Only this thread releases pending messages
+          outboundLimit.forceAcquire(destination, data.length);
+          accepted = true;
+          break;
+        }
+
+        try {
+          accepted = outboundLimit.acquire(destination, data.length);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          accepted = false;
+        }
+        break;
+      case FAIL:
+        if (!outboundLimit.tryAcquire(destination, data.length)) {
+          throw new IllegalStateException("Limit of pending messages reached");
+        }
+        accepted = true;
+        break;
+      default:
+        accepted = outboundLimit.tryAcquire(destination, data.length);
+        break;
+    }
+
+    if (!accepted) {
+      logger.log(Level.INFO, "Message to " + destination + " hasn't been accepted");
+      return -1;
+    }
+
+    return enqueue(attempt);
+  }
+
+  /**
+   * Returns a new identifier for a message.
+   */
+  public long newMessageId() {
+    return messageId.getAndIncrement();
+  }
+
+  private long send(MessageAttempt attempt) {
+    checkLength(attempt);
+    // Messages of PTP itself are accounted for but never refused
+    outboundLimit.forceAcquire(attempt.getDestination(), attempt.getData().length);
+
+    return enqueue(attempt);
+  }
+
+  private void checkLength(MessageAttempt attempt) {
+    if ((long) attempt.getData().length + attempt.getFileCount()
+        > MessageChannel.maxBufferLength) {
+      throw new IllegalArgumentException("Message exceeds maximum length");
+    }
+  }
 
+  private long enqueue(MessageAttempt attempt) {
     eventQueue.add(new EventSendMessage(this, attempt));
 
-    logger.log(Level.INFO, "Assigned id " + id + " to message attempt for identifier " + destination
-        + " with size " + data.length + " bytes");
+    logger.log(Level.INFO, "Assigned id " + attempt.getId() + " to message attempt for identifier "
+        + attempt.getDestination() + " with size "
+        + (attempt.getData().length + attempt.getFileCount()) + " bytes");
 
     semaphore.release();
 
-    return id;
+    return attempt.getId();
   }
 
 
@@ -283,10 +531,9 @@ public class ConnectionManager implements Runnable, ChannelListener, Authenticat
   }
 
   @Override
-  public void messageReceived(byte[] data, MessageChannel source) {
-    // data doesn't need to be copied because MessageChannels
-    // use a new buffer for each message
-    eventQueue.add(new EventMessageReceived(this, data, source));
+  public void messageReceived(ByteBuffer data, int type, MessageChannel source) {
+    // The buffer is handed back to the channel after the event has been processed
+    eventQueue.add(new EventMessageReceived(this, data, type, source));
     semaphore.release();
   }
 
@@ -302,6 +549,17 @@ public class ConnectionManager implements Runnable, ChannelListener, Authenticat
     semaphore.release();
   }
 
+  @Override
+  public void expired(Identifier identifier, int timerClass) {
+    if (timerClass == CONNECTTIMERCLASS) {
+      // Another connection attempt to the destination is allowed
+      eventQueue.add(new EventSendPending(this, identifier));
+    }
+
+    // Wake the thread to retry sending pending messages
+    semaphore.release();
+  }
+
   @Override
   public void authenticationSuccess(MessageChannel channel, Identifier identifier) {
     authenticationFinished(channel, identifier);
@@ -333,13 +591,234 @@ public class ConnectionManager implements Runnable, ChannelListener, Authenticat
     return channel;
   }
 
+  /**
+   * Tries to dispatch a message to a channel.
+   * Reports invalid destinations and expired messages to the SendListener.
+   *
+   * @return False if the message should be tried again later.
+   */
+  protected boolean dispatch(MessageAttempt attempt) {
+    Identifier identifier = attempt.getDestination();
+
+    // Check if identifier is valid
+    if (!identifier.isValid()) {
+      finished(attempt);
+      sendListener.messageSent(attempt.getId(), identifier,
+          SendListener.State.INVALID_DESTINATION);
+      return true;
+    }
+
+    if (expire(attempt)) {
+      return true;
+    }
+
+    MessageChannel channel = identifierMap.get(identifier);
+    Context context = channelContexts.get(channel);
+
+    if (context == null) {
+      // No channel exists for the destination yet
+      context = new Context(this);
+    }
+
+    return context.sendMessage(attempt);
+  }
+
+  /**
+   * Opens a new connection to the destination unless the last attempt was too recent.
+   *
+   * @return The new channel or null if no connection attempt was made.
+   */
+  protected MessageChannel tryConnect(Identifier destination) throws IOException {
+    long now = System.currentTimeMillis();
+
+    if (connectBackoff.getDelay(destination, now) > 0) {
+      return null;
+    }
+
+    long delay = connectBackoff.attempt(destination, now);
+    // Try again if the connection attempt failed until then
+    timerManager.setTimer(destination, (int) Math.min(Integer.MAX_VALUE, delay),
+        CONNECTTIMERCLASS);
+
+    return connect(destination);
+  }
+
+  /**
+   * Creates a group for the connections to the destination if several connections should be
+   * opened to it.
+   *
+   * @return The group or null if a single connection is used.
+   */
+  protected StripeGroup newStripeGroup(Identifier destination) {
+    if (connectionStripes <= 1 || destination.equals(localIdentifier)) {
+      return null;
+    }
+
+    long id;
+
+    do {
+      id = ThreadLocalRandom.current().nextLong();
+    } while (id == 0);
+
+    return new StripeGroup(id, destination, receiveListener, maxHeldBytesPerStripe);
+  }
+
+  /**
+   * Opens the remaining connections of a group after its first connection has been
+   * authenticated. Each connection uses a separate Tor circuit.
+   */
+  protected void connectStripes(Identifier destination, StripeGroup group) {
+    for (int i = 1; i < connectionStripes; i++) {
+      try {
+        MessageChannel channel = connect(destination);
+        Context context = new Context(this);
+        context.setStripe(group, i);
+        context.setState(context.getConcreteConnect());
+
+        channelMap.put(channel, destination);
+        channelContexts.put(channel, context);
+      } catch (IOException e) {
+        logger.log(Level.WARNING, "Failed to open additional connection to " + destination
+            + ": " + e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Starts over with the connection attempts to the destination after a successful connection.
+   */
+  protected void connected(Identifier destination) {
+    connectBackoff.reset(destination);
+    timerManager.remove(destination, CONNECTTIMERCLASS);
+  }
+
+  /**
+   * Adds a message to the pending messages of its destination.
+   * Pending messages are ordered by their ids.
+   */
+  protected void addPending(MessageAttempt attempt) {
+    Identifier destination = attempt.getDestination();
+    NavigableMap<Long, MessageAttempt> pending = pendingMessages.get(destination);
+
+    if (pending == null) {
+      if (pendingMessages.isEmpty()) {
+        nextRetry = System.currentTimeMillis() + sendMessageRetryInterval;
+      }
+
+      pending = new TreeMap<>();
+      pendingMessages.put(destination, pending);
+    }
+
+    pending.put(attempt.getId(), attempt);
+
+    if (attempt.getTimeout() != -1) {
+      deadlines.add(attempt);
+    }
+  }
+
+  /**
+   * Tries to dispatch the pending messages of a destination in order.
+   * Stops at the first message which can't be dispatched.
+   */
+  protected void sendPending(Identifier destination) {
+    NavigableMap<Long, MessageAttempt> pending = pendingMessages.get(destination);
+
+    if (pending == null) {
+      return;
+    }
+
+    Map.Entry<Long, MessageAttempt> entry;
+
+    while ((entry = pending.firstEntry()) != null && dispatch(entry.getValue())) {
+      MessageAttempt attempt = pending.pollFirstEntry().getValue();
+
+      if (attempt.getTimeout() != -1) {
+        // Don't keep the content of dispatched messages until their deadline
+        deadlines.remove(attempt);
+      }
+    }
+
+    if (pending.isEmpty()) {
+      pendingMessages.remove(destination);
+    }
+  }
+
+  /**
+   * Tries to dispatch the pending messages of all destinations.
+   */
+  protected void sendPending() {
+    for (Identifier destination : new ArrayList<>(pendingMessages.keySet())) {
+      sendPending(destination);
+    }
+  }
+
+  /**
+   * Drops pending messages whose deadline has passed and informs the SendListener.
+   * Schedules a timer for the next deadline.
+   */
+  private void expirePending() {
+    long now = System.currentTimeMillis();
+    MessageAttempt attempt;
+
+    while ((attempt = deadlines.peek()) != null && attempt.getDeadline() <= now) {
+      deadlines.poll();
+
+      NavigableMap<Long, MessageAttempt> pending = pendingMessages.get(attempt.getDestination());
+
+      if (pending == null || pending.get(attempt.getId()) != attempt) {
+        continue;
+      }
+
+      pending.remove(attempt.getId());
+
+      if (pending.isEmpty()) {
+        pendingMessages.remove(attempt.getDestination());
+      }
+
+      expire(attempt);
+    }
+
+    if (attempt != null && attempt.getDeadline() != scheduledDeadline) {
+      scheduledDeadline = attempt.getDeadline();
+      timerManager.setTimer(null, (int) Math.min(Integer.MAX_VALUE, scheduledDeadline - now),
+          DEADLINETIMERCLASS);
+    }
+  }
+
+  /**
+   * Informs the SendListener if the message timed out.
+   *
+   * @return True if the message timed out.
+   */
+  private boolean expire(MessageAttempt attempt) {
+    if (attempt.getTimeout() == -1
+        || System.currentTimeMillis() - attempt.getSendTimestamp() < attempt.getTimeout()) {
+      return false;
+    }
+
+    finished(attempt);
+
+    if (attempt.isInformSendListener()) {
+      sendListener.messageSent(attempt.getId(), attempt.getDestination(),
+          SendListener.State.TIMEOUT);
+    }
+
+    return true;
+  }
+
+  /**
+   * Releases a message which has been sent or dropped from the limit of pending messages.
+   */
+  protected void finished(MessageAttempt attempt) {
+    outboundLimit.release(attempt.getDestination(), attempt.getData().length);
+  }
+
   @Override
   public void run() {
     logger.log(Level.INFO, "ConnectionManager thread is running");
 
     Iterator<Event> it;
     Event event;
-    long unprocessed;
 
     while (!thread.isInterrupted()) {
 
@@ -348,24 +827,36 @@ public class ConnectionManager implements Runnable, ChannelListener, Authenticat
         semaphore.drainPermits();
 
         it = eventQueue.iterator();
-        unprocessed = 0;
 
         while (it.hasNext()) {
           event = it.next();
 
           if (event.process()) {
             it.remove();
-          } else {
-            unprocessed++;
           }
         }
 
-        // Only EventSendMessage returns false
-        // unprocessed = messages in queue
-        if (unprocessed > 0) {
-          logger.log(Level.INFO, unprocessed + " unsent message(s) in queue");
+        expirePending();
+
+        if (pendingMessages.isEmpty()) {
+          continue;
+        }
+
+        long now = System.currentTimeMillis();
+
+        // Pending messages are only revisited when their destination changes
+        // or the retry interval has passed
+        if (now >= nextRetry) {
+          sendPending();
+          connectBackoff.prune(now);
+          nextRetry = now + sendMessageRetryInterval;
+        }
+
+        if (!pendingMessages.isEmpty()) {
+          logger.log(Level.INFO, "Unsent message(s) to " + pendingMessages.size()
+              + " destination(s) pending");
           // Wake thread after some time
-          waker.wake(sendMessageRetryInterval);
+          timerManager.setTimerIfNoneExists(null, (int) (nextRetry - now), RETRYTIMERCLASS);
         }
 
       } catch (InterruptedException ie) {
@@ -379,4 +870,18 @@ public class ConnectionManager implements Runnable, ChannelListener, Authenticat
   public CryptHelper getCryptHelper() {
     return cryptHelper;
   }
+
+  /**
+   * Returns the minimum size of messages to compress or 0 if compression is disabled.
+   */
+  public int getCompressionThreshold() {
+    return compressionThreshold;
+  }
+
+  /**
+   * Returns the pool received messages are copied into.
+   */
+  public BufferPool getBufferPool() {
+    return channelManager.getBufferPool();
+  }
 }
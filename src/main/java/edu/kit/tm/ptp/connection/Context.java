@@ -3,6 +3,8 @@ package edu.kit.tm.ptp.connection;
 import edu.kit.tm.ptp.Identifier;
 import edu.kit.tm.ptp.channels.MessageChannel;
 
+import java.nio.ByteBuffer;
+
 /**
  * Manages the current state of a MessageChannel.
  * Part of the state pattern.
@@ -20,6 +22,10 @@ public class Context {
   private AbstractState concreteAuthenticated;
   private AbstractState concreteClosed;
   private ConnectionManager manager;
+  /** The group of connections the channel belongs to or null. */
+  private StripeGroup stripeGroup = null;
+  /** The index of the channel within its group. */
+  private int stripe = 0;
   
   /**
    * Contructs a new ChannelContext.
@@ -63,8 +69,8 @@ public class Context {
     return state.sendMessage(attempt);
   }
 
-  public void messageReceived(byte[] data, MessageChannel source) {
-    state.messageReceived(data, source);
+  public void messageReceived(ByteBuffer data, int type, MessageChannel source) {
+    state.messageReceived(data, type, source);
   }
 
   public void messageSent(long id, MessageChannel destination) {
@@ -74,6 +80,25 @@ public class Context {
   public ConnectionManager getConnectionManager() {
     return manager;
   }
+
+  public StripeGroup getStripeGroup() {
+    return stripeGroup;
+  }
+
+  public int getStripe() {
+    return stripe;
+  }
+
+  /**
+   * Sets the group of connections the channel belongs to.
+   *
+   * @param stripeGroup The group or null if the channel doesn't belong to a group.
+   * @param stripe The index of the channel within the group.
+   */
+  public void setStripe(StripeGroup stripeGroup, int stripe) {
+    this.stripeGroup = stripeGroup;
+    this.stripe = stripe;
+  }
   
   public AbstractState getConcreteInit() {
     return concreteInit;
@@ -4,24 +4,29 @@ import edu.kit.tm.ptp.channels.MessageChannel;
 
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 
+import java.nio.ByteBuffer;
 import java.util.logging.Level;
 
 
 /**
  * Class for the event that a message was received.
+ * The buffer containing the message is returned to the channel after processing.
  */
 
 public class EventMessageReceived extends Event {
-  private byte[] data;
+  private ByteBuffer data;
+  private int type;
   private MessageChannel source;
 
   @SuppressFBWarnings(value = "EI_EXPOSE_REP2",
-      justification = "MessageChannel uses a new buffer for each message"
-          + "and doesn't alter them after reception.")
-  public EventMessageReceived(ConnectionManager manager, byte[] data, MessageChannel source) {
+      justification = "MessageChannel doesn't alter the buffer until it is released "
+          + "after processing the event.")
+  public EventMessageReceived(ConnectionManager manager, ByteBuffer data, int type,
+      MessageChannel source) {
     super(manager);
 
     this.data = data;
+    this.type = type;
     this.source = source;
   }
 
@@ -29,11 +34,15 @@ public class EventMessageReceived extends Event {
   public boolean process() {
     Context context = manager.channelContexts.get(source);
 
-    if (context == null) {
-      manager.logger.log(Level.INFO, "Message received but channel is already closed."
-          + "Dropping message.");
-    } else {
-      context.messageReceived(data, source);
+    try {
+      if (context == null) {
+        manager.logger.log(Level.INFO, "Message received but channel is already closed."
+            + "Dropping message.");
+      } else {
+        context.messageReceived(data, type, source);
+      }
+    } finally {
+      source.releaseBuffer(data);
     }
 
     return true;
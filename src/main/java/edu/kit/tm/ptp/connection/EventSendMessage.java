@@ -1,9 +1,5 @@
 package edu.kit.tm.ptp.connection;
 
-import edu.kit.tm.ptp.Identifier;
-import edu.kit.tm.ptp.SendListener;
-import edu.kit.tm.ptp.channels.MessageChannel;
-
 /**
  * Class for the event that a message should be sent.
  */
@@ -19,33 +15,13 @@ public class EventSendMessage extends Event {
 
   @Override
   public boolean process() {
-    Identifier identifier = attempt.getDestination();
-
-    // Check if identifier is valid
-    if (!identifier.isValid()) {
-      manager.sendListener.messageSent(attempt.getId(), identifier,
-          SendListener.State.INVALID_DESTINATION);
-      return true;
-    }
-
-    // Check timeout of message
-    if (attempt.getTimeout() != -1
-        && System.currentTimeMillis() - attempt.getSendTimestamp() >= attempt.getTimeout()) {
-      if (attempt.isInformSendListener()) {
-        manager.sendListener.messageSent(attempt.getId(), attempt.getDestination(),
-            SendListener.State.TIMEOUT);
-      }
-      return true;
-    }
-
-    MessageChannel channel = manager.identifierMap.get(identifier);
-    Context context = manager.channelContexts.get(channel);
-
-    if (context == null) {
-      // No channel exists for the destination yet
-      context = new Context(manager);
+    if (manager.pendingMessages.containsKey(attempt.getDestination())) {
+      // Keep the order of messages to the same destination
+      manager.addPending(attempt);
+    } else if (!manager.dispatch(attempt)) {
+      manager.addPending(attempt);
     }
 
-    return context.sendMessage(attempt);
+    return true;
   }
 }
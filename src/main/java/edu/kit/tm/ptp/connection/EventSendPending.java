@@ -0,0 +1,23 @@
+package edu.kit.tm.ptp.connection;
+
+import edu.kit.tm.ptp.Identifier;
+
+/**
+ * Class for the event that the pending messages to a destination should be tried again.
+ */
+
+public class EventSendPending extends Event {
+  private Identifier destination;
+
+  public EventSendPending(ConnectionManager manager, Identifier destination) {
+    super(manager);
+
+    this.destination = destination;
+  }
+
+  @Override
+  public boolean process() {
+    manager.sendPending(destination);
+    return true;
+  }
+}
@@ -46,6 +46,9 @@ public class EventSetIdentity extends Event {
     manager.localIdentifier = identifier;
     manager.logger.log(Level.INFO, "Set local identifier to " + identifier);
 
+    // Pending messages may have been waiting for this
+    manager.sendPending();
+
     return true;
   }
 }
@@ -20,6 +20,9 @@ public class EventUpdateSOCKS extends Event {
     manager.socksPort = socksPort;
     manager.socksHost = socksHost;
 
+    // Pending messages may have been waiting for this
+    manager.sendPending();
+
     return true;
   }
 }
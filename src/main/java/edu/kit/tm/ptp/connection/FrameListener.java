@@ -0,0 +1,25 @@
+package edu.kit.tm.ptp.connection;
+
+import edu.kit.tm.ptp.Identifier;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Interface to inform about messages received by the ConnectionManager.
+ *
+ * @author Timon Hackenjos
+ */
+public interface FrameListener {
+
+  /**
+   * Indicates that a message was received.
+   * The message is located between the position and the limit of the buffer.
+   * The buffer is reused after the method returns and must not be stored.
+   *
+   * @param data The received message.
+   * @param type The type of the message.
+   * @param source The hidden service identifier of the source of the message.
+   * @see edu.kit.tm.ptp.channels.MessageChannel#TYPE_MESSAGE
+   */
+  void messageReceived(ByteBuffer data, int type, Identifier source);
+}
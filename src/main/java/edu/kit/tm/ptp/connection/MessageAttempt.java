@@ -4,6 +4,8 @@ import edu.kit.tm.ptp.Identifier;
 import edu.kit.tm.ptp.channels.MessageChannel;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 
+import java.nio.channels.FileChannel;
+
 /**
  * An attempt to send a message.
  * 
@@ -19,6 +21,14 @@ public class MessageAttempt {
   private Identifier destination;
   private boolean informSendListener;
   private MessageChannel dispatchedChannel = null;
+  private int type = MessageChannel.TYPE_MESSAGE;
+  private int priority = MessageChannel.PRIORITY_NORMAL;
+  private FileChannel file = null;
+  private long filePosition = 0;
+  private int fileCount = 0;
+  /** The group of connections which assigned the sequence number. */
+  private StripeGroup stripeGroup = null;
+  private long sequence = -1;
 
   /**
    * Constructs a new MessageAttempt.
@@ -78,6 +88,13 @@ public class MessageAttempt {
     this.timeout = timeout;
   }
 
+  /**
+   * Returns the time at which the attempt times out or Long.MAX_VALUE if it doesn't.
+   */
+  public long getDeadline() {
+    return timeout == -1 ? Long.MAX_VALUE : sendTimestamp + timeout;
+  }
+
   public Identifier getDestination() {
     return destination;
   }
@@ -102,6 +119,66 @@ public class MessageAttempt {
     this.dispatchedChannel = dispatchedChannel;
   }
 
+  public int getType() {
+    return type;
+  }
+
+  public void setType(int type) {
+    this.type = type;
+  }
+
+  public int getPriority() {
+    return priority;
+  }
+
+  public void setPriority(int priority) {
+    this.priority = priority;
+  }
+
+  /**
+   * Returns the file to send a region of after the data or null.
+   */
+  public FileChannel getFile() {
+    return file;
+  }
+
+  /**
+   * Sets a region of a file to send after the data.
+   */
+  public void setFileRegion(FileChannel file, long position, int count) {
+    this.file = file;
+    this.filePosition = position;
+    this.fileCount = count;
+  }
+
+  public long getFilePosition() {
+    return filePosition;
+  }
+
+  public int getFileCount() {
+    return fileCount;
+  }
+
+  public StripeGroup getStripeGroup() {
+    return stripeGroup;
+  }
+
+  /**
+   * Returns the sequence number assigned by the group of connections or -1.
+   */
+  public long getSequence() {
+    return sequence;
+  }
+
+  /**
+   * Sets the sequence number of the message within a group of connections. The number is kept
+   * if the message is dispatched again to another connection of the group.
+   */
+  public void setSequence(StripeGroup stripeGroup, long sequence) {
+    this.stripeGroup = stripeGroup;
+    this.sequence = sequence;
+  }
+
   @Override
   public int hashCode() {
     final int prime = 31;
@@ -0,0 +1,176 @@
+package edu.kit.tm.ptp.connection;
+
+import edu.kit.tm.ptp.Identifier;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps track of the messages which have been handed to the ConnectionManager but haven't been
+ * sent or dropped yet. Limits the number and the size of these messages in total and for each
+ * destination. A limit of 0 means no limit. A single message is always accepted if no other
+ * message is pending, even if it exceeds the limit on its own.
+ *
+ * @author Timon Hackenjos
+ */
+public class OutboundLimit {
+  private static final class Usage {
+    public long bytes = 0;
+    public int messages = 0;
+  }
+
+  private final long maxBytes;
+  private final int maxMessages;
+  private final long maxDestinationBytes;
+  private final int maxDestinationMessages;
+  private final Usage total = new Usage();
+  private final Map<Identifier, Usage> destinations = new HashMap<>();
+  private boolean closed = false;
+
+  /**
+   * Constructs a new OutboundLimit.
+   *
+   * @param maxBytes The maximum size of all pending messages in bytes.
+   * @param maxMessages The maximum number of pending messages.
+   * @param maxDestinationBytes The maximum size of the pending messages of a destination.
+   * @param maxDestinationMessages The maximum number of pending messages of a destination.
+   */
+  public OutboundLimit(long maxBytes, int maxMessages, long maxDestinationBytes,
+      int maxDestinationMessages) {
+    if (maxBytes < 0 || maxMessages < 0 || maxDestinationBytes < 0
+        || maxDestinationMessages < 0) {
+      throw new IllegalArgumentException();
+    }
+
+    this.maxBytes = maxBytes;
+    this.maxMessages = maxMessages;
+    this.maxDestinationBytes = maxDestinationBytes;
+    this.maxDestinationMessages = maxDestinationMessages;
+  }
+
+  /**
+   * Accounts for a message if it doesn't exceed a limit.
+   *
+   * @return False if the message hasn't been accounted for.
+   */
+  public synchronized boolean tryAcquire(Identifier destination, long size) {
+    if (closed || !fits(destination, size)) {
+      return false;
+    }
+
+    add(destination, size);
+    return true;
+  }
+
+  /**
+   * Accounts for a message. Waits until it doesn't exceed a limit anymore.
+   *
+   * @return False if the limit has been closed.
+   * @throws InterruptedException If the thread is interrupted while waiting.
+   */
+  public synchronized boolean acquire(Identifier destination, long size)
+      throws InterruptedException {
+    while (!closed && !fits(destination, size)) {
+      wait();
+    }
+
+    if (closed) {
+      return false;
+    }
+
+    add(destination, size);
+    return true;
+  }
+
+  /**
+   * Accounts for a message regardless of the limits.
+   */
+  public synchronized void forceAcquire(Identifier destination, long size) {
+    add(destination, size);
+  }
+
+  /**
+   * Releases a message which has been sent or dropped.
+   */
+  public synchronized void release(Identifier destination, long size) {
+    Usage usage = destinations.get(destination);
+
+    if (usage == null) {
+      throw new IllegalStateException("No pending message for destination");
+    }
+
+    usage.bytes -= size;
+    usage.messages--;
+    total.bytes -= size;
+    total.messages--;
+
+    if (usage.messages == 0) {
+      destinations.remove(destination);
+    }
+
+    notifyAll();
+  }
+
+  /**
+   * Wakes up waiting threads and refuses all further messages.
+   */
+  public synchronized void close() {
+    closed = true;
+    notifyAll();
+  }
+
+  /**
+   * Returns the size of all pending messages in bytes.
+   */
+  public synchronized long getPendingBytes() {
+    return total.bytes;
+  }
+
+  /**
+   * Returns the number of pending messages.
+   */
+  public synchronized int getPendingMessages() {
+    return total.messages;
+  }
+
+  /**
+   * Returns the number of pending messages of the destination.
+   */
+  public synchronized int getPendingMessages(Identifier destination) {
+    Usage usage = destinations.get(destination);
+    return usage != null ? usage.messages : 0;
+  }
+
+  private boolean fits(Identifier destination, long size) {
+    if (!fits(total, size, maxBytes, maxMessages)) {
+      return false;
+    }
+
+    Usage usage = destinations.get(destination);
+
+    return usage == null || fits(usage, size, maxDestinationBytes, maxDestinationMessages);
+  }
+
+  private static boolean fits(Usage usage, long size, long maxBytes, int maxMessages) {
+    if (usage.messages == 0) {
+      return true;
+    }
+
+    return (maxBytes == 0 || usage.bytes + size <= maxBytes)
+        && (maxMessages == 0 || usage.messages < maxMessages);
+  }
+
+  private void add(Identifier destination, long size) {
+    Usage usage = destinations.get(destination);
+
+    if (usage == null) {
+      usage = new Usage();
+      destinations.put(destination, usage);
+    }
+
+    usage.bytes += size;
+    usage.messages++;
+    total.bytes += size;
+    total.messages++;
+  }
+}
@@ -1,10 +1,10 @@
 package edu.kit.tm.ptp.connection;
 
 import edu.kit.tm.ptp.Identifier;
-import edu.kit.tm.ptp.ReceiveListener;
 import edu.kit.tm.ptp.SendListener;
 import edu.kit.tm.ptp.channels.MessageChannel;
 
+import java.nio.ByteBuffer;
 import java.util.logging.Level;
 
 /**
@@ -16,6 +16,8 @@ import java.util.logging.Level;
  */
 
 public class StateAuthenticated extends StateConnected {
+  private static final byte[] noPrefix = new byte[0];
+
   public StateAuthenticated(Context context) {
     super(context);
   }
@@ -26,6 +28,7 @@ public class StateAuthenticated extends StateConnected {
     
     Identifier identifier = attempt.getDestination();
     MessageChannel channel = manager.identifierMap.get(identifier);
+    StripeGroup group = context.getStripeGroup();
     
     manager.logger.log(Level.INFO,
         "Sending message with id " + attempt.getId() + " to " + attempt.getDestination());
@@ -34,7 +37,29 @@ public class StateAuthenticated extends StateConnected {
       throw new IllegalStateException();
     }
 
-    if (channel.addMessage(attempt.getData(), attempt.getId())) {
+    byte[] prefix = noPrefix;
+
+    if (group != null) {
+      if (group.isClosed()) {
+        // Wait until the connections have been closed
+        return false;
+      }
+
+      channel = group.select();
+      prefix = group.prefix(attempt);
+    }
+
+    boolean added;
+
+    if (attempt.getFile() == null) {
+      added = channel.addMessage(prefix, attempt.getData(), attempt.getType(),
+          attempt.getPriority(), attempt.getId());
+    } else {
+      added = channel.addMessage(prefix, attempt.getData(), attempt.getFile(),
+          attempt.getFilePosition(), attempt.getFileCount(), attempt.getType(), attempt.getId());
+    }
+
+    if (added) {
       attempt.setDispatchedChannel(channel);
       manager.dispatchedMessages.put(attempt.getId(), attempt);
       return true;
@@ -44,23 +69,33 @@ public class StateAuthenticated extends StateConnected {
   }
 
   @Override
-  public void messageReceived(byte[] data, MessageChannel source) {
+  public void messageReceived(ByteBuffer data, int type, MessageChannel source) {
     ConnectionManager manager = context.getConnectionManager();
 
     Identifier identifier = manager.channelMap.get(source);
 
     if (identifier == null) {
       manager.logger.log(Level.WARNING,
-          "Received message with size " + data.length + " from unknown channel");
+          "Received message with size " + data.remaining() + " from unknown channel");
       return;
     }
 
     manager.logger.log(Level.INFO,
-        "Received message from " + identifier + " with size " + data.length);
+        "Received message from " + identifier + " with size " + data.remaining());
+
+    StripeGroup group = context.getStripeGroup();
+
+    if (group != null) {
+      // Messages which overtook an earlier one are held back
+      if (!group.messageReceived(data, type)) {
+        close(source);
+      }
+      return;
+    }
 
-    ReceiveListener receiveListener = manager.receiveListener;
+    FrameListener receiveListener = manager.receiveListener;
     if (receiveListener != null) {
-      receiveListener.messageReceived(data, identifier);
+      receiveListener.messageReceived(data, type, identifier);
     } else {
       manager.logger.log(Level.WARNING, "Dropped message because no listener is set.");
     }
@@ -78,6 +113,7 @@ public class StateAuthenticated extends StateConnected {
     }
 
     manager.dispatchedMessages.remove(id);
+    manager.finished(attempt);
 
     if (manager.sendListener != null && attempt.isInformSendListener()) {
       manager.sendListener.messageSent(id, attempt.getDestination(), SendListener.State.SUCCESS);
@@ -30,8 +30,13 @@ public class StateConnect extends AbstractState {
     manager.logger.log(Level.INFO,
         "Trying to connect to " + identifier + " through tor socks proxy");
     
+    // Additional connections of a group aren't registered for the identifier
+    boolean primary = context.getStripe() == 0;
+
     // remove channel from maps
-    manager.identifierMap.remove(identifier);
+    if (primary) {
+      manager.identifierMap.remove(identifier);
+    }
     manager.channelMap.remove(channel);
     manager.channelContexts.remove(channel);
     
@@ -41,13 +46,18 @@ public class StateConnect extends AbstractState {
     try {
       manager.channelManager.addChannel(socks);
       
-      manager.identifierMap.put(identifier, socks);
+      if (primary) {
+        manager.identifierMap.put(identifier, socks);
+      }
       manager.channelMap.put(socks, identifier);
       manager.channelContexts.put(socks, context);
       
       context.setState(context.getConcreteConnectSOCKS());
 
-      socks.connectThroughSOCKS(identifier.getTorAddress(), manager.hsPort);
+      // Use a separate circuit for every connection of a group
+      StripeGroup group = context.getStripeGroup();
+      socks.connectThroughSOCKS(identifier.getTorAddress(), manager.hsPort,
+          group != null ? group.getIsolation(context.getStripe()) : null);
     } catch (ClosedChannelException e) {
       manager.logger.log(Level.WARNING, "Channel was closed while adding channel to ChannelManager",
           e);
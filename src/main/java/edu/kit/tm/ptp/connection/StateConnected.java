@@ -4,6 +4,7 @@ import edu.kit.tm.ptp.Identifier;
 import edu.kit.tm.ptp.auth.Authenticator;
 import edu.kit.tm.ptp.channels.MessageChannel;
 
+import java.nio.ByteBuffer;
 import java.util.logging.Level;
 
 /**
@@ -42,6 +43,20 @@ public class StateConnected extends AbstractState {
       manager.logger.log(Level.INFO,
           "Connection to " + identifier + " has been authenticated successfully");
 
+      boolean initiator = manager.channelMap.get(channel) != null;
+
+      if (!initiator && auth.getStripeGroup() != 0 && !joinStripeGroup(channel, identifier)) {
+        close(channel);
+        return;
+      }
+
+      StripeGroup group = context.getStripeGroup();
+
+      if (context.getStripe() > 0) {
+        addStripe(channel, identifier, group);
+        return;
+      }
+
       context.setState(context.getConcreteAuthenticated());
 
       MessageChannel other = manager.identifierMap.get(identifier);
@@ -54,7 +69,73 @@ public class StateConnected extends AbstractState {
 
       manager.identifierMap.put(identifier, channel);
       manager.channelMap.put(channel, identifier);
+
+      if (group != null) {
+        group.add(channel);
+        manager.stripeGroups.put(identifier, group);
+
+        if (initiator) {
+          manager.connectStripes(identifier, group);
+        }
+      }
+
+      manager.connected(identifier);
+
+      // Messages to the destination can be sent now
+      manager.sendPending(identifier);
+    }
+  }
+
+  /**
+   * Assigns an incoming connection to the group of connections announced by the remote end.
+   *
+   * @return False if the group is unknown.
+   */
+  private boolean joinStripeGroup(MessageChannel channel, Identifier identifier) {
+    ConnectionManager manager = context.getConnectionManager();
+
+    if (auth.getStripe() == 0) {
+      // The first connection of a new group
+      context.setStripe(new StripeGroup(auth.getStripeGroup(), identifier,
+          manager.receiveListener, manager.maxHeldBytesPerStripe), 0);
+      return true;
+    }
+
+    StripeGroup group = manager.stripeGroups.get(identifier);
+
+    if (group == null || group.getId() != auth.getStripeGroup()) {
+      manager.logger.log(Level.INFO, "Connection from " + identifier
+          + " belongs to an unknown group of connections");
+      return false;
     }
+
+    context.setStripe(group, auth.getStripe());
+    return true;
+  }
+
+  /**
+   * Adds an additional connection to its group. The connection isn't registered for the
+   * identifier, messages are sent using the first connection of the group.
+   */
+  private void addStripe(MessageChannel channel, Identifier identifier, StripeGroup group) {
+    ConnectionManager manager = context.getConnectionManager();
+
+    if (group.isClosed()) {
+      manager.logger.log(Level.INFO, "Group of connections to " + identifier
+          + " has been closed already");
+      close(channel);
+      return;
+    }
+
+    context.setState(context.getConcreteAuthenticated());
+    manager.channelMap.put(channel, identifier);
+    group.add(channel);
+
+    manager.logger.log(Level.INFO, "Using " + group.getChannelCount() + " connections to "
+        + identifier);
+
+    // The pending messages may use the additional connection
+    manager.sendPending(identifier);
   }
 
   @Override
@@ -66,6 +147,8 @@ public class StateConnected extends AbstractState {
     auth =
         manager.authFactory.createInstance(manager, manager, channel);
     if (other != null) {
+      StripeGroup group = context.getStripeGroup();
+      auth.setStripe(group != null ? group.getId() : 0, context.getStripe());
       auth.authenticate(manager.localIdentifier, other);
     } else {
       auth.authenticate(manager.localIdentifier);
@@ -76,7 +159,7 @@ public class StateConnected extends AbstractState {
   }
 
   @Override
-  public void messageReceived(byte[] data, MessageChannel source) {
+  public void messageReceived(ByteBuffer data, int type, MessageChannel source) {
     ConnectionManager manager = context.getConnectionManager();
 
     if (auth == null) {
@@ -84,7 +167,7 @@ public class StateConnected extends AbstractState {
       return;
     }
 
-    auth.messageReceived(data, source);
+    auth.messageReceived(data, type, source);
   }
 
   @Override
@@ -65,22 +65,23 @@ public class StateInit extends AbstractState {
     }
 
     manager.logger.log(Level.INFO, "Connection to destination " + identifier + " is closed");
-    if (manager.lastTry.get(identifier) == null || System.currentTimeMillis()
-        - manager.lastTry.get(identifier) >= manager.connectRetryInterval) {
-      manager.logger.log(Level.INFO, "Opening new connection to destination " + identifier);
-      manager.lastTry.put(identifier, System.currentTimeMillis());
-      try {
-        channel = manager.connect(identifier);
+
+    try {
+      channel = manager.tryConnect(identifier);
+
+      if (channel != null) {
+        manager.logger.log(Level.INFO, "Opening new connection to destination " + identifier);
 
         manager.identifierMap.put(identifier, channel);
         manager.channelMap.put(channel, identifier);
         manager.channelContexts.put(channel, context);
+        context.setStripe(manager.newStripeGroup(identifier), 0);
 
         context.setState(context.getConcreteConnect());
-      } catch (IOException ioe) {
-        manager.logger.log(Level.WARNING,
-            "Error while trying to open a new connection to " + identifier, ioe);
       }
+    } catch (IOException ioe) {
+      manager.logger.log(Level.WARNING,
+          "Error while trying to open a new connection to " + identifier, ioe);
     }
 
     return false;
@@ -0,0 +1,256 @@
+package edu.kit.tm.ptp.connection;
+
+import edu.kit.tm.ptp.Identifier;
+import edu.kit.tm.ptp.channels.MessageChannel;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A group of connections to the same destination. Each connection is opened through a separate
+ * Tor circuit, so the throughput isn't limited by a single circuit. Messages are spread across
+ * the connections.
+ *
+ * <p>Every message sent within a group starts with its priority and a sequence number.
+ * Messages of the same priority are passed to the listener in the order of their sequence
+ * numbers. A message which overtook an earlier one on another connection is held back until
+ * the earlier one has been received. If a connection of the group is closed, the whole group
+ * is closed as messages written to the connection may have been lost.
+ *
+ * <p>Each group starts its own sequence numbers. Messages which are sent again after the group
+ * has been closed are numbered by the group of the new connections. A closed group drops the
+ * messages it held back and everything it receives afterwards, so messages delivered from the
+ * new group can't be overtaken by late messages of the old one.
+ *
+ * @author Timon Hackenjos
+ */
+public class StripeGroup {
+  private static final int priorities = MessageChannel.PRIORITY_LOW + 1;
+  /** Length of the priority and the sequence number in front of every message. */
+  protected static final int prefixLength = 1 + 8;
+  private static final Logger logger = Logger.getLogger(StripeGroup.class.getName());
+
+  private static final class HeldMessage {
+    public final byte[] data;
+    public final int type;
+
+    public HeldMessage(byte[] data, int type) {
+      this.data = data;
+      this.type = type;
+    }
+  }
+
+  private final long id;
+  private final Identifier identifier;
+  private final FrameListener listener;
+  private final int maxHeldBytesPerStripe;
+  private final List<MessageChannel> channels = new ArrayList<>();
+  private final long[] nextSequence = new long[priorities];
+  private final long[] expectedSequence = new long[priorities];
+  private final List<TreeMap<Long, HeldMessage>> held = new ArrayList<>();
+  private long heldBytes = 0;
+  private boolean closed = false;
+
+  /**
+   * Constructs a new StripeGroup.
+   *
+   * @param id The id of the group chosen by the end which opened the connections.
+   * @param identifier The identifier of the remote end.
+   * @param listener The listener to pass received messages to.
+   * @param maxHeldBytesPerStripe The maximum number of bytes per connection held back because
+   *     they overtook an earlier message.
+   */
+  public StripeGroup(long id, Identifier identifier, FrameListener listener,
+      int maxHeldBytesPerStripe) {
+    if (id == 0 || identifier == null || listener == null || maxHeldBytesPerStripe <= 0) {
+      throw new IllegalArgumentException();
+    }
+
+    this.id = id;
+    this.identifier = identifier;
+    this.listener = listener;
+    this.maxHeldBytesPerStripe = maxHeldBytesPerStripe;
+
+    for (int i = 0; i < priorities; i++) {
+      held.add(new TreeMap<Long, HeldMessage>());
+    }
+  }
+
+  public long getId() {
+    return id;
+  }
+
+  public Identifier getIdentifier() {
+    return identifier;
+  }
+
+  /**
+   * Returns the SOCKS user id to open a connection of the group with. Tor uses separate
+   * circuits for connections with different user ids.
+   *
+   * @param stripe The index of the connection within the group.
+   */
+  public String getIsolation(int stripe) {
+    return "ptp-" + Long.toHexString(id) + "-" + stripe;
+  }
+
+  /**
+   * Adds an authenticated connection to the group.
+   */
+  public void add(MessageChannel channel) {
+    if (closed) {
+      throw new IllegalStateException();
+    }
+
+    channels.add(channel);
+  }
+
+  /**
+   * Returns true if the connection has been added to the group.
+   */
+  public boolean contains(MessageChannel channel) {
+    return channels.contains(channel);
+  }
+
+  public int getChannelCount() {
+    return channels.size();
+  }
+
+  public boolean isClosed() {
+    return closed;
+  }
+
+  /**
+   * Returns the connection with the fewest bytes waiting to be written.
+   */
+  public MessageChannel select() {
+    if (closed || channels.isEmpty()) {
+      throw new IllegalStateException();
+    }
+
+    MessageChannel selected = null;
+    long selectedBytes = Long.MAX_VALUE;
+
+    for (MessageChannel channel : channels) {
+      long queued = channel.getQueuedBytes();
+
+      if (queued < selectedBytes) {
+        selected = channel;
+        selectedBytes = queued;
+      }
+    }
+
+    return selected;
+  }
+
+  /**
+   * Returns the priority and sequence number to send in front of the data of the message.
+   * Assigns the next sequence number of the priority to the message unless it already got
+   * one from this group, so a message dispatched again keeps its place.
+   */
+  public byte[] prefix(MessageAttempt attempt) {
+    int priority = attempt.getFile() == null ? attempt.getPriority()
+        : MessageChannel.PRIORITY_NORMAL;
+
+    if (attempt.getStripeGroup() != this) {
+      attempt.setSequence(this, nextSequence[priority]++);
+    }
+
+    ByteBuffer buffer = ByteBuffer.allocate(prefixLength);
+    buffer.put((byte) priority);
+    buffer.putLong(attempt.getSequence());
+
+    return buffer.array();
+  }
+
+  /**
+   * Passes a received message and all held back messages following it to the listener.
+   * Holds the message back if an earlier message of the same priority is missing.
+   * Messages aren't buffered beyond the limit, the caller has to close the group instead.
+   *
+   * @return False if the message is invalid or too many bytes would be held back.
+   */
+  public boolean messageReceived(ByteBuffer data, int type) {
+    if (data.remaining() < prefixLength) {
+      logger.log(Level.WARNING, "Received message without sequence number from " + identifier);
+      return false;
+    }
+
+    int priority = data.get();
+    long sequence = data.getLong();
+
+    if (priority < 0 || priority >= priorities || sequence < 0) {
+      logger.log(Level.WARNING, "Received invalid sequence number from " + identifier);
+      return false;
+    }
+
+    if (closed) {
+      // Delivering it could break the order of the messages of the next group
+      logger.log(Level.INFO, "Dropping message " + sequence + " from closed group of "
+          + identifier);
+      return true;
+    }
+
+    if (sequence < expectedSequence[priority]) {
+      logger.log(Level.INFO, "Dropping duplicate message " + sequence + " from " + identifier);
+      return true;
+    }
+
+    if (sequence > expectedSequence[priority]) {
+      long maxHeldBytes = (long) maxHeldBytesPerStripe * Math.max(1, channels.size());
+
+      if (heldBytes + data.remaining() > maxHeldBytes) {
+        logger.log(Level.WARNING, "Too many messages from " + identifier + " are held back");
+        return false;
+      }
+
+      byte[] bytes = new byte[data.remaining()];
+      data.get(bytes);
+      held.get(priority).put(sequence, new HeldMessage(bytes, type));
+      heldBytes += bytes.length;
+      return true;
+    }
+
+    listener.messageReceived(data, type, identifier);
+    expectedSequence[priority]++;
+
+    TreeMap<Long, HeldMessage> messages = held.get(priority);
+    HeldMessage next;
+
+    while ((next = messages.remove(expectedSequence[priority])) != null) {
+      heldBytes -= next.data.length;
+      listener.messageReceived(ByteBuffer.wrap(next.data), next.type, identifier);
+      expectedSequence[priority]++;
+    }
+
+    return true;
+  }
+
+  /**
+   * Closes the group. Messages which are held back are dropped, as their missing predecessors
+   * won't arrive anymore and delivering them would break the order.
+   *
+   * @return The connections of the group.
+   */
+  public List<MessageChannel> close() {
+    closed = true;
+
+    for (TreeMap<Long, HeldMessage> messages : held) {
+      if (!messages.isEmpty()) {
+        logger.log(Level.INFO, "Dropping " + messages.size() + " messages from " + identifier
+            + " which overtook a lost one");
+        messages.clear();
+      }
+    }
+
+    heldBytes = 0;
+
+    List<MessageChannel> closedChannels = new ArrayList<>(channels);
+    channels.clear();
+    return closedChannels;
+  }
+}
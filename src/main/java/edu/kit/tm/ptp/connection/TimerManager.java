@@ -3,30 +3,43 @@ package edu.kit.tm.ptp.connection;
 import edu.kit.tm.ptp.Identifier;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.Map.Entry;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 
 /**
  * A class which allows to set/remove timers and be informed when they expire.
+ * Timers are kept in a hashed timing wheel. Each slot of the wheel holds the timers
+ * expiring in ticks which map to the slot, so a tick only looks at the timers of one slot
+ * and setting or removing a timer takes constant time.
+ * The thread sleeps while no timers are set.
  *
  * @author Timon Hackenjos
  * @author Simeon Andreev
  *
  */
 public class TimerManager implements Runnable  {
+  /** Number of slots of the wheel. */
+  private static final int wheelSize = 512;
 
   /** The logger for this class. */
   private final Logger logger = Logger.getLogger(TimerManager.class.getName());
   private final ExpireListener listener;
-  private final HashMap<TimerKey, Integer> map = new HashMap<TimerKey, Integer>();
+  private final Map<TimerKey, Long> deadlines = new HashMap<TimerKey, Long>();
+  private final Set<TimerKey>[] wheel;
   /** The interval in milliseconds at which the values are updated. */
   private final int step;
   private final Thread thread;
-  private LinkedList<TimerKey> closed;
+  /** Time the ticks are counted from. */
+  private final long startTime = System.currentTimeMillis();
+  /** The last tick whose timers have been expired. */
+  private long currentTick = 0;
   
   private static final class TimerKey {
     public Identifier identifier;
@@ -93,9 +106,15 @@ public class TimerManager implements Runnable  {
    * @param step The interval in milliseconds at which the timer values are updated.
    */
   public TimerManager(ExpireListener listener, int step, ThreadGroup group) {
+    if (step <= 0) {
+      throw new IllegalArgumentException();
+    }
+
     this.listener = listener;
     this.step = step;
     this.thread = new Thread(group, this);
+    this.wheel = createWheel();
+
     logger.log(Level.INFO, "TimerManager object created.");
   }
 
@@ -104,30 +123,22 @@ public class TimerManager implements Runnable  {
     logger.log(Level.INFO, "TimerManager entering execution loop.");
 
     while (!thread.isInterrupted()) {
-      closed = new LinkedList<TimerKey>();
-      long start = System.currentTimeMillis();
-      long elapsed = 0;
-
-      // Sleep until the next update.
-      do {
-        try {
-          Thread.sleep(step - elapsed);
-        } catch (InterruptedException e) {
-          // Thread should stop
-          return;
-        }
-        elapsed = System.currentTimeMillis() - start;
-      } while (elapsed < step);
+      List<TimerKey> expired;
 
       try {
-        // Update the timer values
-        substract();
-        for (TimerKey key : closed) {
+        expired = advance();
+      } catch (InterruptedException e) {
+        // Thread should stop
+        break;
+      }
+
+      for (TimerKey key : expired) {
+        try {
           listener.expired(key.identifier, key.timeoutClass);
-          map.remove(key);
+        } catch (IOException e) {
+          logger.log(Level.WARNING,
+              "Received IOException while closing a socket: " + e.getMessage());
         }
-      } catch (IOException e) {
-        logger.log(Level.WARNING, "Received IOException while closing a socket: " + e.getMessage());
       }
     }
     logger.log(Level.INFO, "TimerManager exiting execution loop.");
@@ -168,7 +179,12 @@ public class TimerManager implements Runnable  {
    */
   public synchronized void remove(Identifier identifier, int timerClass) {
     logger.log(Level.INFO, "Removing identifier from map: " + identifier);
-    map.remove(new TimerKey(identifier, timerClass));
+    TimerKey key = new TimerKey(identifier, timerClass);
+    Long deadline = deadlines.remove(key);
+
+    if (deadline != null) {
+      slot(deadline).remove(key);
+    }
   }
 
   /**
@@ -180,10 +196,10 @@ public class TimerManager implements Runnable  {
    */
   public synchronized void setTimerIfNoneExists(Identifier identifier, int timer, int timerClass) {
     TimerKey key = new TimerKey(identifier, timerClass);
-    if (!map.containsKey(key)) {
+    if (!deadlines.containsKey(key)) {
       logger.log(Level.INFO, "Setting timeout (" + timer + "ms) for identifier: " + identifier
           + " class: " + timerClass);
-      map.put(key, timer);
+      schedule(key, timer);
     }
   }
   
@@ -198,35 +214,99 @@ public class TimerManager implements Runnable  {
     TimerKey key = new TimerKey(identifier, timerClass);
     logger.log(Level.INFO, "Setting timeout (" + timer + "ms) for identifier: " + identifier
           + " class: " + timerClass);
-    map.put(key, timer);
+    Long deadline = deadlines.remove(key);
+
+    if (deadline != null) {
+      slot(deadline).remove(key);
+    }
+
+    schedule(key, timer);
   }
 
+  private void schedule(TimerKey key, int timer) {
+    // A timer expires in the first tick after the delay has passed
+    long expiry = System.currentTimeMillis() + Math.max(0, timer);
+    long deadline = Math.max(currentTick + 1, (expiry - startTime + step - 1) / step);
+
+    deadlines.put(key, deadline);
+    slot(deadline).add(key);
+
+    // Wake the thread if it waits for timers to be set
+    notifyAll();
+  }
 
   /**
-   * Substracts the amount of milliseconds from the timers.
-   *
+   * Waits for the next tick and removes the timers which expired up to it.
    */
-  private synchronized void substract() throws IOException {
-    int timer;
+  private synchronized List<TimerKey> advance() throws InterruptedException {
+    while (deadlines.isEmpty()) {
+      wait();
+    }
 
-    // Iterate over the entries and substract the step
-    for (Entry<TimerKey, Integer> entry : map.entrySet()) {      
-      timer = entry.getValue() - step;
-      entry.setValue(timer);
-      
-      // Check if the timer expired after the substraction.
-      if (timer >= 0) {
+    long now = System.currentTimeMillis();
+    long nextTick = currentTick + 1;
+    long nextTickTime = startTime + nextTick * step;
+
+    if (now < nextTickTime) {
+      wait(nextTickTime - now);
+      now = System.currentTimeMillis();
+    }
+
+    List<TimerKey> expired = new ArrayList<TimerKey>();
+    long lastTick = tick(now);
+
+    // Look at every slot at most once if several ticks passed
+    for (long t = nextTick; t <= lastTick && t < nextTick + wheelSize; t++) {
+      Set<TimerKey> slot = slot(t);
+
+      if (slot.isEmpty()) {
         continue;
       }
-      closed.add(entry.getKey());
+
+      for (TimerKey key : slot) {
+        if (deadlines.get(key) <= lastTick) {
+          expired.add(key);
+        }
+      }
+    }
+
+    for (TimerKey key : expired) {
+      slot(deadlines.remove(key)).remove(key);
+    }
+
+    currentTick = Math.max(currentTick, lastTick);
+
+    return expired;
+  }
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private static Set<TimerKey>[] createWheel() {
+    Set<TimerKey>[] slots = new Set[wheelSize];
+
+    for (int i = 0; i < wheelSize; i++) {
+      slots[i] = new HashSet<TimerKey>();
     }
+
+    return slots;
+  }
+
+  private long tick(long time) {
+    return (time - startTime) / step;
+  }
+
+  private Set<TimerKey> slot(long tick) {
+    return wheel[(int) (tick % wheelSize)];
   }
 
   /**
    * Clears all timeouts.
    */
   private synchronized void clear() {
-    map.clear();
+    deadlines.clear();
+
+    for (Set<TimerKey> slot : wheel) {
+      slot.clear();
+    }
   }
   
   public boolean isRunning() {
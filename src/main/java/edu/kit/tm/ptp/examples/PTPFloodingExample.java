@@ -130,6 +130,8 @@ public class PTPFloodingExample {
 
           // forward to all friends
           synchronized (friends) {
+            List<Identifier> targets = new ArrayList<Identifier>();
+
             for (Identifier friend : friends) {
 
               if (friend.equals(source)) {
@@ -137,9 +139,12 @@ public class PTPFloodingExample {
               }
 
               System.out.println("Forwarding to " + friend);
-              ptp.sendMessage(message, friend);
+              targets.add(friend);
             }
 
+            // The message is serialized once for all friends
+            ptp.sendMessage(message, targets);
+
             // add new friends
             if (!friends.contains(source)) {
               System.out.println("Added new friend: " + source);
@@ -179,17 +184,17 @@ public class PTPFloodingExample {
           break;
         }
         synchronized (friends) {
-          for (Identifier friend : friends) {
+          FloodingMessage message = new FloodingMessage(content);
 
-            FloodingMessage message = new FloodingMessage(content);
-
-            synchronized (seenMessages) {
-              seenMessages.add(message);
-            }
+          synchronized (seenMessages) {
+            seenMessages.add(message);
+          }
 
+          for (Identifier friend : friends) {
             System.out.println("Sending to " + friend);
-            ptp.sendMessage(message, friend);
           }
+
+          ptp.sendMessage(message, friends);
         }
       }
     } catch (IOException e) {
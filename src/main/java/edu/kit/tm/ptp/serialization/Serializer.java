@@ -2,65 +2,121 @@ package edu.kit.tm.ptp.serialization;
 
 import com.esotericsoftware.kryo.Kryo;
 import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.io.ByteBufferInput;
 import com.esotericsoftware.kryo.io.Input;
 import com.esotericsoftware.kryo.io.Output;
 
 import java.io.IOException;
-import java.util.HashSet;
+import java.nio.ByteBuffer;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CopyOnWriteArraySet;
 
 
 /**
  * Serializes and deserializes objects using Kryo. To be able to serialize a class it must contain a
  * constructor without any arguments. Classes need to be registered before they can be serialized
  * and deserialized. Also the order in which they are registered is important.
+ * The Serializer may be used by several threads concurrently. Each thread uses its own Kryo
+ * instance and buffers which are reused for subsequent calls. Classes registered later are
+ * registered at the Kryo instance of a thread before it's used the next time.
  *
  * @author Timon Hackenjos
  */
 public class Serializer {
-  private Kryo kryo = new Kryo();
-  private Set<Class<?>> registeredClasses = new HashSet<>();
-  
+  /** Initial size of the output buffer of a thread. */
+  private static final int INITIALBUFFERSIZE = 256;
+  /** Output buffers growing larger aren't kept after serializing an object. */
+  private static final int MAXPOOLEDBUFFERSIZE = 64 * 1024;
+
+  /** The registered classes in the order of registration. */
+  private final List<Class<?>> registrations = new CopyOnWriteArrayList<>();
+  private final Set<Class<?>> registeredClasses = new CopyOnWriteArraySet<>();
+  private final ThreadLocal<KryoContext> contexts = new ThreadLocal<KryoContext>() {
+    @Override
+    protected KryoContext initialValue() {
+      return new KryoContext();
+    }
+  };
+
   public Serializer() {
   }
 
   /**
    * Serialize an object of a previously registered class.
-   * 
+   *
    * @param obj The object to serialize.
-   * @return The bytes representing the object.
+   * @return The bytes representing the object. The array has exactly the size of the data.
    */
   public byte[] serialize(Object obj) {
     if (obj == null) {
       throw new IllegalArgumentException("Object to serialize is null");
     }
 
-    // No maximum buffer size
-    Output out = new Output(0, -1);
+    KryoContext context = getContext();
+    Output out = context.output;
 
-    kryo.writeClassAndObject(out, obj);
-
-    return out.getBuffer();
+    try {
+      out.clear();
+      context.kryo.writeClassAndObject(out, obj);
+
+      // Copy the written bytes only, the buffer is reused
+      return out.toBytes();
+    } finally {
+      if (out.getBuffer().length > MAXPOOLEDBUFFERSIZE) {
+        out.setBuffer(new byte[INITIALBUFFERSIZE], -1);
+      }
+    }
   }
 
   /**
    * Deserializes a previously serialized object of a class.
-   * 
+   *
    * @param data The bytes representing the object.
    * @return The deserialized object.
    * @throws IOException If an error occurs while deserializing.
    */
   public Object deserialize(byte[] data) throws IOException {
-    if (data.length == 0) {
+    return deserialize(ByteBuffer.wrap(data));
+  }
+
+  /**
+   * Deserializes a previously serialized object of a class.
+   * Reads the bytes between the position and the limit of the buffer.
+   * The position of the buffer isn't changed.
+   *
+   * @param data The buffer containing the bytes representing the object.
+   * @return The deserialized object.
+   * @throws IOException If an error occurs while deserializing.
+   */
+  public Object deserialize(ByteBuffer data) throws IOException {
+    if (data.remaining() == 0) {
       throw new IOException("Can't deserialize empty byte array");
     }
 
+    KryoContext context = getContext();
     Object obj = null;
 
     try {
-      Input input = new Input(data);
-
-      obj = kryo.readClassAndObject(input);
+      Input input;
+
+      if (data.hasArray()) {
+        input = context.input;
+        input.setBuffer(data.array(), data.arrayOffset() + data.position(), data.remaining());
+      } else {
+        // Direct buffers are read without copying them to the heap first
+        input = context.byteBufferInput;
+        context.byteBufferInput.setBuffer(data.slice());
+      }
+
+      try {
+        obj = context.kryo.readClassAndObject(input);
+      } finally {
+        // Don't keep a reference to the buffer of the caller
+        context.input.setBuffer(context.emptyBuffer);
+        context.byteBufferInput.setBuffer(context.emptyByteBuffer);
+      }
     } catch (KryoException e) { // Handling an unchecked exception
       throw new IOException(e.getMessage());
     }
@@ -76,12 +132,13 @@ public class Serializer {
    * Registers the supplied class to be able to serialize objects of the class.
    * Keep in mind that the order of registration matters.
    * Registering a class several times has no effect.
-   * 
+   *
    * @param type The class to register.
    */
-  public <T> void registerClass(Class<T> type) {
-    registeredClasses.add(type);
-    kryo.register(type);
+  public synchronized <T> void registerClass(Class<T> type) {
+    if (registeredClasses.add(type)) {
+      registrations.add(type);
+    }
   }
 
   /**
@@ -90,4 +147,33 @@ public class Serializer {
   public <T> boolean isRegistered(Class<T> type) {
     return registeredClasses.contains(type);
   }
+
+  /**
+   * Returns the context of the calling thread with all classes registered.
+   */
+  private KryoContext getContext() {
+    KryoContext context = contexts.get();
+
+    // Classes are only appended so the same order results in the same ids
+    while (context.registered < registrations.size()) {
+      context.kryo.register(registrations.get(context.registered));
+      context.registered++;
+    }
+
+    return context;
+  }
+
+  /**
+   * The Kryo instance and buffers of a single thread.
+   */
+  private static class KryoContext {
+    private final Kryo kryo = new Kryo();
+    private final byte[] emptyBuffer = new byte[0];
+    private final ByteBuffer emptyByteBuffer = ByteBuffer.wrap(emptyBuffer);
+    private final Output output = new Output(INITIALBUFFERSIZE, -1);
+    private final Input input = new Input(emptyBuffer);
+    private final ByteBufferInput byteBufferInput = new ByteBufferInput(emptyByteBuffer);
+    /** Number of registered classes which have been registered at the Kryo instance. */
+    private int registered = 0;
+  }
 }
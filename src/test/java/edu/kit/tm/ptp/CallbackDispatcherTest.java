@@ -0,0 +1,134 @@
+package edu.kit.tm.ptp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+public class CallbackDispatcherTest {
+  private ExecutorService executor;
+
+  @Before
+  public void setUp() {
+    executor = Executors.newFixedThreadPool(4);
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void testOrderPerIdentifier() throws InterruptedException {
+    CallbackDispatcher dispatcher = new CallbackDispatcher(executor);
+    Identifier[] identifiers = new Identifier[] {new Identifier("aaaaaaaaaaaaaaaa.onion"),
+        new Identifier("bbbbbbbbbbbbbbbb.onion"), new Identifier("cccccccccccccccc.onion")};
+    final int callbacks = 1000;
+    final CountDownLatch latch = new CountDownLatch(identifiers.length * callbacks);
+    List<List<Integer>> results = new ArrayList<>();
+
+    for (int i = 0; i < identifiers.length; i++) {
+      results.add(new ArrayList<Integer>());
+    }
+
+    for (int j = 0; j < callbacks; j++) {
+      for (int i = 0; i < identifiers.length; i++) {
+        final List<Integer> result = results.get(i);
+        final int value = j;
+
+        dispatcher.dispatch(identifiers[i], new Runnable() {
+          @Override
+          public void run() {
+            // Callbacks of an identifier never run concurrently
+            result.add(value);
+            latch.countDown();
+          }
+        });
+      }
+    }
+
+    assertTrue(latch.await(10, TimeUnit.SECONDS));
+
+    for (List<Integer> result : results) {
+      assertEquals(callbacks, result.size());
+
+      for (int j = 0; j < callbacks; j++) {
+        assertEquals(j, (int) result.get(j));
+      }
+    }
+
+    assertEquals(identifiers.length * callbacks, dispatcher.getDispatchedCallbacks());
+    assertEquals(0, dispatcher.getQueuedCallbacks());
+  }
+
+  @Test
+  public void testQueueMetrics() throws InterruptedException {
+    CallbackDispatcher dispatcher = new CallbackDispatcher(executor);
+    Identifier identifier = new Identifier("aaaaaaaaaaaaaaaa.onion");
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch blocked = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(5);
+
+    dispatcher.dispatch(identifier, new Runnable() {
+      @Override
+      public void run() {
+        started.countDown();
+        try {
+          blocked.await();
+        } catch (InterruptedException e) {
+          // Do nothing
+        }
+        done.countDown();
+      }
+    });
+
+    assertTrue(started.await(10, TimeUnit.SECONDS));
+
+    for (int i = 0; i < 4; i++) {
+      dispatcher.dispatch(identifier, new Runnable() {
+        @Override
+        public void run() {
+          done.countDown();
+        }
+      });
+    }
+
+    // The callbacks wait for the first one
+    assertEquals(4, dispatcher.getQueuedCallbacks());
+    assertEquals(1, dispatcher.getQueuedIdentifiers());
+
+    blocked.countDown();
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+
+    assertEquals(0, dispatcher.getQueuedCallbacks());
+    assertTrue(dispatcher.getMaxQueuedCallbacks() >= 4);
+    assertEquals(5, dispatcher.getDispatchedCallbacks());
+  }
+
+  @Test
+  public void testDirect() {
+    CallbackDispatcher dispatcher = new CallbackDispatcher(null);
+    final Thread caller = Thread.currentThread();
+    final List<Thread> threads = new ArrayList<>();
+
+    dispatcher.dispatch(new Identifier("aaaaaaaaaaaaaaaa.onion"), new Runnable() {
+      @Override
+      public void run() {
+        threads.add(Thread.currentThread());
+      }
+    });
+
+    assertEquals(1, threads.size());
+    assertEquals(caller, threads.get(0));
+    assertEquals(false, dispatcher.isAsynchronous());
+  }
+}
@@ -48,7 +48,21 @@ public class ConfigurationTest {
   private int isAliveTimeout = -1;
   private int isAliveSendTimeout = -1;
   private int connectRetryInterval = -1;
+  private int maxConnectRetryInterval = -1;
+  private int connectRetryJitter = -1;
   private int messageSendRetryInterval = -1;
+  private int maxPooledMessageSize = -1;
+  private boolean directReceiveBuffers = false;
+  private int selectorThreads = -1;
+  private int callbackThreads = -1;
+  private int maxPendingBytes = -1;
+  private int maxPendingMessages = -1;
+  private int maxPendingBytesPerDestination = -1;
+  private int maxPendingMessagesPerDestination = -1;
+  private Configuration.PendingLimitPolicy pendingLimitPolicy = null;
+  private int compressionThreshold = -1;
+  private int connectionStripes = -1;
+  private int maxHeldBytesPerStripe = -1;
 
   /**
    * @throws IOException
@@ -76,7 +90,22 @@ public class ConfigurationTest {
     isAliveTimeout = isAliveSendTimeout + random.nextInt(10000);
     timerUpdateInterval = random.nextInt(Integer.MAX_VALUE);
     connectRetryInterval = random.nextInt(Integer.MAX_VALUE);
+    maxConnectRetryInterval = random.nextInt(Integer.MAX_VALUE);
+    connectRetryJitter = random.nextInt(101);
     messageSendRetryInterval = random.nextInt(Integer.MAX_VALUE);
+    maxPooledMessageSize = random.nextInt(Integer.MAX_VALUE);
+    directReceiveBuffers = random.nextBoolean();
+    selectorThreads = 1 + random.nextInt(64);
+    callbackThreads = random.nextInt(64);
+    maxPendingBytes = random.nextInt(Integer.MAX_VALUE);
+    maxPendingMessages = random.nextInt(Integer.MAX_VALUE);
+    maxPendingBytesPerDestination = random.nextInt(Integer.MAX_VALUE);
+    maxPendingMessagesPerDestination = random.nextInt(Integer.MAX_VALUE);
+    pendingLimitPolicy = Configuration.PendingLimitPolicy.values()[
+        random.nextInt(Configuration.PendingLimitPolicy.values().length)];
+    compressionThreshold = random.nextInt(64 * 1024);
+    connectionStripes = 1 + random.nextInt(8);
+    maxHeldBytesPerStripe = 1 + random.nextInt(1024 * 1024);
 
     // Write the properties to the input file.
     BufferedWriter writer = new BufferedWriter(
@@ -89,8 +118,32 @@ public class ConfigurationTest {
     output.write(ConfigurationFileReader.TimerUpdateInterval + " " + timerUpdateInterval + newline);
     output.write(ConfigurationFileReader.ConnectRetryInterval + " " + connectRetryInterval 
         + newline);
+    output.write(ConfigurationFileReader.MaxConnectRetryInterval + " "
+        + maxConnectRetryInterval + newline);
+    output.write(ConfigurationFileReader.ConnectRetryJitter + " " + connectRetryJitter + newline);
     output.write(ConfigurationFileReader.MessageSendRetryInterval + " " + messageSendRetryInterval 
         + newline);
+    output.write(ConfigurationFileReader.MaxPooledMessageSize + " " + maxPooledMessageSize
+        + newline);
+    output.write(ConfigurationFileReader.DirectReceiveBuffers + " " + directReceiveBuffers
+        + newline);
+    output.write(ConfigurationFileReader.SelectorThreads + " " + selectorThreads + newline);
+    output.write(ConfigurationFileReader.CallbackThreads + " " + callbackThreads + newline);
+    output.write(ConfigurationFileReader.MaxPendingBytes + " " + maxPendingBytes
+        + newline);
+    output.write(ConfigurationFileReader.MaxPendingMessages + " " + maxPendingMessages
+        + newline);
+    output.write(ConfigurationFileReader.MaxPendingBytesPerDestination + " "
+        + maxPendingBytesPerDestination + newline);
+    output.write(ConfigurationFileReader.MaxPendingMessagesPerDestination + " "
+        + maxPendingMessagesPerDestination + newline);
+    output.write(ConfigurationFileReader.PendingLimitPolicy + " " + pendingLimitPolicy
+        + newline);
+    output.write(ConfigurationFileReader.CompressionThreshold + " " + compressionThreshold
+        + newline);
+    output.write(ConfigurationFileReader.ConnectionStripes + " " + connectionStripes + newline);
+    output.write(ConfigurationFileReader.MaxHeldBytesPerStripe + " " + maxHeldBytesPerStripe
+        + newline);
 
     output.flush();
     output.close();
@@ -255,4 +308,202 @@ public class ConfigurationTest {
     }
   }
 
+  /**
+   * Test method for {@link Configuration#getMaxConnectRetryInterval()}.
+   *
+   * <p>Checks whether the configuration read the maxConnectRetryInterval property correctly.
+   * Fails if the read property is not equal to the written property.
+   */
+  @Test
+  public void testGetMaxConnectRetryInterval() {
+    if (maxConnectRetryInterval != configuration.getMaxConnectRetryInterval()) {
+      fail("MaxConnectRetryInterval property does not match: " + maxConnectRetryInterval + " != "
+          + configuration.getMaxConnectRetryInterval());
+    }
+  }
+
+  /**
+   * Test method for {@link Configuration#getConnectRetryJitter()}.
+   *
+   * <p>Checks whether the configuration read the connectRetryJitter property correctly.
+   * Fails if the read property is not equal to the written property.
+   */
+  @Test
+  public void testGetConnectRetryJitter() {
+    if (connectRetryJitter != configuration.getConnectRetryJitter()) {
+      fail("ConnectRetryJitter property does not match: " + connectRetryJitter + " != "
+          + configuration.getConnectRetryJitter());
+    }
+  }
+
+  /**
+   * Test method for {@link Configuration#getMaxPooledMessageSize()}.
+   *
+   * <p>Checks whether the configuration read the maxPooledMessageSize property correctly.
+   * Fails if the read property is not equal to the written property.
+   */
+  @Test
+  public void testGetMaxPooledMessageSize() {
+    if (maxPooledMessageSize != configuration.getMaxPooledMessageSize()) {
+      fail("MaxPooledMessageSize property does not match: " + maxPooledMessageSize + " != "
+          + configuration.getMaxPooledMessageSize());
+    }
+  }
+
+  /**
+   * Test method for {@link Configuration#getDirectReceiveBuffers()}.
+   *
+   * <p>Checks whether the configuration read the directReceiveBuffers property correctly.
+   * Fails if the read property is not equal to the written property.
+   */
+  @Test
+  public void testGetDirectReceiveBuffers() {
+    if (directReceiveBuffers != configuration.getDirectReceiveBuffers()) {
+      fail("DirectReceiveBuffers property does not match: " + directReceiveBuffers + " != "
+          + configuration.getDirectReceiveBuffers());
+    }
+  }
+
+  /**
+   * Test method for {@link Configuration#getSelectorThreads()}.
+   *
+   * <p>Checks whether the configuration read the selectorThreads property correctly.
+   * Fails if the read property is not equal to the written property.
+   */
+  @Test
+  public void testGetSelectorThreads() {
+    if (selectorThreads != configuration.getSelectorThreads()) {
+      fail("SelectorThreads property does not match: " + selectorThreads + " != "
+          + configuration.getSelectorThreads());
+    }
+  }
+
+  /**
+   * Test method for {@link Configuration#getCallbackThreads()}.
+   *
+   * <p>Checks whether the configuration read the callbackThreads property correctly.
+   * Fails if the read property is not equal to the written property.
+   */
+  @Test
+  public void testGetCallbackThreads() {
+    if (callbackThreads != configuration.getCallbackThreads()) {
+      fail("CallbackThreads property does not match: " + callbackThreads + " != "
+          + configuration.getCallbackThreads());
+    }
+  }
+
+  /**
+   * Test method for {@link Configuration#getMaxPendingBytes()}.
+   *
+   * <p>Checks whether the configuration read the maxPendingBytes property correctly.
+   * Fails if the read property is not equal to the written property.
+   */
+  @Test
+  public void testGetMaxPendingBytes() {
+    if (maxPendingBytes != configuration.getMaxPendingBytes()) {
+      fail("MaxPendingBytes property does not match: " + maxPendingBytes + " != "
+          + configuration.getMaxPendingBytes());
+    }
+  }
+
+  /**
+   * Test method for {@link Configuration#getMaxPendingMessages()}.
+   *
+   * <p>Checks whether the configuration read the maxPendingMessages property correctly.
+   * Fails if the read property is not equal to the written property.
+   */
+  @Test
+  public void testGetMaxPendingMessages() {
+    if (maxPendingMessages != configuration.getMaxPendingMessages()) {
+      fail("MaxPendingMessages property does not match: " + maxPendingMessages + " != "
+          + configuration.getMaxPendingMessages());
+    }
+  }
+
+  /**
+   * Test method for {@link Configuration#getMaxPendingBytesPerDestination()}.
+   *
+   * <p>Checks whether the configuration read the maxPendingBytesPerDestination property correctly.
+   * Fails if the read property is not equal to the written property.
+   */
+  @Test
+  public void testGetMaxPendingBytesPerDestination() {
+    if (maxPendingBytesPerDestination != configuration.getMaxPendingBytesPerDestination()) {
+      fail("MaxPendingBytesPerDestination property does not match: "
+          + maxPendingBytesPerDestination + " != "
+          + configuration.getMaxPendingBytesPerDestination());
+    }
+  }
+
+  /**
+   * Test method for {@link Configuration#getMaxPendingMessagesPerDestination()}.
+   *
+   * <p>Checks whether the configuration read the maxPendingMessagesPerDestination property
+   * correctly.
+   * Fails if the read property is not equal to the written property.
+   */
+  @Test
+  public void testGetMaxPendingMessagesPerDestination() {
+    if (maxPendingMessagesPerDestination != configuration.getMaxPendingMessagesPerDestination()) {
+      fail("MaxPendingMessagesPerDestination property does not match: "
+          + maxPendingMessagesPerDestination + " != "
+          + configuration.getMaxPendingMessagesPerDestination());
+    }
+  }
+
+  /**
+   * Test method for {@link Configuration#getPendingLimitPolicy()}.
+   *
+   * <p>Checks whether the configuration read the pendingLimitPolicy property correctly.
+   * Fails if the read property is not equal to the written property.
+   */
+  @Test
+  public void testGetPendingLimitPolicy() {
+    if (pendingLimitPolicy != configuration.getPendingLimitPolicy()) {
+      fail("PendingLimitPolicy property does not match: " + pendingLimitPolicy + " != "
+          + configuration.getPendingLimitPolicy());
+    }
+  }
+
+  /**
+   * Test method for {@link Configuration#getCompressionThreshold()}.
+   *
+   * <p>Checks whether the configuration read the compressionThreshold property correctly.
+   * Fails if the read property is not equal to the written property.
+   */
+  @Test
+  public void testGetCompressionThreshold() {
+    if (compressionThreshold != configuration.getCompressionThreshold()) {
+      fail("CompressionThreshold property does not match: " + compressionThreshold + " != "
+          + configuration.getCompressionThreshold());
+    }
+  }
+
+  /**
+   * Test method for {@link Configuration#getConnectionStripes()}.
+   *
+   * <p>Checks whether the configuration read the connectionStripes property correctly.
+   * Fails if the read property is not equal to the written property.
+   */
+  @Test
+  public void testGetConnectionStripes() {
+    if (connectionStripes != configuration.getConnectionStripes()) {
+      fail("ConnectionStripes property does not match: " + connectionStripes + " != "
+          + configuration.getConnectionStripes());
+    }
+  }
+
+  /**
+   * Test method for {@link Configuration#getMaxHeldBytesPerStripe()}.
+   *
+   * <p>Checks whether the configuration read the maxHeldBytesPerStripe property correctly.
+   * Fails if the read property is not equal to the written property.
+   */
+  @Test
+  public void testGetMaxHeldBytesPerStripe() {
+    if (maxHeldBytesPerStripe != configuration.getMaxHeldBytesPerStripe()) {
+      fail("MaxHeldBytesPerStripe property does not match: " + maxHeldBytesPerStripe + " != "
+          + configuration.getMaxHeldBytesPerStripe());
+    }
+  }
 }
@@ -1,6 +1,7 @@
 package edu.kit.tm.ptp;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import edu.kit.tm.ptp.Configuration;
 import edu.kit.tm.ptp.Identifier;
@@ -90,6 +91,67 @@ public class ConnectionManagerTest {
     assertEquals(ptp.getIdentifier(), listener.getDestination());
   }
 
+  @Test
+  public void testPendingMessages() throws IOException {
+    SendReceiveListener listener = new SendReceiveListener();
+    Configuration config = new Configuration();
+    config.setMessageSendRetryInterval(100);
+
+    // Messages can't be sent without a SOCKS proxy
+    manager = new ConnectionManager(1000, listener, listener, config);// Dummy port
+    manager.start();
+
+    Identifier destination = new Identifier("aaaaaaaaaaaaaaaa.onion");
+    int messages = 100;
+    long id = -1;
+
+    for (int i = 0; i < messages; i++) {
+      id = manager.send(new byte[] {0x1}, destination, 3000);
+    }
+
+    // Pending messages to one destination don't delay others
+    long invalidId = manager.send(new byte[] {0x1}, new Identifier("xyz.onion"), 200);
+
+    TestHelper.wait(listener.sent, 1, TestConstants.listenerTimeout);
+    assertEquals(invalidId, listener.getId());
+    assertEquals(SendListener.State.INVALID_DESTINATION, listener.getState());
+
+    TestHelper.wait(listener.sent, messages + 1, TestConstants.listenerTimeout);
+    assertEquals(messages + 1, listener.sent.get());
+    assertEquals(id, listener.getId());
+    assertEquals(SendListener.State.TIMEOUT, listener.getState());
+  }
+
+  @Test
+  public void testSendTimeout() throws IOException {
+    SendReceiveListener listener = new SendReceiveListener();
+
+    // Messages can't be sent without a SOCKS proxy
+    manager = new ConnectionManager(1000, listener, listener, null);// Dummy port
+    manager.start();
+
+    Identifier destination = new Identifier("aaaaaaaaaaaaaaaa.onion");
+    long timeout = 300;
+
+    long start = System.currentTimeMillis();
+    manager.send(new byte[] {0x1}, destination, 10 * timeout);
+    long id = manager.send(new byte[] {0x1}, destination, timeout);
+
+    while (listener.sent.get() == 0
+        && System.currentTimeMillis() - start < TestConstants.listenerTimeout) {
+      TestHelper.sleep(5);
+    }
+
+    long elapsed = System.currentTimeMillis() - start;
+
+    // The timeout is reported close to the deadline and not with the next retry
+    assertEquals(1, listener.sent.get());
+    assertEquals(id, listener.getId());
+    assertEquals(SendListener.State.TIMEOUT, listener.getState());
+    assertTrue(elapsed >= timeout);
+    assertTrue("Timeout reported after " + elapsed + " ms", elapsed < timeout + 200);
+  }
+
   @Test(expected = IllegalArgumentException.class)
   public void invalidLocalIdentifier() {
     SendReceiveListener listener = new SendReceiveListener();
@@ -0,0 +1,215 @@
+package edu.kit.tm.ptp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class MessageQueueContainerTest {
+  private static final Identifier source = new Identifier("aaaaaaaaaaaaaaaa.onion");
+
+  private MessageQueueContainer container;
+  private AtomicInteger received;
+
+  @Before
+  public void setUp() {
+    container = new MessageQueueContainer();
+    received = new AtomicInteger(0);
+  }
+
+  @Test
+  public void testSubclassDispatch() {
+    container.putListener(Number.class, new MessageReceivedListener<Number>() {
+      @Override
+      public void messageReceived(Number message, Identifier source) {
+        received.incrementAndGet();
+      }
+    });
+    container.addMessageQueue(CharSequence.class);
+
+    assertEquals(true, container.deliver(Integer.valueOf(1), source, 0));
+    assertEquals(1, received.get());
+
+    assertEquals(true, container.deliver("Hallo", source, 0));
+    assertEquals(1, received.get());
+    assertEquals("Hallo", container.pollMessage(CharSequence.class).getData());
+
+    assertEquals(false, container.deliver(Boolean.TRUE, source, 0));
+  }
+
+  @Test
+  public void testRegisterAfterDispatch() {
+    assertEquals(false, container.deliver(Integer.valueOf(1), source, 0));
+
+    container.addMessageQueue(Integer.class);
+
+    assertEquals(true, container.hasQueue(Integer.valueOf(1)));
+    assertEquals(true, container.deliver(Integer.valueOf(1), source, 0));
+    assertEquals(true, container.hasMessage(Integer.class));
+  }
+
+  @Test
+  public void testTakeMessage() throws InterruptedException {
+    container.addMessageQueue(Integer.class);
+    final IMessageQueue<Integer> queue = new MessageQueue<>(Integer.class, container);
+
+    Thread producer = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          Thread.sleep(100);
+        } catch (InterruptedException e) {
+          // Do nothing
+        }
+        container.deliver(Integer.valueOf(42), source, 0);
+      }
+    });
+    producer.start();
+
+    // Waits for the producer
+    assertEquals(Integer.valueOf(42), queue.takeMessage().getData());
+    producer.join();
+  }
+
+  @Test
+  public void testPollTimeout() throws InterruptedException {
+    container.addMessageQueue(Integer.class);
+    IMessageQueue<Integer> queue = new MessageQueue<>(Integer.class, container);
+
+    long start = System.currentTimeMillis();
+    assertEquals(null, queue.pollMessage(100, TimeUnit.MILLISECONDS));
+    assertTrue(System.currentTimeMillis() - start >= 90);
+
+    container.deliver(Integer.valueOf(1), source, 0);
+    assertEquals(Integer.valueOf(1), queue.pollMessage(100, TimeUnit.MILLISECONDS).getData());
+  }
+
+  @Test
+  public void testDrainTo() {
+    container.addMessageQueue(Integer.class);
+    IMessageQueue<Integer> queue = new MessageQueue<>(Integer.class, container);
+
+    for (int i = 0; i < 10; i++) {
+      container.deliver(Integer.valueOf(i), source, 0);
+    }
+
+    List<QueuedMessage<Integer>> messages = new ArrayList<>();
+    assertEquals(8, queue.drainTo(messages, 8));
+    assertEquals(2, queue.drainTo(messages, 8));
+    assertEquals(0, queue.drainTo(messages, 8));
+    assertEquals(false, queue.hasMessage());
+
+    for (int i = 0; i < 10; i++) {
+      assertEquals(Integer.valueOf(i), messages.get(i).getData());
+    }
+  }
+
+  @Test
+  public void testCapacity() {
+    container.addMessageQueue(Integer.class, 3);
+
+    for (int i = 0; i < 5; i++) {
+      // Messages which don't fit are dropped
+      container.deliver(Integer.valueOf(i), source, 0);
+    }
+
+    List<QueuedMessage<Integer>> messages = new ArrayList<>();
+    assertEquals(3, container.drainTo(Integer.class, messages, 10));
+    assertEquals(Integer.valueOf(2), messages.get(2).getData());
+
+    container.addMessageQueue(Long.class);
+    container.deliver(Long.valueOf(1), source, 0);
+    container.setCapacity(Long.class, 1);
+    container.deliver(Long.valueOf(2), source, 0);
+
+    assertEquals(Long.valueOf(1), container.pollMessage(Long.class).getData());
+    assertEquals(null, container.pollMessage(Long.class));
+  }
+
+  @Test
+  public void testSetCapacityWhileWaiting() throws InterruptedException {
+    container.addMessageQueue(Integer.class);
+    final IMessageQueue<Integer> queue = new MessageQueue<>(Integer.class, container);
+    final List<Integer> taken = new ArrayList<>();
+
+    Thread consumer = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          taken.add(queue.takeMessage().getData());
+        } catch (InterruptedException e) {
+          // Do nothing
+        }
+      }
+    });
+    consumer.start();
+    Thread.sleep(50);
+
+    // The waiting consumer still receives messages
+    container.setCapacity(Integer.class, 1);
+    container.deliver(Integer.valueOf(42), source, 0);
+    consumer.join(5000);
+
+    assertEquals(false, consumer.isAlive());
+    assertEquals(Integer.valueOf(42), taken.get(0));
+  }
+
+  /**
+   * Checks that the handler of a class is resolved once instead of on every dispatch,
+   * however many types are registered.
+   */
+  @Test
+  public void testResolveOnce() {
+    final AtomicInteger resolved = new AtomicInteger(0);
+    MessageQueueContainer counting = new MessageQueueContainer() {
+      @Override
+      protected Queue<Object> getQueueOrNull(Class<?> type) {
+        resolved.incrementAndGet();
+        return super.getQueueOrNull(type);
+      }
+    };
+
+    // Nested array types are distinct classes
+    final int depth = 250;
+
+    for (int i = 1; i <= depth; i++) {
+      register(counting, arrayType(int.class, i));
+    }
+
+    Object message = Array.newInstance(int.class, new int[depth]);
+
+    for (int i = 0; i < 1000; i++) {
+      assertEquals(true, counting.deliver(message, source, 0));
+    }
+
+    assertEquals(1000, received.get());
+    assertEquals(1, resolved.get());
+
+    // Registering a type discards the resolved handlers
+    register(counting, Integer.class);
+    counting.deliver(message, source, 0);
+    counting.deliver(message, source, 0);
+    assertEquals(2, resolved.get());
+  }
+
+  private static Class<?> arrayType(Class<?> component, int dimensions) {
+    return Array.newInstance(component, new int[dimensions]).getClass();
+  }
+
+  private <T> void register(MessageQueueContainer container, Class<T> type) {
+    container.putListener(type, new MessageReceivedListener<T>() {
+      @Override
+      public void messageReceived(T message, Identifier source) {
+        received.incrementAndGet();
+      }
+    });
+  }
+}
@@ -1,7 +1,9 @@
 package edu.kit.tm.ptp;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -18,6 +20,8 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
@@ -27,14 +31,25 @@ import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.SocketException;
 import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * This class offers JUnit testing for the PTP class.
@@ -462,6 +477,90 @@ public class PTPTest {
     assertTrue(sourceMatches.get());
   }
 
+  /**
+   * Tests that the futures of messages sent asynchronously are completed with the result
+   * reported to the SendListener.
+   */
+  @Test
+  public void testSendMessageAsync() throws Exception {
+    client1.init();
+    client2.init();
+
+    client1.reuseHiddenService();
+    client2.reuseHiddenService();
+
+    SendReceiveListener listener = new SendReceiveListener();
+    client1.setSendListener(listener);
+
+    client1.registerClass(Message.class);
+    client2.registerClass(Message.class);
+    client2.enableMessageQueue(Message.class);
+
+    CompletableFuture<SendListener.State> invalid =
+        client1.sendMessageAsync(new Message(1), new Identifier("12345"));
+    assertEquals(SendListener.State.INVALID_DESTINATION,
+        invalid.get(TestConstants.listenerTimeout, TimeUnit.MILLISECONDS));
+
+    CompletableFuture<SendListener.State> sent =
+        client1.sendMessageAsync(new Message(2), client2.getIdentifier());
+    assertEquals(SendListener.State.SUCCESS,
+        sent.get(TestConstants.hiddenServiceSetupTimeout, TimeUnit.MILLISECONDS));
+
+    // The listener is informed about both messages as well
+    TestHelper.wait(listener.sent, 2, TestConstants.listenerTimeout);
+    assertEquals(2, listener.sent.get());
+    assertEquals(SendListener.State.SUCCESS, listener.getState());
+
+    QueuedMessage<Message> message = client2.getMessageQueue(Message.class)
+        .pollMessage(TestConstants.listenerTimeout, TimeUnit.MILLISECONDS);
+    assertNotNull(message);
+    assertEquals(2, message.getData().id);
+  }
+
+  /**
+   * Tests sending an object to several destinations at once.
+   */
+  @Test
+  public void testSendMessageMulticast() throws IOException {
+    client1.init();
+    client2.init();
+
+    client1.reuseHiddenService();
+    client2.reuseHiddenService();
+
+    SendReceiveListener listener = new SendReceiveListener();
+    client1.setSendListener(listener);
+
+    final AtomicInteger received = new AtomicInteger(0);
+
+    client1.registerClass(Message.class);
+    client2.registerClass(Message.class);
+    client2.setReceiveListener(Message.class, new MessageReceivedListener<Message>() {
+      @Override
+      public void messageReceived(Message message, Identifier source) {
+        received.incrementAndGet();
+      }
+    });
+
+    Identifier invalid = new Identifier("12345");
+    List<Identifier> destinations = new ArrayList<Identifier>();
+    destinations.add(client2.getIdentifier());
+    destinations.add(invalid);
+    // Destinations are only sent to once
+    destinations.add(client2.getIdentifier());
+
+    Map<Identifier, Long> ids = client1.sendMessage(new Message(1), destinations);
+
+    assertEquals(2, ids.size());
+    assertNotEquals(ids.get(invalid), ids.get(client2.getIdentifier()));
+
+    TestHelper.wait(listener.sent, 2, TestConstants.hiddenServiceSetupTimeout);
+    TestHelper.wait(received, 1, TestConstants.listenerTimeout);
+
+    assertEquals(2, listener.sent.get());
+    assertEquals(1, received.get());
+  }
+
   /**
    * Tests identifier reuse.
    */
@@ -600,6 +699,31 @@ public class PTPTest {
     sendPostAuth(new byte[][] {new byte[] {}, new byte[] {0x0}});
   }
 
+  @Test
+  public void testSendEmptyRawMessage() throws IOException {
+    client1.init();
+    client2.init();
+
+    client1.reuseHiddenService();
+    client2.reuseHiddenService();
+
+    SendReceiveListener listener = new SendReceiveListener();
+
+    client1.setSendListener(listener);
+    client2.setReceiveListener(listener);
+
+    assertNotNull(client2.getIdentifier());
+
+    // Unlike an IsAliveMessage an empty raw message is passed to the listener
+    client1.sendMessage(new byte[0], client2.getIdentifier());
+
+    TestHelper.wait(listener.sent, 1, TestConstants.hiddenServiceSetupTimeout);
+    assertEquals(1, listener.sent.get());
+
+    TestHelper.wait(listener.received, 1, TestConstants.listenerTimeout);
+    assertEquals(1, listener.received.get());
+  }
+
   private void sendPostAuth(byte[][] data) throws IOException {
     client1.init();
     client2.init();
@@ -627,6 +751,127 @@ public class PTPTest {
     assertEquals(0, listener.received.get());
   }
 
+  @Test
+  public void testSendFile() throws IOException {
+    byte[] data = new byte[5 * TransferManager.chunkSize + 42];
+    new Random().nextBytes(data);
+
+    File file = File.createTempFile("PTPTest", "transfer");
+    file.deleteOnExit();
+    Files.write(file.toPath(), data);
+
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      sendTransfer(data, channel, null);
+    }
+  }
+
+  @Test
+  public void testSendStream() throws IOException {
+    byte[] data = new byte[3 * TransferManager.chunkSize];
+    new Random().nextBytes(data);
+
+    sendTransfer(data, null, new ByteArrayInputStream(data));
+  }
+
+  private void sendTransfer(byte[] data, FileChannel file, InputStream stream)
+      throws IOException {
+    client1.init();
+    client2.init();
+
+    client1.reuseHiddenService();
+    client2.reuseHiddenService();
+
+    final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    final AtomicBoolean finished = new AtomicBoolean(false);
+    final AtomicBoolean success = new AtomicBoolean(false);
+
+    client2.setTransferListener(new TransferListener() {
+      @Override
+      public WritableByteChannel transferStarted(long transferId, Identifier source,
+          long size) {
+        return Channels.newChannel(output);
+      }
+
+      @Override
+      public void transferFinished(long transferId, Identifier source, boolean result) {
+        success.set(result);
+        finished.set(true);
+      }
+    });
+
+    SendReceiveListener listener = new SendReceiveListener();
+    client1.setSendListener(listener);
+
+    long id;
+
+    if (file != null) {
+      id = client1.sendFile(file, client2.getIdentifier(), -1);
+    } else {
+      id = client1.sendStream(stream, client2.getIdentifier(), -1);
+    }
+
+    TestHelper.wait(finished, TestConstants.hiddenServiceSetupTimeout);
+    TestHelper.wait(listener.sent, 1, TestConstants.listenerTimeout);
+
+    assertTrue(success.get());
+    assertArrayEquals(data, output.toByteArray());
+
+    // Only the transfer itself is reported
+    assertEquals(1, listener.sent.get());
+    assertEquals(id, listener.getId());
+    assertEquals(SendListener.State.SUCCESS, listener.getState());
+  }
+
+  @Test
+  public void testOpenStream() throws IOException, InterruptedException {
+    client1.init();
+    client2.init();
+
+    client1.reuseHiddenService();
+    client2.reuseHiddenService();
+
+    final AtomicReference<LogicalStream> remote = new AtomicReference<>();
+
+    client2.setStreamListener(new StreamListener() {
+      @Override
+      public void streamOpened(LogicalStream stream) {
+        remote.set(stream);
+      }
+    });
+
+    byte[] data = new byte[3 * StreamManager.window];
+    new Random().nextBytes(data);
+
+    LogicalStream stream = client1.openStream(client2.getIdentifier(), -1);
+    // The receiver reads concurrently, otherwise the writer waits for credit
+    final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    Thread reader = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          while (remote.get() == null) {
+            Thread.sleep(10);
+          }
+
+          byte[] chunk;
+          while ((chunk = remote.get().read()) != null) {
+            output.write(chunk);
+          }
+        } catch (IOException | InterruptedException e) {
+          // Checked by comparing the output
+        }
+      }
+    });
+    reader.start();
+
+    stream.write(data);
+    stream.close();
+
+    reader.join(TestConstants.hiddenServiceSetupTimeout);
+    assertArrayEquals(data, output.toByteArray());
+    assertEquals(client1.getIdentifier(), remote.get().getDestination());
+  }
+
   @Test
   public void testDeleteHiddenService() throws IOException {
     client1.init();
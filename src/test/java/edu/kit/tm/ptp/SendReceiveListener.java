@@ -1,8 +1,12 @@
 package edu.kit.tm.ptp;
 
+import edu.kit.tm.ptp.connection.FrameListener;
+
+import java.nio.ByteBuffer;
 import java.util.concurrent.atomic.AtomicInteger;
 
-public class SendReceiveListener implements SendListener, ReceiveListener {
+public class SendReceiveListener implements SendListener, ReceiveListener,
+    ByteBufferReceiveListener, FrameListener {
   public AtomicInteger sent = new AtomicInteger(0);
   public AtomicInteger received = new AtomicInteger(0);
   private Identifier destination;
@@ -14,6 +18,16 @@ public class SendReceiveListener implements SendListener, ReceiveListener {
     received.incrementAndGet();
   }
 
+  @Override
+  public void messageReceived(ByteBuffer data, Identifier source) {
+    received.incrementAndGet();
+  }
+
+  @Override
+  public void messageReceived(ByteBuffer data, int type, Identifier source) {
+    received.incrementAndGet();
+  }
+
   @Override
   public synchronized void messageSent(long id, Identifier destination, State state) {
     this.id = id;
@@ -0,0 +1,286 @@
+package edu.kit.tm.ptp;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import edu.kit.tm.ptp.SendListener.State;
+import edu.kit.tm.ptp.channels.MessageChannel;
+import edu.kit.tm.ptp.connection.ConnectionManager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Test class for StreamManager. The messages of two managers are passed to each other
+ * without a connection.
+ *
+ * @author Timon Hackenjos
+ */
+public class StreamManagerTest {
+  private static final Identifier identifier1 = new Identifier("aaaaaaaaaaaaaaaa.onion");
+  private static final Identifier identifier2 = new Identifier("bbbbbbbbbbbbbbbb.onion");
+
+  private final BlockingQueue<Runnable> messages = new LinkedBlockingQueue<>();
+  private StreamManager manager1;
+  private StreamManager manager2;
+  private Thread delivery;
+
+  private final AtomicReference<LogicalStream> opened = new AtomicReference<>();
+
+  private class LinkedConnectionManager extends ConnectionManager {
+    private final Identifier local;
+    private StreamManager self;
+    private StreamManager peer;
+
+    public LinkedConnectionManager(Identifier local) {
+      super(1000, new SendReceiveListener(), new SendReceiveListener(), null);
+      this.local = local;
+    }
+
+    @Override
+    public long send(final byte[] data, int type, int priority, Identifier destination,
+        long timeout, boolean informSendListener) {
+      assertEquals(MessageChannel.TYPE_STREAM, type);
+
+      final long id = newMessageId();
+      messages.add(new Runnable() {
+        @Override
+        public void run() {
+          peer.messageReceived(ByteBuffer.wrap(data), local);
+          self.messageSent(id, local, State.SUCCESS);
+        }
+      });
+
+      return id;
+    }
+  }
+
+  @Before
+  public void setUp() {
+    LinkedConnectionManager connection1 = new LinkedConnectionManager(identifier1);
+    LinkedConnectionManager connection2 = new LinkedConnectionManager(identifier2);
+    manager1 = new StreamManager(connection1);
+    manager2 = new StreamManager(connection2);
+    connection1.self = manager1;
+    connection1.peer = manager2;
+    connection2.self = manager2;
+    connection2.peer = manager1;
+
+    manager2.setStreamListener(new StreamListener() {
+      @Override
+      public void streamOpened(LogicalStream stream) {
+        opened.set(stream);
+      }
+    });
+
+    delivery = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          while (true) {
+            messages.take().run();
+          }
+        } catch (InterruptedException e) {
+          // Stop delivering
+        }
+      }
+    });
+    delivery.start();
+  }
+
+  @After
+  public void tearDown() throws InterruptedException {
+    delivery.interrupt();
+    delivery.join();
+    manager1.stop();
+    manager2.stop();
+  }
+
+  @Test
+  public void testTransfer() throws Exception {
+    final byte[] data = new byte[4 * StreamManager.window + 42];
+    new Random().nextBytes(data);
+
+    final LogicalStream stream = manager1.openStream(identifier2, -1);
+    Thread writer = write(stream, data, true);
+
+    LogicalStream remote = waitForStream();
+    assertEquals(identifier1, remote.getDestination());
+    assertEquals(stream.getId(), remote.getId());
+
+    assertArrayEquals(data, readAll(remote));
+    writer.join(5000);
+
+    // The other direction works independently
+    remote.write(new byte[] {1, 2, 3});
+    remote.close();
+    assertArrayEquals(new byte[] {1, 2, 3}, readAll(stream));
+  }
+
+  @Test(timeout = 10000)
+  public void testReadInListener() throws Exception {
+    final BlockingQueue<byte[]> read = new LinkedBlockingQueue<>();
+    manager2.setStreamListener(new StreamListener() {
+      @Override
+      public void streamOpened(LogicalStream stream) {
+        try {
+          read.add(readAll(stream));
+        } catch (IOException | InterruptedException e) {
+          // Do nothing
+        }
+      }
+    });
+
+    // The delivery thread keeps passing on data while the listener reads
+    LogicalStream stream = manager1.openStream(identifier2, -1);
+    stream.write(new byte[] {1, 2, 3});
+    stream.close();
+
+    assertArrayEquals(new byte[] {1, 2, 3}, read.poll(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testCredit() throws Exception {
+    final byte[] data = new byte[StreamManager.window + 1];
+    LogicalStream stream = manager1.openStream(identifier2, -1);
+    Thread writer = write(stream, data, false);
+    LogicalStream remote = waitForStream();
+
+    // The writer waits for credit as long as nothing is read
+    writer.join(200);
+    assertEquals(true, writer.isAlive());
+
+    int read = 0;
+    while (read < StreamManager.window) {
+      read += remote.read(1, TimeUnit.SECONDS).length;
+    }
+
+    assertEquals(StreamManager.window, read);
+    writer.join(5000);
+    assertEquals(false, writer.isAlive());
+    assertEquals(1, remote.read(1, TimeUnit.SECONDS).length);
+  }
+
+  @Test
+  public void testReadTimeout() throws Exception {
+    manager1.openStream(identifier2, -1);
+    LogicalStream remote = waitForStream();
+
+    try {
+      remote.read(50, TimeUnit.MILLISECONDS);
+      assertTrue(false);
+    } catch (InterruptedIOException e) {
+      // Expected
+    }
+  }
+
+  @Test
+  public void testRefused() throws Exception {
+    manager2.setStreamListener(null);
+    LogicalStream stream = manager1.openStream(identifier2, -1);
+
+    waitForReset(stream);
+
+    try {
+      stream.write(new byte[1]);
+      assertTrue(false);
+    } catch (IOException e) {
+      // Expected
+    }
+  }
+
+  @Test
+  public void testReset() throws Exception {
+    LogicalStream stream = manager1.openStream(identifier2, -1);
+    LogicalStream remote = waitForStream();
+
+    remote.reset();
+    waitForReset(stream);
+    assertEquals(true, stream.isClosed());
+  }
+
+  @Test
+  public void testSendFailure() throws Exception {
+    final long[] id = new long[1];
+    ConnectionManager failing = new ConnectionManager(1000, new SendReceiveListener(),
+        new SendReceiveListener(), null) {
+      @Override
+      public long send(byte[] data, int type, int priority, Identifier destination,
+          long timeout, boolean informSendListener) {
+        id[0] = newMessageId();
+        return id[0];
+      }
+    };
+    StreamManager manager = new StreamManager(failing);
+    LogicalStream stream = manager.openStream(identifier2, 100);
+
+    assertEquals(true, manager.messageSent(id[0], identifier2, State.TIMEOUT));
+    assertEquals(true, stream.isReset());
+    assertEquals(false, manager.messageSent(id[0] + 42, identifier2, State.SUCCESS));
+  }
+
+  private Thread write(final LogicalStream stream, final byte[] data, final boolean close) {
+    Thread writer = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          stream.write(data);
+
+          if (close) {
+            stream.close();
+          }
+        } catch (IOException | InterruptedException e) {
+          // Do nothing
+        }
+      }
+    });
+    writer.start();
+    return writer;
+  }
+
+  private byte[] readAll(LogicalStream stream) throws IOException, InterruptedException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    byte[] chunk;
+
+    while ((chunk = stream.read(5, TimeUnit.SECONDS)) != null) {
+      assertTrue(chunk.length <= StreamManager.chunkSize);
+      output.write(chunk);
+    }
+
+    return output.toByteArray();
+  }
+
+  private LogicalStream waitForStream() throws InterruptedException {
+    long start = System.currentTimeMillis();
+
+    while (opened.get() == null && System.currentTimeMillis() - start < 5000) {
+      Thread.sleep(10);
+    }
+
+    assertNotNull(opened.get());
+    return opened.get();
+  }
+
+  private void waitForReset(LogicalStream stream) throws InterruptedException {
+    long start = System.currentTimeMillis();
+
+    while (!stream.isReset() && System.currentTimeMillis() - start < 5000) {
+      Thread.sleep(10);
+    }
+
+    assertEquals(true, stream.isReset());
+  }
+}
@@ -0,0 +1,281 @@
+package edu.kit.tm.ptp;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import edu.kit.tm.ptp.connection.ConnectionManager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test class for the receiving side of TransferManager.
+ *
+ * @author Timon Hackenjos
+ */
+public class TransferManagerTest {
+  private static final byte START = 0;
+  private static final byte DATA = 1;
+  private static final byte END = 2;
+  private static final byte FAILED = 4;
+
+  private final Identifier source = new Identifier("aaaaaaaaaaaaaaaa.onion");
+  private final BlockingQueue<Boolean> results = new LinkedBlockingQueue<>();
+  private ConnectionManager connectionManager;
+  private TransferManager manager;
+  private ExecutorService executor = null;
+
+  @Before
+  public void setUp() {
+    connectionManager = new ConnectionManager(1000, new SendReceiveListener(),
+        new SendReceiveListener(), null);
+    manager = new TransferManager(connectionManager, new SendListenerAdapter(), null);
+  }
+
+  @After
+  public void tearDown() {
+    manager.stop();
+
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test(timeout = 10000)
+  public void testSlowChannel() throws Exception {
+    final CountDownLatch blocked = new CountDownLatch(1);
+    final ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+    setChannel(new TestChannel() {
+      @Override
+      public int write(ByteBuffer src) throws IOException {
+        try {
+          blocked.await();
+        } catch (InterruptedException e) {
+          throw new IOException(e);
+        }
+
+        int count = src.remaining();
+        byte[] bytes = new byte[count];
+        src.get(bytes);
+        output.write(bytes);
+        return count;
+      }
+    });
+
+    byte[] data = new byte[] {1, 2, 3, 4, 5};
+
+    // Receiving doesn't wait for the channel
+    receive(START, 5, new byte[0]);
+    receive(DATA, 0, new byte[] {1, 2});
+    receive(DATA, 2, new byte[] {3, 4, 5});
+    receive(END, 5, new byte[0]);
+    assertEquals(0, output.size());
+
+    blocked.countDown();
+    assertEquals(true, results.poll(5, TimeUnit.SECONDS));
+    assertArrayEquals(data, output.toByteArray());
+  }
+
+  @Test(timeout = 10000)
+  public void testChannelNotAccepting() throws Exception {
+    setChannel(new TestChannel() {
+      @Override
+      public int write(ByteBuffer src) {
+        return 0;
+      }
+    });
+
+    receive(START, 1, new byte[0]);
+    receive(DATA, 0, new byte[] {1});
+    receive(END, 1, new byte[0]);
+
+    assertEquals(false, results.poll(5, TimeUnit.SECONDS));
+  }
+
+  @Test(timeout = 10000)
+  public void testTooManyChunks() throws Exception {
+    final CountDownLatch blocked = new CountDownLatch(1);
+
+    setChannel(new TestChannel() {
+      @Override
+      public int write(ByteBuffer src) throws IOException {
+        try {
+          blocked.await();
+        } catch (InterruptedException e) {
+          throw new IOException(e);
+        }
+
+        int count = src.remaining();
+        src.position(src.limit());
+        return count;
+      }
+    });
+
+    int chunks = TransferManager.maxQueuedChunks + 2;
+    receive(START, chunks, new byte[0]);
+
+    for (int i = 0; i < chunks; i++) {
+      receive(DATA, i, new byte[1]);
+    }
+
+    receive(END, chunks, new byte[0]);
+    blocked.countDown();
+
+    assertEquals(false, results.poll(5, TimeUnit.SECONDS));
+    assertTrue(results.isEmpty());
+  }
+
+  @Test(timeout = 10000)
+  public void testTooManyTransfers() throws Exception {
+    setChannel(new TestChannel() {
+      @Override
+      public int write(ByteBuffer src) {
+        int count = src.remaining();
+        src.position(src.limit());
+        return count;
+      }
+    });
+
+    int transfers = TransferManager.maxIncomingTransfers + 1;
+
+    for (int i = 0; i < transfers; i++) {
+      receive(i, START, 1, new byte[0]);
+    }
+
+    // The last transfer has been refused
+    for (int i = 0; i < transfers; i++) {
+      receive(i, DATA, 0, new byte[1]);
+      receive(i, END, 1, new byte[0]);
+    }
+
+    for (int i = 0; i < transfers - 1; i++) {
+      assertEquals(true, results.poll(5, TimeUnit.SECONDS));
+    }
+
+    assertEquals(null, results.poll(500, TimeUnit.MILLISECONDS));
+  }
+
+  @Test(timeout = 10000)
+  public void testListenerThread() throws Exception {
+    executor = Executors.newSingleThreadExecutor();
+    manager.stop();
+    manager = new TransferManager(connectionManager, new SendListenerAdapter(),
+        new CallbackDispatcher(executor), null);
+
+    final Thread receiving = Thread.currentThread();
+    final BlockingQueue<Thread> threads = new LinkedBlockingQueue<>();
+    final ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+    manager.setTransferListener(new TransferListener() {
+      @Override
+      public WritableByteChannel transferStarted(long transferId, Identifier source, long size) {
+        threads.add(Thread.currentThread());
+        return new TestChannel() {
+          @Override
+          public int write(ByteBuffer src) {
+            int count = src.remaining();
+            byte[] bytes = new byte[count];
+            src.get(bytes);
+            output.write(bytes, 0, count);
+            return count;
+          }
+        };
+      }
+
+      @Override
+      public void transferFinished(long transferId, Identifier source, boolean success) {
+        results.add(success);
+      }
+    });
+
+    // Chunks received before the listener returned the channel are queued
+    receive(START, 3, new byte[0]);
+    receive(DATA, 0, new byte[] {1, 2, 3});
+    receive(END, 3, new byte[0]);
+
+    assertEquals(true, results.poll(5, TimeUnit.SECONDS));
+    assertArrayEquals(new byte[] {1, 2, 3}, output.toByteArray());
+    assertTrue(threads.take() != receiving);
+  }
+
+  @Test(timeout = 10000)
+  public void testTransferFailed() throws Exception {
+    final BlockingQueue<SendListener.State> states = new LinkedBlockingQueue<>();
+    manager.stop();
+    manager = new TransferManager(connectionManager, new SendListener() {
+      @Override
+      public void messageSent(long id, Identifier destination, State state) {
+        states.add(state);
+      }
+    }, null);
+
+    File file = File.createTempFile("transfer", null);
+    file.deleteOnExit();
+
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      raf.setLength(4 * TransferManager.chunkSize);
+      FileChannel channel = raf.getChannel();
+      manager.sendFile(channel, source, 60 * 1000);
+
+      // The receiver tells the sender that the first transfer failed
+      receive(0, FAILED, 0, new byte[0]);
+
+      assertEquals(SendListener.State.TIMEOUT, states.poll(5, TimeUnit.SECONDS));
+    }
+  }
+
+  private void setChannel(final WritableByteChannel channel) {
+    manager.setTransferListener(new TransferListener() {
+      @Override
+      public WritableByteChannel transferStarted(long transferId, Identifier source, long size) {
+        return channel;
+      }
+
+      @Override
+      public void transferFinished(long transferId, Identifier source, boolean success) {
+        results.add(success);
+      }
+    });
+  }
+
+  private void receive(byte kind, long value, byte[] data) {
+    receive(42, kind, value, data);
+  }
+
+  private void receive(long id, byte kind, long value, byte[] data) {
+    ByteBuffer message = ByteBuffer.allocate(8 + 1 + 8 + data.length);
+    message.putLong(id);
+    message.put(kind);
+    message.putLong(value);
+    message.put(data);
+    message.flip();
+    manager.messageReceived(message, source);
+  }
+
+  private abstract static class TestChannel implements WritableByteChannel {
+    @Override
+    public boolean isOpen() {
+      return true;
+    }
+
+    @Override
+    public void close() {}
+  }
+}
@@ -7,6 +7,7 @@ import edu.kit.tm.ptp.Identifier;
 import edu.kit.tm.ptp.PTP;
 import edu.kit.tm.ptp.auth.PublicKeyAuthenticator.AuthenticationMessage;
 import edu.kit.tm.ptp.crypt.CryptHelper;
+import edu.kit.tm.ptp.serialization.Serializer;
 import edu.kit.tm.ptp.utility.Constants;
 
 import org.junit.After;
@@ -323,6 +324,67 @@ public class PublicKeyAuthenticatorTest {
     assertArrayEquals(hash, decryptedHash);
   }
 
+  @Test
+  public void testExtension() throws IOException, GeneralSecurityException {
+    auth.own = ptp1.getIdentifier();
+    auth.other = ptp2.getIdentifier();
+    auth.setStripe(42, 3);
+    byte[] data = auth.serialize(auth.createAuthenticationMessage());
+
+    // Older versions ignore the extension
+    AuthenticationMessage authMessage = deserialize(data);
+    auth2.own = ptp2.getIdentifier();
+
+    assertEquals(true, auth2.authenticationMessageValid(authMessage));
+    assertEquals(true, auth2.readExtension(ByteBuffer.wrap(data), authMessage));
+    assertEquals(42, auth2.getStripeGroup());
+    assertEquals(3, auth2.getStripe());
+  }
+
+  @Test
+  public void testWithoutExtension() throws IOException, GeneralSecurityException {
+    auth.own = ptp1.getIdentifier();
+    auth.other = ptp2.getIdentifier();
+    AuthenticationMessage authMessage = auth.createAuthenticationMessage();
+    byte[] data = serializer().serialize(authMessage);
+
+    auth2.own = ptp2.getIdentifier();
+
+    assertEquals(true, auth2.readExtension(ByteBuffer.wrap(data), authMessage));
+    assertEquals(0, auth2.getStripeGroup());
+  }
+
+  @Test
+  public void testChangeExtension() throws IOException, GeneralSecurityException {
+    auth.own = ptp1.getIdentifier();
+    auth.other = ptp2.getIdentifier();
+    auth.setStripe(42, 3);
+    byte[] data = auth.serialize(auth.createAuthenticationMessage());
+    AuthenticationMessage authMessage = deserialize(data);
+    auth2.own = ptp2.getIdentifier();
+
+    // change the index of the channel
+    ByteBuffer buffer = ByteBuffer.wrap(data);
+    int length = buffer.getInt(data.length - 8);
+    int index = data.length - 8 - length + 1 + 1 + 8;
+    buffer.putInt(index, 4);
+
+    assertEquals(false, auth2.readExtension(buffer, authMessage));
+    assertEquals(0, auth2.getStripeGroup());
+  }
+
+  private static Serializer serializer() {
+    Serializer serializer = new Serializer();
+    serializer.registerClass(Identifier.class);
+    serializer.registerClass(byte[].class);
+    serializer.registerClass(AuthenticationMessage.class);
+    return serializer;
+  }
+
+  private static AuthenticationMessage deserialize(byte[] data) throws IOException {
+    return (AuthenticationMessage) serializer().deserialize(data);
+  }
+
   private String toHex(byte[] bytes) {
     StringBuilder sb = new StringBuilder();
     for (byte b : bytes) {
@@ -0,0 +1,111 @@
+package edu.kit.tm.ptp.channels;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+public class BufferPoolTest {
+
+  @Test
+  public void testAcquire() {
+    BufferPool pool = new BufferPool(1024);
+
+    ByteBuffer buffer = pool.acquire(100);
+    assertEquals(0, buffer.position());
+    assertEquals(100, buffer.limit());
+    assertEquals(128, buffer.capacity());
+
+    buffer = pool.acquire(0);
+    assertEquals(0, buffer.limit());
+
+    buffer = pool.acquire(2000);
+    assertEquals(2000, buffer.capacity());
+  }
+
+  @Test
+  public void testReuse() {
+    BufferPool pool = new BufferPool(1024);
+
+    ByteBuffer buffer = pool.acquire(100);
+    buffer.put((byte) 1);
+    pool.release(buffer);
+    assertEquals(1, pool.getPooledBuffers());
+
+    // Same size class
+    ByteBuffer reused = pool.acquire(120);
+    assertSame(buffer, reused);
+    assertEquals(0, reused.position());
+    assertEquals(120, reused.limit());
+    assertEquals(0, pool.getPooledBuffers());
+
+    // Different size class
+    pool.release(reused);
+    assertNotSame(reused, pool.acquire(500));
+  }
+
+  @Test
+  public void testReleaseForeignBuffers() {
+    BufferPool pool = new BufferPool(1024);
+
+    pool.release(null);
+    pool.release(ByteBuffer.allocate(100));
+    pool.release(ByteBuffer.allocate(2048));
+    pool.release(ByteBuffer.allocate(128).asReadOnlyBuffer());
+    pool.release(pool.acquire(5000));
+
+    assertEquals(0, pool.getPooledBuffers());
+  }
+
+  @Test
+  public void testBounded() {
+    BufferPool pool = new BufferPool(1024, 2, false);
+
+    ByteBuffer[] buffers = new ByteBuffer[5];
+
+    for (int i = 0; i < buffers.length; i++) {
+      buffers[i] = pool.acquire(64);
+    }
+
+    for (ByteBuffer buffer : buffers) {
+      pool.release(buffer);
+    }
+
+    assertEquals(2, pool.getPooledBuffers());
+  }
+
+  @Test
+  public void testDirect() {
+    BufferPool pool = new BufferPool(1024, true);
+
+    ByteBuffer buffer = pool.acquire(100);
+    assertTrue(buffer.isDirect());
+    assertTrue(pool.acquire(2000).isDirect());
+
+    pool.release(ByteBuffer.allocate(128));
+    assertEquals(0, pool.getPooledBuffers());
+
+    pool.release(buffer);
+    assertSame(buffer, pool.acquire(100));
+  }
+
+  @Test
+  public void testPoolingDisabled() {
+    BufferPool pool = new BufferPool(0);
+
+    ByteBuffer buffer = pool.acquire(64);
+    pool.release(buffer);
+
+    assertEquals(0, pool.getPooledBuffers());
+    assertEquals(64, pool.acquire(64).limit());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNegativeLength() {
+    new BufferPool(1024).acquire(-1);
+  }
+}
@@ -1,6 +1,7 @@
 package edu.kit.tm.ptp.channels;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import edu.kit.tm.ptp.PTP;
 import edu.kit.tm.ptp.utility.Constants;
@@ -16,8 +17,14 @@ import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Test class for the ChannelManager.
@@ -154,4 +161,125 @@ public class ChannelManagerTest {
     assertEquals(0, listener.read.get());
     assertEquals(0, listener.write.get());
   }
+
+  @Test
+  public void testSelectorThreads() throws IOException {
+    channelManager.stop();
+    channelManager = new ChannelManager(listener, null, new BufferPool(1024), 3);
+    assertEquals(3, channelManager.getSelectorThreads());
+
+    channelManager.start();
+    channelManager.addServerSocket(server);
+
+    int clients = 6;
+    MessageChannel[] channels = new MessageChannel[clients];
+
+    for (int i = 0; i < clients; i++) {
+      SocketChannel client = SocketChannel.open();
+      client.configureBlocking(false);
+      client.connect(
+          new InetSocketAddress(InetAddress.getLoopbackAddress(), server.socket().getLocalPort()));
+      channels[i] = channelManager.connect(client);
+    }
+
+    // Connected and accepted channels
+    TestHelper.wait(listener.conOpen, 2 * clients, TestConstants.socketConnectTimeout);
+    assertEquals(2 * clients, listener.conOpen.get());
+
+    // Channels are spread evenly over the threads
+    Set<SelectorLoop> loops = new HashSet<>();
+
+    for (MessageChannel channel : channels) {
+      loops.add(channel.getSelectorLoop());
+    }
+
+    assertEquals(3, loops.size());
+
+    // Adding a channel again keeps its thread
+    SelectorLoop loop = channels[0].getSelectorLoop();
+    channelManager.addChannel(channels[0]);
+    assertEquals(loop, channels[0].getSelectorLoop());
+
+    for (MessageChannel channel : channels) {
+      channel.addMessage(new byte[] {0x1}, 0);
+    }
+
+    TestHelper.wait(listener.write, clients, TestConstants.listenerTimeout);
+    assertEquals(clients, listener.write.get());
+  }
+
+  @Test
+  public void testLoadOfQueuedRegistration() throws Exception {
+    SelectorLoop loop = new SelectorLoop(channelManager, null);
+    loop.start();
+
+    try {
+      // The registration is assigned but its event hasn't been added yet
+      loop.assign();
+
+      final CountDownLatch processed = new CountDownLatch(1);
+      loop.addEvent(new ChannelEvent() {
+        @Override
+        public void process(Selector selector) {
+          processed.countDown();
+        }
+      });
+
+      assertTrue(processed.await(5, TimeUnit.SECONDS));
+      assertEquals(1, loop.getLoad());
+
+      SocketChannel client = SocketChannel.open();
+      client.configureBlocking(false);
+      loop.addEvent(new ChannelEventRegister(0, client,
+          new MessageChannel(client, channelManager)));
+
+      long start = System.currentTimeMillis();
+      while (loop.getLoad() != 1 && System.currentTimeMillis() - start < 5000) {
+        TestHelper.sleep(10);
+      }
+
+      // Once processed, the registration is counted by the key set only
+      assertEquals(1, loop.getLoad());
+      client.close();
+    } finally {
+      loop.stop();
+    }
+  }
+
+  @Test
+  public void testDispatchLatency() throws IOException {
+    channelManager.start();
+
+    SocketChannel client = SocketChannel.open();
+    final MessageChannel clientChannel = channelManager.connect(client);
+    client.connect(
+        new InetSocketAddress(InetAddress.getLoopbackAddress(), server.socket().getLocalPort()));
+
+    TestHelper.wait(listener.conOpen, 1, TestConstants.socketConnectTimeout);
+    assertEquals(1, listener.conOpen.get());
+
+    int messages = 200;
+    long[] latencies = new long[messages];
+
+    // Time from queueing a message until the selector thread has written it
+    for (int i = 0; i < messages; i++) {
+      long start = System.nanoTime();
+      clientChannel.addMessage(new byte[] {(byte) i}, i);
+
+      while (listener.write.get() <= i
+          && System.nanoTime() - start < TestConstants.listenerTimeout * 1000000L) {
+        Thread.yield();
+      }
+
+      latencies[i] = System.nanoTime() - start;
+    }
+
+    assertEquals(messages, listener.write.get());
+
+    Arrays.sort(latencies);
+    long median = latencies[messages / 2];
+
+    // Polling the event queue every 100 ms delayed writes by up to 100 ms
+    assertTrue(median < 50 * 1000000L);
+  }
 }
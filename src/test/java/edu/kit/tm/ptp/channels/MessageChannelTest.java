@@ -3,6 +3,7 @@ package edu.kit.tm.ptp.channels;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
 
 import edu.kit.tm.ptp.utility.Constants;
 import edu.kit.tm.ptp.utility.Listener;
@@ -13,11 +14,18 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
 
 public class MessageChannelTest {
   private ServerSocketChannel server = null;
@@ -101,6 +109,532 @@ public class MessageChannelTest {
     assertEquals(c2, listener.getPassedChannel());
   }
 
+  @Test
+  public void testWriteQueuedMessages() throws IOException {
+    SocketChannel client = SocketChannel.open();
+    client.configureBlocking(false);
+    client.connect(
+        new InetSocketAddress(InetAddress.getLoopbackAddress(), server.socket().getLocalPort()));
+
+    SocketChannel serverChannel = server.accept();
+    assertNotEquals(null, serverChannel);
+    serverChannel.configureBlocking(false);
+    client.finishConnect();
+
+    Listener listener = new Listener();
+    ChannelManager manager = new ChannelManager(listener);
+    MessageChannel c1 = new MessageChannel(client, manager);
+    MessageChannel c2 = new MessageChannel(serverChannel, manager);
+
+    int messages = 5;
+
+    // Add several messages without waiting for the previous ones to be sent
+    for (int i = 0; i < messages; i++) {
+      assertEquals(true, c1.addMessage(new byte[] {(byte) i, 0x1, 0x2}, i));
+    }
+
+    assertEquals(messages, c1.getQueuedMessages());
+
+    for (int i = 0; i < 10; i++) {
+      c1.write();
+      TestHelper.sleep(10);
+    }
+
+    assertEquals(messages, listener.write.get());
+    assertEquals(messages - 1, listener.getPassedId());
+    assertEquals(0, c1.getQueuedMessages());
+
+    for (int i = 0; i < 10 * messages; i++) {
+      c2.read();
+      TestHelper.sleep(10);
+    }
+
+    assertEquals(messages, listener.read.get());
+    assertArrayEquals(new byte[] {(byte) (messages - 1), 0x1, 0x2}, listener.getPassedBytes());
+
+    client.close();
+    serverChannel.close();
+  }
+
+  @Test
+  public void testGatheringWrite() throws IOException {
+    SocketChannel client = SocketChannel.open();
+    client.configureBlocking(false);
+    client.connect(
+        new InetSocketAddress(InetAddress.getLoopbackAddress(), server.socket().getLocalPort()));
+
+    SocketChannel serverChannel = server.accept();
+    assertNotEquals(null, serverChannel);
+    serverChannel.configureBlocking(false);
+    client.finishConnect();
+
+    Listener listener = new Listener();
+    ChannelManager manager = new ChannelManager(listener);
+    MessageChannel c1 = new MessageChannel(client, manager);
+    MessageChannel c2 = new MessageChannel(serverChannel, manager);
+
+    // More small messages than fit into a single gathering write
+    int messages = 200;
+
+    for (int i = 0; i < messages; i++) {
+      c1.addMessage(new byte[] {(byte) i}, i);
+    }
+
+    // A single write event flushes all messages the socket accepts
+    c1.write();
+
+    assertEquals(messages, listener.write.get());
+    assertEquals(messages - 1, listener.getPassedId());
+    assertEquals(0, c1.getQueuedMessages());
+
+    for (int i = 0; i < 2 * messages; i++) {
+      c2.read();
+    }
+
+    assertEquals(messages, listener.read.get());
+    assertArrayEquals(new byte[] {(byte) (messages - 1)}, listener.getPassedBytes());
+
+    client.close();
+    serverChannel.close();
+  }
+
+  @Test
+  public void testReadBurst() throws IOException {
+    SocketChannel client = SocketChannel.open();
+    client.configureBlocking(false);
+    client.connect(
+        new InetSocketAddress(InetAddress.getLoopbackAddress(), server.socket().getLocalPort()));
+
+    SocketChannel serverChannel = server.accept();
+    assertNotEquals(null, serverChannel);
+    serverChannel.configureBlocking(false);
+    client.finishConnect();
+
+    Listener listener = new Listener();
+    ChannelManager manager = new ChannelManager(listener);
+    MessageChannel c1 = new MessageChannel(client, manager);
+    MessageChannel c2 = new MessageChannel(serverChannel, manager);
+
+    int messages = 200;
+
+    for (int i = 0; i < messages; i++) {
+      c1.addMessage(new byte[] {(byte) i, 0x1, 0x2}, i);
+    }
+
+    c1.write();
+    TestHelper.sleep(50);
+
+    // A single read event parses all small messages
+    c2.read();
+    assertEquals(messages, listener.read.get());
+    assertArrayEquals(new byte[] {(byte) (messages - 1), 0x1, 0x2}, listener.getPassedBytes());
+
+    // Message spanning several reads
+    byte[] data = new byte[100 * 1024];
+    Arrays.fill(data, (byte) 0x42);
+    c1.addMessage(data, messages);
+    c1.addMessage(new byte[] {0x1}, messages + 1);
+
+    for (int i = 0; i < 100 && listener.read.get() < messages + 2; i++) {
+      c1.write();
+      c2.read();
+      TestHelper.sleep(10);
+    }
+
+    assertEquals(messages + 2, listener.read.get());
+    assertArrayEquals(new byte[] {0x1}, listener.getPassedBytes());
+
+    client.close();
+    serverChannel.close();
+  }
+
+  @Test
+  public void testCompression() throws IOException {
+    SocketChannel client = SocketChannel.open();
+    client.configureBlocking(false);
+    client.connect(
+        new InetSocketAddress(InetAddress.getLoopbackAddress(), server.socket().getLocalPort()));
+
+    SocketChannel serverChannel = server.accept();
+    assertNotEquals(null, serverChannel);
+    serverChannel.configureBlocking(false);
+    client.finishConnect();
+
+    Listener listener = new Listener();
+    ChannelManager manager = new ChannelManager(listener);
+    MessageChannel c1 = new MessageChannel(client, manager);
+    MessageChannel c2 = new MessageChannel(serverChannel, manager);
+
+    c1.enableCompression(64);
+    c2.enableCompression(64);
+
+    byte[] text = new byte[64 * 1024];
+    for (int i = 0; i < text.length; i++) {
+      text[i] = (byte) ('a' + i % 7);
+    }
+
+    byte[] random = new byte[4 * 1024];
+    new Random().nextBytes(random);
+
+    byte[] small = new byte[] {0x1, 0x2, 0x3};
+
+    byte[][] messages = new byte[][] {text, random, small};
+
+    for (int i = 0; i < messages.length; i++) {
+      c1.addMessage(messages[i], MessageChannel.TYPE_RAW, i);
+
+      for (int j = 0; j < 100 && listener.read.get() < i + 1; j++) {
+        c1.write();
+        c2.read();
+        TestHelper.sleep(10);
+      }
+
+      assertEquals(i + 1, listener.read.get());
+      assertArrayEquals(messages[i], listener.getPassedBytes());
+      assertEquals(MessageChannel.TYPE_RAW, listener.getPassedType());
+    }
+
+    client.close();
+    serverChannel.close();
+  }
+
+  @Test
+  public void testCompressedFrame() throws IOException {
+    SocketChannel client = SocketChannel.open();
+    client.configureBlocking(false);
+    client.connect(
+        new InetSocketAddress(InetAddress.getLoopbackAddress(), server.socket().getLocalPort()));
+
+    SocketChannel serverChannel = server.accept();
+    assertNotEquals(null, serverChannel);
+    serverChannel.configureBlocking(false);
+    client.finishConnect();
+
+    Listener listener = new Listener();
+    ChannelManager manager = new ChannelManager(listener);
+    MessageChannel c1 = new MessageChannel(client, manager);
+
+    c1.enableCompression(64);
+
+    byte[] data = new byte[16 * 1024];
+    c1.addMessage(data, 0);
+    c1.write();
+    TestHelper.sleep(50);
+
+    ByteBuffer received = ByteBuffer.allocate(data.length);
+    serverChannel.read(received);
+    received.flip();
+
+    // The flag is set and the frame is considerably smaller than the message
+    int header = received.getInt();
+    assertEquals(1 << 27, header & (1 << 27));
+    assertTrue((header & ((1 << 27) - 1)) < data.length / 10);
+    assertEquals(header & ((1 << 27) - 1), received.remaining());
+    assertEquals(data.length, received.getInt());
+
+    // Compressed frames aren't accepted if compression hasn't been enabled
+    MessageChannel c2 = new MessageChannel(serverChannel, manager);
+    c1.addMessage(data, 1);
+    c1.write();
+    TestHelper.sleep(50);
+    c2.read();
+
+    assertEquals(0, listener.read.get());
+    assertEquals(1, listener.conClosed.get());
+
+    client.close();
+  }
+
+  @Test
+  public void testPriorities() throws IOException {
+    SocketChannel client = SocketChannel.open();
+    client.configureBlocking(false);
+    client.connect(
+        new InetSocketAddress(InetAddress.getLoopbackAddress(), server.socket().getLocalPort()));
+
+    SocketChannel serverChannel = server.accept();
+    assertNotEquals(null, serverChannel);
+    serverChannel.configureBlocking(false);
+    client.finishConnect();
+
+    Listener listener = new Listener();
+    ChannelManager manager = new ChannelManager(listener);
+    MessageChannel c1 = new MessageChannel(client, manager);
+    MessageChannel c2 = new MessageChannel(serverChannel, manager);
+
+    byte[] low = new byte[] {0x1};
+    byte[] normal = new byte[] {0x2};
+    byte[] control = new byte[] {0x3};
+
+    c1.addMessage(low, MessageChannel.TYPE_MESSAGE, MessageChannel.PRIORITY_LOW, 0);
+    c1.addMessage(normal, MessageChannel.TYPE_MESSAGE, MessageChannel.PRIORITY_NORMAL, 1);
+    c1.addMessage(control, MessageChannel.TYPE_MESSAGE, MessageChannel.PRIORITY_CONTROL, 2);
+
+    for (int i = 0; i < 100 && listener.read.get() < 3; i++) {
+      c1.write();
+      c2.read();
+      TestHelper.sleep(10);
+    }
+
+    // The message with the lowest priority is written last
+    assertEquals(3, listener.read.get());
+    assertEquals(0, listener.getPassedId());
+    assertArrayEquals(low, listener.getPassedBytes());
+
+    client.close();
+    serverChannel.close();
+  }
+
+  @Test
+  public void testPrefix() throws IOException {
+    SocketChannel client = SocketChannel.open();
+    client.configureBlocking(false);
+    client.connect(
+        new InetSocketAddress(InetAddress.getLoopbackAddress(), server.socket().getLocalPort()));
+
+    SocketChannel serverChannel = server.accept();
+    assertNotEquals(null, serverChannel);
+    serverChannel.configureBlocking(false);
+    client.finishConnect();
+
+    Listener listener = new Listener();
+    ChannelManager manager = new ChannelManager(listener);
+    MessageChannel c1 = new MessageChannel(client, manager);
+    MessageChannel c2 = new MessageChannel(serverChannel, manager);
+
+    c1.enableCompression(64);
+    c2.enableCompression(64);
+
+    byte[] prefix = new byte[] {0x7, 0x6, 0x5, 0x4, 0x3, 0x2, 0x1, 0x0, 0x7};
+
+    byte[] text = new byte[64 * 1024];
+    for (int i = 0; i < text.length; i++) {
+      text[i] = (byte) ('a' + i % 7);
+    }
+
+    // Fragmented as it can't be compressed
+    byte[] random = new byte[256 * 1024];
+    new Random().nextBytes(random);
+
+    byte[] small = new byte[] {0x1, 0x2, 0x3};
+
+    byte[][] messages = new byte[][] {text, random, small, new byte[0]};
+
+    for (int i = 0; i < messages.length; i++) {
+      c1.addMessage(prefix, messages[i], MessageChannel.TYPE_RAW, MessageChannel.PRIORITY_NORMAL,
+          i);
+
+      for (int j = 0; j < 1000 && listener.read.get() < i + 1; j++) {
+        c1.write();
+        c2.read();
+      }
+
+      byte[] expected = Arrays.copyOf(prefix, prefix.length + messages[i].length);
+      System.arraycopy(messages[i], 0, expected, prefix.length, messages[i].length);
+
+      assertEquals(i + 1, listener.read.get());
+      assertArrayEquals(expected, listener.getPassedBytes());
+    }
+
+    client.close();
+    serverChannel.close();
+  }
+
+  @Test
+  public void testFragmentation() throws IOException {
+    SocketChannel client = SocketChannel.open();
+    client.configureBlocking(false);
+    client.connect(
+        new InetSocketAddress(InetAddress.getLoopbackAddress(), server.socket().getLocalPort()));
+
+    SocketChannel serverChannel = server.accept();
+    assertNotEquals(null, serverChannel);
+    serverChannel.configureBlocking(false);
+    client.finishConnect();
+
+    Listener listener = new Listener();
+    ChannelManager manager = new ChannelManager(listener);
+    MessageChannel c1 = new MessageChannel(client, manager);
+    MessageChannel c2 = new MessageChannel(serverChannel, manager);
+
+    // Exceeds the buffer of the socket
+    byte[] large = new byte[16 * 1024 * 1024];
+    new Random().nextBytes(large);
+    byte[] small = new byte[] {0x1, 0x2, 0x3};
+
+    c1.addMessage(large, MessageChannel.TYPE_RAW, MessageChannel.PRIORITY_LOW, 0);
+    c1.write();
+    assertEquals(0, listener.write.get());
+
+    // Overtakes the remaining fragments of the large message
+    c1.addMessage(small, MessageChannel.TYPE_MESSAGE, MessageChannel.PRIORITY_HIGH, 1);
+
+    for (int i = 0; i < 1000 && listener.read.get() < 2; i++) {
+      c2.read();
+      c1.write();
+    }
+
+    assertEquals(2, listener.read.get());
+    assertEquals(2, listener.write.get());
+    assertEquals(0, listener.getPassedId());
+    assertEquals(MessageChannel.TYPE_RAW, listener.getPassedType());
+    assertArrayEquals(large, listener.getPassedBytes());
+
+    client.close();
+    serverChannel.close();
+  }
+
+  @Test
+  public void testFragmentationPriorities() throws IOException {
+    SocketChannel client = SocketChannel.open();
+    client.configureBlocking(false);
+    client.connect(
+        new InetSocketAddress(InetAddress.getLoopbackAddress(), server.socket().getLocalPort()));
+
+    SocketChannel serverChannel = server.accept();
+    assertNotEquals(null, serverChannel);
+    serverChannel.configureBlocking(false);
+    client.finishConnect();
+
+    Listener listener = new Listener();
+    ChannelManager manager = new ChannelManager(listener);
+    MessageChannel c1 = new MessageChannel(client, manager);
+    MessageChannel c2 = new MessageChannel(serverChannel, manager);
+
+    Random random = new Random();
+    byte[] low = new byte[16 * 1024 * 1024];
+    random.nextBytes(low);
+    byte[] high = new byte[1024 * 1024];
+    random.nextBytes(high);
+
+    c1.addMessage(low, MessageChannel.TYPE_RAW, MessageChannel.PRIORITY_LOW, 0);
+    c1.write();
+    assertEquals(0, listener.write.get());
+
+    // Fragmented as well and overtakes the remaining fragments of the low priority message
+    c1.addMessage(high, MessageChannel.TYPE_MESSAGE, MessageChannel.PRIORITY_HIGH, 1);
+
+    for (int i = 0; i < 1000 && listener.read.get() < 1; i++) {
+      c2.read();
+      c1.write();
+    }
+
+    assertEquals(1, listener.read.get());
+    assertEquals(MessageChannel.TYPE_MESSAGE, listener.getPassedType());
+    assertArrayEquals(high, listener.getPassedBytes());
+
+    for (int i = 0; i < 1000 && listener.read.get() < 2; i++) {
+      c2.read();
+      c1.write();
+    }
+
+    assertEquals(2, listener.read.get());
+    assertEquals(2, listener.write.get());
+    assertEquals(0, listener.getPassedId());
+    assertEquals(MessageChannel.TYPE_RAW, listener.getPassedType());
+    assertArrayEquals(low, listener.getPassedBytes());
+
+    client.close();
+    serverChannel.close();
+  }
+
+  @Test
+  public void testReadDirect() throws IOException {
+    SocketChannel client = SocketChannel.open();
+    client.configureBlocking(false);
+    client.connect(
+        new InetSocketAddress(InetAddress.getLoopbackAddress(), server.socket().getLocalPort()));
+
+    SocketChannel serverChannel = server.accept();
+    assertNotEquals(null, serverChannel);
+    serverChannel.configureBlocking(false);
+    client.finishConnect();
+
+    Listener listener = new Listener();
+    BufferPool pool = new BufferPool(1024, true);
+    ChannelManager manager = new ChannelManager(listener, null, pool);
+    MessageChannel c1 = new MessageChannel(client, manager);
+    MessageChannel c2 = new MessageChannel(serverChannel, manager);
+
+    // Pooled and unpooled message size
+    int[] lengths = new int[] {100, 4096};
+
+    for (int length : lengths) {
+      byte[] data = new byte[length];
+      Arrays.fill(data, (byte) 0x42);
+
+      c1.addMessage(data, length);
+
+      for (int i = 0; i < 10 && listener.read.get() == 0; i++) {
+        c1.write();
+        c2.read();
+        TestHelper.sleep(10);
+      }
+
+      assertEquals(1, listener.read.get());
+      assertArrayEquals(data, listener.getPassedBytes());
+      listener.read.set(0);
+    }
+
+    // The pooled buffer has been released by the listener
+    assertEquals(1, pool.getPooledBuffers());
+
+    client.close();
+    serverChannel.close();
+  }
+
+  @Test
+  public void testWriteFileRegion() throws IOException {
+    SocketChannel client = SocketChannel.open();
+    client.configureBlocking(false);
+    client.connect(
+        new InetSocketAddress(InetAddress.getLoopbackAddress(), server.socket().getLocalPort()));
+
+    SocketChannel serverChannel = server.accept();
+    assertNotEquals(null, serverChannel);
+    serverChannel.configureBlocking(false);
+    client.finishConnect();
+
+    Listener listener = new Listener();
+    ChannelManager manager = new ChannelManager(listener);
+    MessageChannel c1 = new MessageChannel(client, manager);
+    MessageChannel c2 = new MessageChannel(serverChannel, manager);
+
+    byte[] content = new byte[10 * 1024];
+    Arrays.fill(content, (byte) 0x42);
+    byte[] header = new byte[] {0x1, 0x2, 0x3};
+
+    File file = File.createTempFile("MessageChannelTest", "region");
+    file.deleteOnExit();
+    Files.write(file.toPath(), content);
+
+    int position = 100;
+    int count = 8 * 1024;
+
+    try (FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      c1.addMessage(header, fileChannel, position, count, MessageChannel.TYPE_TRANSFER, 7);
+
+      for (int i = 0; i < 100 && listener.read.get() == 0; i++) {
+        c1.write();
+        c2.read();
+        TestHelper.sleep(10);
+      }
+    }
+
+    byte[] expected = new byte[header.length + count];
+    System.arraycopy(header, 0, expected, 0, header.length);
+    System.arraycopy(content, position, expected, header.length, count);
+
+    assertEquals(1, listener.write.get());
+    assertEquals(7, listener.getPassedId());
+    assertEquals(1, listener.read.get());
+    assertEquals(MessageChannel.TYPE_TRANSFER, listener.getPassedType());
+    assertArrayEquals(expected, listener.getPassedBytes());
+
+    client.close();
+    serverChannel.close();
+  }
+
   @Test
   public void testGetChannel() throws IOException {
     SocketChannel client = SocketChannel.open();
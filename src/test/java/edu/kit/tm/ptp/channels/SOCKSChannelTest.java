@@ -1,5 +1,6 @@
 package edu.kit.tm.ptp.channels;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
 import edu.kit.tm.ptp.utility.Constants;
@@ -14,6 +15,7 @@ import org.junit.Test;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 
@@ -52,4 +54,45 @@ public class SOCKSChannelTest {
     assertEquals(false, channel.addMessage(data, 10L));
   }
 
+  @Test
+  public void testUserId() throws IOException {
+    ChannelManager manager = new ChannelManager(new Listener());
+    manager.start();
+
+    try {
+      SocketChannel client = SocketChannel.open(
+          new InetSocketAddress(InetAddress.getLoopbackAddress(), server.socket().getLocalPort()));
+      client.configureBlocking(false);
+
+      SocketChannel proxy = null;
+      long start = System.currentTimeMillis();
+      while (proxy == null
+          && System.currentTimeMillis() - start < TestConstants.socketConnectTimeout) {
+        proxy = server.accept();
+      }
+      assertEquals(true, proxy != null);
+      proxy.configureBlocking(false);
+
+      SOCKSChannel channel = new SOCKSChannel(client, manager);
+      manager.addChannel(channel);
+      channel.connectThroughSOCKS("aaaaaaaaaaaaaaaa.onion", 8081, "stripe");
+
+      // SOCKS4a request with the user id before the host
+      byte[] expected = new byte[] {0x04, 0x01, 0x1f, (byte) 0x91, 0x0, 0x0, 0x0, 0x01,
+          's', 't', 'r', 'i', 'p', 'e', 0x0, 'a', 'a', 'a', 'a', 'a', 'a', 'a', 'a', 'a', 'a',
+          'a', 'a', 'a', 'a', 'a', 'a', '.', 'o', 'n', 'i', 'o', 'n', 0x0};
+      ByteBuffer request = ByteBuffer.allocate(expected.length);
+
+      start = System.currentTimeMillis();
+      while (request.hasRemaining()
+          && System.currentTimeMillis() - start < TestConstants.socketConnectTimeout) {
+        proxy.read(request);
+      }
+
+      assertArrayEquals(expected, request.array());
+      proxy.close();
+    } finally {
+      manager.stop();
+    }
+  }
 }
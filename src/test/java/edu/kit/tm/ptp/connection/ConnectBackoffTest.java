@@ -0,0 +1,76 @@
+package edu.kit.tm.ptp.connection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import edu.kit.tm.ptp.Identifier;
+
+import org.junit.Test;
+
+/**
+ * Test class for ConnectBackoff.
+ *
+ * @author Timon Hackenjos
+ */
+public class ConnectBackoffTest {
+  private final Identifier destination = new Identifier("aaaaaaaaaaaaaaaa.onion");
+
+  @Test
+  public void testExponentialBackoff() {
+    ConnectBackoff backoff = new ConnectBackoff(1000, 10000, 0);
+
+    // First attempt is allowed immediately
+    assertEquals(0, backoff.getDelay(destination, 0));
+
+    long[] expected = new long[] {1000, 2000, 4000, 8000, 10000, 10000};
+    long now = 0;
+
+    for (long interval : expected) {
+      assertEquals(interval, backoff.attempt(destination, now));
+      assertEquals(interval, backoff.getDelay(destination, now));
+      assertEquals(interval / 2, backoff.getDelay(destination, now + interval / 2));
+      now += interval;
+      assertEquals(0, backoff.getDelay(destination, now));
+    }
+
+    // Other destinations aren't affected
+    assertEquals(0, backoff.getDelay(new Identifier("bbbbbbbbbbbbbbbb.onion"), now));
+
+    backoff.reset(destination);
+    assertEquals(0, backoff.getDelay(destination, now));
+    assertEquals(1000, backoff.attempt(destination, now));
+  }
+
+  @Test
+  public void testJitter() {
+    ConnectBackoff backoff = new ConnectBackoff(1000, 100000, 20);
+
+    for (int i = 0; i < 100; i++) {
+      long interval = backoff.attempt(destination, 0);
+      assertTrue(interval >= 800 && interval <= 1200);
+      backoff.reset(destination);
+    }
+
+    // The maximum isn't exceeded by the jitter
+    for (int i = 0; i < 100; i++) {
+      assertTrue(backoff.attempt(destination, 0) <= 100000);
+    }
+  }
+
+  @Test
+  public void testPrune() {
+    ConnectBackoff backoff = new ConnectBackoff(1000, 10000, 0);
+
+    backoff.attempt(destination, 0);
+    backoff.prune(1000 + 10000);
+    assertEquals(1, backoff.size());
+
+    backoff.prune(1000 + 10000 + 1);
+    assertEquals(0, backoff.size());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidJitter() {
+    new ConnectBackoff(1000, 10000, 101);
+  }
+}
@@ -0,0 +1,134 @@
+package edu.kit.tm.ptp.connection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import edu.kit.tm.ptp.Identifier;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Test class for OutboundLimit.
+ *
+ * @author Timon Hackenjos
+ */
+public class OutboundLimitTest {
+  private final Identifier destination = new Identifier("aaaaaaaaaaaaaaaa.onion");
+  private final Identifier other = new Identifier("bbbbbbbbbbbbbbbb.onion");
+
+  @Test
+  public void testUnlimited() {
+    OutboundLimit limit = new OutboundLimit(0, 0, 0, 0);
+
+    for (int i = 0; i < 1000; i++) {
+      assertEquals(true, limit.tryAcquire(destination, 1024 * 1024));
+    }
+
+    assertEquals(1000, limit.getPendingMessages());
+    assertEquals(1000L * 1024 * 1024, limit.getPendingBytes());
+  }
+
+  @Test
+  public void testTotalLimit() {
+    OutboundLimit limit = new OutboundLimit(100, 3, 0, 0);
+
+    // A single message is accepted even if it's too large
+    assertEquals(true, limit.tryAcquire(destination, 150));
+    assertEquals(false, limit.tryAcquire(other, 1));
+
+    limit.release(destination, 150);
+    assertEquals(0, limit.getPendingBytes());
+
+    assertEquals(true, limit.tryAcquire(destination, 10));
+    assertEquals(true, limit.tryAcquire(other, 10));
+    assertEquals(true, limit.tryAcquire(destination, 10));
+    // Limit of messages reached
+    assertEquals(false, limit.tryAcquire(other, 10));
+
+    limit.release(destination, 10);
+    // Limit of bytes reached
+    assertEquals(false, limit.tryAcquire(other, 90));
+    assertEquals(true, limit.tryAcquire(other, 80));
+    assertEquals(3, limit.getPendingMessages());
+    assertEquals(100, limit.getPendingBytes());
+  }
+
+  @Test
+  public void testDestinationLimit() {
+    OutboundLimit limit = new OutboundLimit(0, 0, 0, 2);
+
+    assertEquals(true, limit.tryAcquire(destination, 10));
+    assertEquals(true, limit.tryAcquire(destination, 10));
+    assertEquals(false, limit.tryAcquire(destination, 10));
+
+    // Other destinations aren't affected
+    assertEquals(true, limit.tryAcquire(other, 10));
+    assertEquals(2, limit.getPendingMessages(destination));
+    assertEquals(1, limit.getPendingMessages(other));
+
+    // Messages sent by PTP itself are never refused
+    limit.forceAcquire(destination, 10);
+    assertEquals(3, limit.getPendingMessages(destination));
+  }
+
+  @Test
+  public void testAcquireWaits() throws InterruptedException {
+    final OutboundLimit limit = new OutboundLimit(0, 1, 0, 0);
+    final CountDownLatch acquired = new CountDownLatch(1);
+
+    assertEquals(true, limit.tryAcquire(destination, 10));
+
+    Thread sender = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          if (limit.acquire(other, 10)) {
+            acquired.countDown();
+          }
+        } catch (InterruptedException e) {
+          // Do nothing
+        }
+      }
+    });
+    sender.start();
+
+    assertEquals(false, acquired.await(100, TimeUnit.MILLISECONDS));
+
+    limit.release(destination, 10);
+    assertTrue(acquired.await(5, TimeUnit.SECONDS));
+    assertEquals(1, limit.getPendingMessages(other));
+    sender.join();
+  }
+
+  @Test
+  public void testClose() throws InterruptedException {
+    final OutboundLimit limit = new OutboundLimit(0, 1, 0, 0);
+    final AtomicBoolean result = new AtomicBoolean(true);
+
+    assertEquals(true, limit.tryAcquire(destination, 10));
+
+    Thread sender = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          result.set(limit.acquire(destination, 10));
+        } catch (InterruptedException e) {
+          // Do nothing
+        }
+      }
+    });
+    sender.start();
+
+    Thread.sleep(50);
+    limit.close();
+    sender.join(5000);
+
+    assertEquals(false, sender.isAlive());
+    assertEquals(false, result.get());
+    assertEquals(false, limit.tryAcquire(other, 1));
+  }
+}
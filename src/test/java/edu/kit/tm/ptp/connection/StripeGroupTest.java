@@ -0,0 +1,169 @@
+package edu.kit.tm.ptp.connection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import edu.kit.tm.ptp.Identifier;
+import edu.kit.tm.ptp.channels.MessageChannel;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Test class for StripeGroup.
+ *
+ * @author Timon Hackenjos
+ */
+public class StripeGroupTest {
+  private final Identifier identifier = new Identifier("aaaaaaaaaaaaaaaa.onion");
+  private static final int maxHeldBytesPerStripe = 64 * 1024;
+  private final List<Integer> received = new ArrayList<>();
+  private StripeGroup sender;
+  private StripeGroup receiver;
+
+  @Before
+  public void setUp() {
+    FrameListener listener = new FrameListener() {
+      @Override
+      public void messageReceived(ByteBuffer data, int type, Identifier source) {
+        assertEquals(identifier, source);
+        received.add(data.getInt());
+      }
+    };
+
+    sender = new StripeGroup(42, identifier, listener, maxHeldBytesPerStripe);
+    receiver = new StripeGroup(42, identifier, listener, maxHeldBytesPerStripe);
+  }
+
+  @Test
+  public void testInOrder() {
+    List<byte[]> messages = new ArrayList<>();
+
+    for (int i = 0; i < 5; i++) {
+      messages.add(message(i, MessageChannel.PRIORITY_NORMAL));
+    }
+
+    // Messages arrive on different connections out of order
+    deliver(messages.get(1));
+    deliver(messages.get(3));
+    assertEquals(0, received.size());
+
+    deliver(messages.get(0));
+    assertEquals(Arrays.asList(0, 1), received);
+
+    deliver(messages.get(2));
+    deliver(messages.get(4));
+    assertEquals(Arrays.asList(0, 1, 2, 3, 4), received);
+
+    // Duplicates are dropped
+    deliver(messages.get(2));
+    assertEquals(5, received.size());
+  }
+
+  @Test
+  public void testPriorities() {
+    byte[] normal = message(0, MessageChannel.PRIORITY_NORMAL);
+    byte[] laterNormal = message(1, MessageChannel.PRIORITY_NORMAL);
+    byte[] high = message(2, MessageChannel.PRIORITY_HIGH);
+
+    // Messages of different priorities don't wait for each other
+    deliver(high);
+    deliver(laterNormal);
+    assertEquals(Arrays.asList(2), received);
+
+    deliver(normal);
+    assertEquals(Arrays.asList(2, 0, 1), received);
+  }
+
+  @Test
+  public void testDispatchAgain() {
+    MessageAttempt attempt = attempt(0, MessageChannel.PRIORITY_NORMAL);
+    byte[] first = sender.prefix(attempt);
+    sender.prefix(attempt(1, MessageChannel.PRIORITY_NORMAL));
+
+    // A message keeps its sequence number within the group
+    assertEquals(Arrays.toString(first), Arrays.toString(sender.prefix(attempt)));
+
+    // But gets a new one from a new group
+    StripeGroup other = new StripeGroup(43, identifier, new FrameListener() {
+      @Override
+      public void messageReceived(ByteBuffer data, int type, Identifier source) {}
+    }, maxHeldBytesPerStripe);
+    other.prefix(attempt(2, MessageChannel.PRIORITY_NORMAL));
+    assertNotEquals(Arrays.toString(first), Arrays.toString(other.prefix(attempt)));
+  }
+
+  @Test
+  public void testClose() {
+    deliver(message(0, MessageChannel.PRIORITY_NORMAL));
+    message(1, MessageChannel.PRIORITY_NORMAL);
+    deliver(message(2, MessageChannel.PRIORITY_NORMAL));
+    assertEquals(Arrays.asList(0), received);
+
+    // Held back messages are dropped as their predecessor is missing
+    receiver.close();
+    assertEquals(Arrays.asList(0), received);
+    assertEquals(true, receiver.isClosed());
+
+    // Late messages of the group would overtake the messages of the next one
+    deliver(message(3, MessageChannel.PRIORITY_NORMAL));
+    assertEquals(Arrays.asList(0), received);
+  }
+
+  @Test
+  public void testInvalid() {
+    assertEquals(false, receiver.messageReceived(ByteBuffer.allocate(4), 0));
+
+    ByteBuffer invalidPriority = ByteBuffer.allocate(StripeGroup.prefixLength + 4);
+    invalidPriority.put((byte) 7);
+    invalidPriority.flip();
+    assertEquals(false, receiver.messageReceived(invalidPriority, 0));
+  }
+
+  @Test
+  public void testHeldLimit() {
+    // The first message is missing
+    message(0, MessageChannel.PRIORITY_NORMAL);
+
+    byte[] large = new byte[16 * 1024];
+    MessageAttempt attempt = new MessageAttempt(1, 0, large, -1, identifier, false);
+    boolean accepted = true;
+
+    for (int i = 0; accepted && i <= maxHeldBytesPerStripe / large.length; i++) {
+      attempt.setSequence(null, -1);
+      accepted = receiver.messageReceived(ByteBuffer.wrap(concat(sender.prefix(attempt),
+          large)), 0);
+    }
+
+    assertEquals(false, accepted);
+  }
+
+  private MessageAttempt attempt(int value, int priority) {
+    byte[] data = ByteBuffer.allocate(4).putInt(value).array();
+    MessageAttempt attempt = new MessageAttempt(value, 0, data, -1, identifier, false);
+    attempt.setPriority(priority);
+    return attempt;
+  }
+
+  /**
+   * Returns a message as it is sent within the group.
+   */
+  private byte[] message(int value, int priority) {
+    MessageAttempt attempt = attempt(value, priority);
+    return concat(sender.prefix(attempt), attempt.getData());
+  }
+
+  private static byte[] concat(byte[] prefix, byte[] data) {
+    return ByteBuffer.allocate(prefix.length + data.length).put(prefix).put(data).array();
+  }
+
+  private void deliver(byte[] message) {
+    assertEquals(true, receiver.messageReceived(ByteBuffer.wrap(message),
+        MessageChannel.TYPE_MESSAGE));
+  }
+}
@@ -1,5 +1,6 @@
 package edu.kit.tm.ptp.connection;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -9,6 +10,7 @@ import edu.kit.tm.ptp.connection.ExpireListener;
 import edu.kit.tm.ptp.connection.TimerManager;
 import edu.kit.tm.ptp.utility.Constants;
 import edu.kit.tm.ptp.utility.RNG;
+import edu.kit.tm.ptp.utility.TestHelper;
 
 import org.junit.After;
 import org.junit.Before;
@@ -17,6 +19,7 @@ import org.junit.Test;
 import java.io.IOException;
 import java.nio.charset.Charset;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 /**
@@ -169,4 +172,41 @@ public class TimerManagerTest {
     assertFalse("Stopped TTLManager running check returns true.", runningManager.isRunning());
   }
 
+  /**
+   * Test method for {@link edu.kit.tm.ptp.connection.TimerManager#remove(Identifier, int)}.
+   * Checks that removed and overwritten timers don't expire and that many timers expire
+   * shortly after their expiration time.
+   */
+  @Test
+  public void testManyTimers() {
+    final AtomicInteger expired = new AtomicInteger(0);
+    TimerManager timerManager = new TimerManager(new ExpireListener() {
+      @Override
+      public void expired(Identifier identifier, int timerClass) {
+        expired.incrementAndGet();
+      }
+    }, step);
+    timerManager.start();
+
+    int timers = 10000;
+
+    for (int i = 0; i < timers; i++) {
+      timerManager.setTimer(new Identifier("identifier" + i), expiration, 0);
+      // Expires much later unless removed or overwritten
+      timerManager.setTimerIfNoneExists(new Identifier("identifier" + i), 100 * expiration, 1);
+    }
+
+    for (int i = 0; i < timers; i++) {
+      if (i % 2 == 0) {
+        timerManager.remove(new Identifier("identifier" + i), 1);
+      } else {
+        timerManager.setTimer(new Identifier("identifier" + i), expiration, 1);
+      }
+    }
+
+    TestHelper.wait(expired, timers + timers / 2, step + expiration + 1000);
+    timerManager.stop();
+
+    assertEquals(timers + timers / 2, expired.get());
+  }
 }
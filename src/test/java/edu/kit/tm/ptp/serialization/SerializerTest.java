@@ -10,7 +10,10 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class SerializerTest {
   private Serializer serializer;
@@ -40,4 +43,102 @@ public class SerializerTest {
     assertArrayEquals(message.getData(), ((ByteArrayMessage) deserializedMessage).getData());
   }
 
+  @Test
+  public void testDeserializeDirectBuffer() throws IOException {
+    final Charset charset = Charset.forName(Constants.charset);
+    serializer.registerClass(byte[].class);
+    serializer.registerClass(ByteArrayMessage.class);
+
+    ByteArrayMessage message = new ByteArrayMessage("Hallo".getBytes(charset));
+    byte[] serializedMessage = serializer.serialize(message);
+
+    ByteBuffer buffer = ByteBuffer.allocateDirect(serializedMessage.length + 1);
+    buffer.put((byte) 0);
+    buffer.put(serializedMessage);
+    buffer.flip();
+    buffer.position(1);
+
+    Object deserializedMessage = serializer.deserialize(buffer);
+
+    assertEquals(true, deserializedMessage instanceof ByteArrayMessage);
+    assertArrayEquals(message.getData(), ((ByteArrayMessage) deserializedMessage).getData());
+    assertEquals(1, buffer.position());
+  }
+
+  @Test
+  public void testRightSizedOutput() throws IOException {
+    serializer.registerClass(byte[].class);
+    serializer.registerClass(ByteArrayMessage.class);
+
+    byte[] small = serializer.serialize(new ByteArrayMessage(new byte[] {0x1, 0x2}));
+    // Grows the reused buffer of the thread
+    serializer.serialize(new ByteArrayMessage(new byte[10 * 1024]));
+
+    assertArrayEquals(small, serializer.serialize(new ByteArrayMessage(new byte[] {0x1, 0x2})));
+    assertEquals(true, small.length < 16);
+  }
+
+  @Test
+  public void testRegisterAfterUse() throws IOException, InterruptedException {
+    serializer.registerClass(byte[].class);
+    serializer.serialize(new byte[] {0x1});
+
+    // Registered after the Kryo instance of this thread has been used
+    serializer.registerClass(ByteArrayMessage.class);
+
+    final byte[][] serialized = new byte[1][];
+    Thread thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        serialized[0] = serializer.serialize(new ByteArrayMessage(new byte[] {0x42}));
+      }
+    });
+    thread.start();
+    thread.join();
+
+    Object obj = serializer.deserialize(serialized[0]);
+    assertEquals(true, obj instanceof ByteArrayMessage);
+    assertArrayEquals(new byte[] {0x42}, ((ByteArrayMessage) obj).getData());
+  }
+
+  @Test
+  public void testConcurrentUse() throws InterruptedException {
+    serializer.registerClass(byte[].class);
+    serializer.registerClass(ByteArrayMessage.class);
+
+    final int messages = 1000;
+    final AtomicInteger failures = new AtomicInteger(0);
+    Thread[] threads = new Thread[4];
+
+    for (int i = 0; i < threads.length; i++) {
+      final byte value = (byte) i;
+      threads[i] = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          byte[] data = new byte[100];
+          Arrays.fill(data, value);
+
+          for (int j = 0; j < messages; j++) {
+            try {
+              Object obj = serializer.deserialize(serializer.serialize(new ByteArrayMessage(data)));
+
+              if (!Arrays.equals(data, ((ByteArrayMessage) obj).getData())) {
+                failures.incrementAndGet();
+              }
+            } catch (IOException | RuntimeException e) {
+              failures.incrementAndGet();
+            }
+          }
+        }
+      });
+      threads[i].start();
+    }
+
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    assertEquals(0, failures.get());
+  }
+
 }
@@ -4,6 +4,7 @@ import edu.kit.tm.ptp.channels.ChannelListener;
 import edu.kit.tm.ptp.channels.MessageChannel;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 
+import java.nio.ByteBuffer;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -16,6 +17,7 @@ public class Listener implements ChannelListener {
   public AtomicInteger write = new AtomicInteger(0);
   private MessageChannel passedChannel;
   private byte[] passedBytes;
+  private int passedType;
   private long passedId;
   private MessageChannel destination;
   private MessageChannel source;
@@ -29,10 +31,11 @@ public class Listener implements ChannelListener {
   }
 
   @Override
-  @SuppressFBWarnings(value = "EI_EXPOSE_REP2", justification = "MessageChannel uses"
-      + "a new buffer for each message and doesn't change old buffers.")
-  public synchronized void messageReceived(byte[] data, MessageChannel source) {
-    passedBytes = data;
+  public synchronized void messageReceived(ByteBuffer data, int type, MessageChannel source) {
+    passedType = type;
+    passedBytes = new byte[data.remaining()];
+    data.get(passedBytes);
+    source.releaseBuffer(data);
     this.source = source;
     other.incrementAndGet();
     read.incrementAndGet();
@@ -60,6 +63,10 @@ public class Listener implements ChannelListener {
     return passedBytes;
   }
 
+  public synchronized int getPassedType() {
+    return passedType;
+  }
+
   public synchronized long getPassedId() {
     return passedId;
   }